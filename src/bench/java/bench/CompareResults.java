@@ -0,0 +1,89 @@
+package bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares two JMH runs, benchmark by benchmark, for throughput and the allocation rate per operation reported
+ * by the GC profiler. Exits with status 1 if any benchmark's throughput dropped, or its allocation grew, by more
+ * than the threshold.
+ *
+ * Run the benchmarks on the revision to compare against and keep its results, then on the change, and compare:
+ * mvn -Pbench compile exec:exec@jmh -Djmh.args="-prof gc -rf json -rff jmh-before.json"
+ * mvn -Pbench compile exec:exec@jmh
+ * mvn -Pbench exec:java -Dexec.mainClass=bench.CompareResults -Dexec.args="jmh-before.json target/jmh-result.json 10"
+ * (arguments: results before, results after, threshold in percent, 10 by default).
+ * Scores only compare between runs on the same machine and JVM, so no baseline is checked in; runs on different
+ * JVMs are refused.
+ */
+public class CompareResults {
+
+    private static final String ALLOC = "gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CompareResults <before.json> <after.json> [threshold %]");
+            System.exit(2);
+        }
+        Map<String, JsonNode> baseline = load(args[0]);
+        Map<String, JsonNode> results = load(args[1]);
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        String jvmBefore = jvm(baseline);
+        String jvmAfter = jvm(results);
+        if (!jvmBefore.equals(jvmAfter)) {
+            System.err.println("Runs are from different JVMs and cannot be compared: " + jvmBefore + " and " + jvmAfter);
+            System.exit(2);
+        }
+
+        boolean regressed = false;
+        System.out.printf("%-44s %14s %14s %8s %12s %12s%n", "benchmark", "before", "after", "change",
+                "B/op before", "B/op now");
+        for (Map.Entry<String, JsonNode> entry : results.entrySet()) {
+            JsonNode current = entry.getValue();
+            JsonNode before = baseline.get(entry.getKey());
+            double score = current.at("/primaryMetric/score").asDouble();
+            double alloc = current.at("/secondaryMetrics/" + ALLOC + "/score").asDouble(Double.NaN);
+            if (before == null) {
+                System.out.printf("%-44s %14s %14.3f %8s %12s %12.0f%n", entry.getKey(), "-", score, "new", "-", alloc);
+                continue;
+            }
+            double baseScore = before.at("/primaryMetric/score").asDouble();
+            double baseAlloc = before.at("/secondaryMetrics/" + ALLOC + "/score").asDouble(Double.NaN);
+            double change = (score - baseScore) / baseScore * 100;
+            boolean slower = change < -threshold;
+            boolean allocates = baseAlloc >= 0 && alloc > baseAlloc * (1 + threshold / 100) + 8; // Slack for padding
+            regressed |= slower || allocates;
+            System.out.printf("%-44s %14.3f %14.3f %+7.1f%% %12.0f %12.0f%s%n", entry.getKey(), baseScore, score,
+                    change, baseAlloc, alloc, slower || allocates ? "  REGRESSION" : "");
+        }
+        System.exit(regressed ? 1 : 0);
+    }
+
+    // The JVM a run was measured on, e.g. "OpenJDK 64-Bit Server VM 24.0.2+12"
+    private static String jvm(Map<String, JsonNode> results) {
+        if (results.isEmpty()) {
+            return "";
+        }
+        JsonNode result = results.values().iterator().next();
+        return result.path("vmName").asText() + " " + result.path("vmVersion").asText();
+    }
+
+    // Results by benchmark name, with parameters appended so parameterized runs stay distinct
+    private static Map<String, JsonNode> load(String file) throws IOException {
+        Map<String, JsonNode> byName = new LinkedHashMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(new File(file))) {
+            String name = result.get("benchmark").asText().replaceFirst("^bench\\.", "");
+            JsonNode params = result.get("params");
+            if (params != null) {
+                name += params.toString();
+            }
+            byName.put(name, result);
+        }
+        return byName;
+    }
+}
@@ -0,0 +1,105 @@
+package bench;
+
+import server.HttpServer;
+import server.response.HttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the default pool of 50 platform threads with a virtual thread per connection.
+ * Opens the given number of concurrent connections at once, each sending one request to a handler
+ * that blocks for a while (standing in for a downstream call), and reports throughput and latency.
+ *
+ * Run with: mvn -Pbench compile exec:java -Dexec.mainClass=bench.ExecutionModeBenchmark -Dexec.args="10000 100"
+ * (arguments: connections, handler blocking time in ms). 10k connections need a file descriptor limit
+ * of at least 20k for client and server sockets together (ulimit -n). Run it on the JDK the build targets (24):
+ * handlers that block inside synchronized code only stop pinning their carrier thread from JDK 24 (JEP 491).
+ * No results are recorded for this build yet.
+ */
+public class ExecutionModeBenchmark {
+
+    private static final byte[] REQUEST = "GET /slow HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int handlerMillis = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        // Room in the queue for every connection, so the platform run measures queueing rather than load shedding
+        run("platform pool (50 threads)", new HttpServer(18091).workQueueCapacity(connections)
+                .maxConnections(connections), connections, handlerMillis);
+        run("virtual thread per connection", new HttpServer(18092).virtualThreads()
+                .maxConnections(connections), connections, handlerMillis);
+        System.exit(0);
+    }
+
+    private static void run(String label, HttpServer server, int connections, int handlerMillis) throws Exception {
+        server.get("/slow", request -> {
+            try {
+                Thread.sleep(handlerMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new HttpResponse(200, "ok");
+        }).startServer();
+        Ports.awaitPort(server.getPort());
+
+        long[] latencies = new long[connections];
+        AtomicInteger failures = new AtomicInteger();
+        long start = System.nanoTime();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < connections; i++) {
+                int index = i;
+                clients.submit(() -> {
+                    long sent = System.nanoTime();
+                    if (request(server.getPort())) {
+                        latencies[index] = System.nanoTime() - sent;
+                    } else {
+                        latencies[index] = Long.MAX_VALUE;
+                        failures.incrementAndGet();
+                    }
+                });
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        int succeeded = connections - failures.get();
+        System.out.printf("%n=== %s: %d connections, handler blocks %d ms ===%n", label, connections, handlerMillis);
+        System.out.printf("wall time   %8.2f s%n", elapsed / 1e9);
+        System.out.printf("throughput  %8.0f req/s%n", succeeded / (elapsed / 1e9));
+        System.out.printf("failures    %8d%n", failures.get());
+        if (succeeded > 0) {
+            System.out.printf("p50         %8.1f ms%n", percentile(latencies, succeeded, 0.50));
+            System.out.printf("p99         %8.1f ms%n", percentile(latencies, succeeded, 0.99));
+            System.out.printf("max         %8.1f ms%n", latencies[succeeded - 1] / 1e6);
+        }
+    }
+
+    // Send one request on a fresh connection and read the response until the server closes it
+    private static boolean request(int port) {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(120_000);
+            OutputStream out = socket.getOutputStream();
+            out.write(REQUEST);
+            out.flush();
+            InputStream in = socket.getInputStream();
+            byte[] response = in.readAllBytes();
+            return new String(response, 0, Math.min(response.length, 12), StandardCharsets.US_ASCII).equals("HTTP/1.1 200");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static double percentile(long[] sorted, int count, double p) {
+        return sorted[Math.min(count - 1, (int) (count * p))] / 1e6;
+    }
+}
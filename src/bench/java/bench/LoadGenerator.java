@@ -0,0 +1,310 @@
+package bench;
+
+import playground.books.Book;
+import playground.books.BookDao;
+import playground.books.BookRoutes;
+import server.HttpServer;
+import server.admission.AimdConcurrencyLimiter;
+import server.admission.GradientConcurrencyLimiter;
+import server.metrics.Histogram;
+import server.transport.NioTransport;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An end-to-end load test over loopback: starts an HttpServer with the book routes and the static files, then
+ * drives it with an in-process client at a constant arrival rate and reports throughput and latency percentiles
+ * for GET /books, POST /books, and a static asset.
+ * <p>
+ * The client is open-loop: request i is due at start + i / rate whether or not earlier requests have been
+ * answered, and its latency is measured from when it was due, not from when a connection was free to send it.
+ * A server that stalls therefore shows the stall in every request scheduled during it, rather than the
+ * closed-loop client quietly sending less (coordinated omission). If the rate cannot be sustained with the
+ * given connections, latency grows without bound and the achieved throughput falls below the target.
+ * <p>
+ * Run with: mvn -Pbench compile exec:java -Dexec.mainClass=bench.LoadGenerator -Dexec.args="--rate=5000 --transport=nio"
+ * <pre>
+ * --rate=N          target requests per second (default 5000)
+ * --connections=N   concurrent client connections (default 32)
+ * --duration=S      measured seconds per scenario (default 10), after --warmup=S seconds (default 5)
+ * --connection=keep-alive|close   reuse connections, or open one per request (default keep-alive)
+ * --transport=blocking|nio        server transport (default blocking)
+ * --executor=pool|virtual         server executor: the default pool or a virtual thread per task (default pool)
+ * --limiter=none|aimd|gradient    server concurrency limiter (default none); aimd targets 50 ms
+ * --scenarios=get,post,static     scenarios to run, in order (default all three)
+ * --port=N          server port (default 18093)
+ * </pre>
+ * Compare transports and executors by running each configuration at the same rate on the same machine.
+ * Above the server's capacity, compare limiters by goodput: the rate of 2xx responses, which a limiter keeps
+ * near its peak by shedding the excess with 503 rather than letting every request queue.
+ */
+public class LoadGenerator {
+
+    private static final String STATIC_ASSET = "/css/styles.css";
+    private static final byte[] POST_BODY = "{\"title\":\"Designing Data-Intensive Applications\"}"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final int SEED_BOOKS = 20;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int rate = Integer.parseInt(options.getOrDefault("rate", "5000"));
+        int connections = Integer.parseInt(options.getOrDefault("connections", "32"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "10"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        boolean keepAlive = !options.getOrDefault("connection", "keep-alive").equals("close");
+        String transport = options.getOrDefault("transport", "blocking");
+        String executor = options.getOrDefault("executor", "pool");
+        String limiter = options.getOrDefault("limiter", "none");
+        int port = Integer.parseInt(options.getOrDefault("port", "18093"));
+        String[] scenarios = options.getOrDefault("scenarios", "get,post,static").split(",");
+
+        HttpServer server = new HttpServer(port)
+                .routes(new BookRoutes())
+                .staticFiles("/", "/static")
+                .accessLog(null); // Measure the server, not the console
+        if (transport.equals("nio")) {
+            server.transport(new NioTransport());
+        }
+        if (executor.equals("virtual")) {
+            server.virtualThreads();
+        }
+        switch (limiter) {
+            case "aimd" -> server.concurrencyLimit(new AimdConcurrencyLimiter(Duration.ofMillis(50)));
+            case "gradient" -> server.concurrencyLimit(new GradientConcurrencyLimiter());
+            case "none" -> { }
+            default -> throw new IllegalArgumentException("Unknown limiter: " + limiter);
+        }
+        for (int i = 0; i < SEED_BOOKS; i++) {
+            BookDao.addBook(new Book(null, "Seed book " + i));
+        }
+        server.startServer();
+        Ports.awaitPort(port);
+
+        System.out.printf("transport=%s executor=%s limiter=%s connection=%s rate=%d/s connections=%d duration=%ds"
+                        + " warmup=%ds%n", transport, executor, limiter, keepAlive ? "keep-alive" : "close", rate,
+                connections, duration, warmup);
+        for (String scenario : scenarios) {
+            byte[] request = request(scenario, keepAlive);
+            if (warmup > 0) {
+                run(port, request, keepAlive, rate, connections, warmup);
+            }
+            Result result = run(port, request, keepAlive, rate, connections, duration);
+            result.print(scenario, rate);
+        }
+        System.exit(0);
+    }
+
+    private static byte[] request(String scenario, boolean keepAlive) {
+        String connection = keepAlive ? "" : "Connection: close\r\n";
+        String head = switch (scenario) {
+            case "get" -> "GET /books HTTP/1.1\r\nHost: localhost\r\n" + connection + "\r\n";
+            case "post" -> "POST /books HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\n"
+                    + "Content-Length: " + POST_BODY.length + "\r\n" + connection + "\r\n";
+            case "static" -> "GET " + STATIC_ASSET + " HTTP/1.1\r\nHost: localhost\r\n" + connection + "\r\n";
+            default -> throw new IllegalArgumentException("Unknown scenario: " + scenario);
+        };
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.writeBytes(head.getBytes(StandardCharsets.US_ASCII));
+        if (scenario.equals("post")) {
+            bytes.writeBytes(POST_BODY);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Send requests at a constant rate for a number of seconds, sharing one schedule across the connections:
+     * each connection takes the next due request, waits until it is due, sends it, and reads the response.
+     */
+    private static Result run(int port, byte[] request, boolean keepAlive, int rate, int connections, int seconds)
+            throws InterruptedException {
+        Result result = new Result();
+        AtomicLong next = new AtomicLong();
+        long total = (long) rate * seconds;
+        double intervalNanos = 1e9 / rate;
+        long start = System.nanoTime();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            Thread worker = new Thread(() -> {
+                Client client = new Client(port);
+                long sequence;
+                while ((sequence = next.getAndIncrement()) < total) {
+                    long due = start + (long) (sequence * intervalNanos);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    try {
+                        int status = client.exchange(request, keepAlive);
+                        result.latency.record(System.nanoTime() - due);
+                        if (status / 100 != 2) {
+                            result.statusErrors.increment();
+                        }
+                    } catch (IOException e) {
+                        result.ioErrors.increment();
+                        client.close();
+                    }
+                }
+                client.close();
+            }, "load-client-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private static final class Result {
+        final Histogram latency = new Histogram();
+        final LongAdder statusErrors = new LongAdder();
+        final LongAdder ioErrors = new LongAdder();
+        long elapsedNanos;
+
+        void print(String scenario, int rate) {
+            long count = latency.getCount();
+            System.out.printf("%n=== %s: target %d req/s ===%n", scenario, rate);
+            System.out.printf("throughput  %10.0f req/s%n", count / (elapsedNanos / 1e9));
+            System.out.printf("goodput     %10.0f req/s%n", (count - statusErrors.sum()) / (elapsedNanos / 1e9));
+            System.out.printf("responses   %10d (non-2xx %d, I/O errors %d)%n", count, statusErrors.sum(), ioErrors.sum());
+            System.out.printf("p50         %10.3f ms%n", latency.getValueAtQuantile(0.50) / 1e6);
+            System.out.printf("p99         %10.3f ms%n", latency.getValueAtQuantile(0.99) / 1e6);
+            System.out.printf("p99.9       %10.3f ms%n", latency.getValueAtQuantile(0.999) / 1e6);
+            System.out.printf("max         %10.3f ms%n", latency.getMax() / 1e6);
+        }
+    }
+
+    /**
+     * One client connection, opened on first use and again after the server closes it.
+     */
+    private static final class Client {
+        private final int port;
+        private final byte[] scratch = new byte[8192];
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+
+        Client(int port) {
+            this.port = port;
+        }
+
+        /**
+         * @return the response status
+         */
+        int exchange(byte[] request, boolean keepAlive) throws IOException {
+            if (socket == null) {
+                socket = new Socket();
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(30_000);
+                socket.connect(new InetSocketAddress("localhost", port));
+                in = new BufferedInputStream(socket.getInputStream());
+                out = socket.getOutputStream();
+            }
+            out.write(request);
+            out.flush();
+            int status = readResponse();
+            if (!keepAlive) {
+                close();
+            }
+            return status;
+        }
+
+        // Reads the head and skips the body, closing the connection if the server asked to
+        private int readResponse() throws IOException {
+            String statusLine = readLine();
+            if (statusLine == null || statusLine.length() < 12) {
+                throw new IOException("Connection closed before a response");
+            }
+            int status = Integer.parseInt(statusLine.substring(9, 12));
+            long contentLength = -1;
+            boolean chunked = false;
+            boolean close = false;
+            String line;
+            while ((line = readLine()) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    contentLength = Long.parseLong(value);
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = value.equalsIgnoreCase("chunked");
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    close = value.equalsIgnoreCase("close");
+                }
+            }
+            if (chunked) {
+                long size;
+                while ((size = Long.parseLong(readLine().trim(), 16)) > 0) {
+                    skip(size + 2);
+                }
+                while ((line = readLine()) != null && !line.isEmpty()) {
+                    // Trailers
+                }
+            } else if (contentLength > 0) {
+                skip(contentLength);
+            }
+            if (close) {
+                close();
+            }
+            return status;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = in.read()) != -1 && b != '\n') {
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            return b == -1 && line.isEmpty() ? null : line.toString();
+        }
+
+        private void skip(long length) throws IOException {
+            while (length > 0) {
+                int read = in.read(scratch, 0, (int) Math.min(scratch.length, length));
+                if (read < 0) {
+                    throw new IOException("Connection closed in the response body");
+                }
+                length -= read;
+            }
+        }
+
+        void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+                socket = null;
+            }
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        return options;
+    }
+}
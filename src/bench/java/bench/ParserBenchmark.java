@@ -0,0 +1,64 @@
+package bench;
+
+import playground.books.Book;
+import server.request.HttpRequest;
+import server.request.HttpRequestParser;
+import server.request.RequestBody;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a request head into an {@link HttpRequest} and reading the parts a handler typically reads,
+ * as the transports do for every request. One parser per benchmark thread, as there is one per connection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+    private final HttpRequestParser parser = new HttpRequestParser();
+
+    @Benchmark
+    public void smallGet(Blackhole bh) {
+        HttpRequest request = parse(SampleRequests.SMALL_GET, null);
+        bh.consume(request.getMethod());
+        bh.consume(request.getPath());
+        bh.consume(request.isKeepAlive());
+    }
+
+    @Benchmark
+    public void browserGet(Blackhole bh) {
+        HttpRequest request = parse(SampleRequests.BROWSER_GET, null);
+        bh.consume(request.getMethod());
+        bh.consume(request.getPath());
+        bh.consume(request.getQueryParams());
+        bh.consume(request.getHeader("Accept-Encoding"));
+        bh.consume(request.getHeader("If-None-Match"));
+        bh.consume(request.isKeepAlive());
+    }
+
+    @Benchmark
+    public Book jsonPost() {
+        HttpRequest request = parse(SampleRequests.JSON_POST_HEAD, new RequestBody(SampleRequests.JSON_POST_BODY));
+        return request.getBodyAs(Book.class);
+    }
+
+    private HttpRequest parse(byte[] bytes, RequestBody body) {
+        int headLength = parser.parseHead(bytes, 0, bytes.length);
+        return parser.toRequest(bytes, 0, headLength, body);
+    }
+}
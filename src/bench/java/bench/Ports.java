@@ -0,0 +1,29 @@
+package bench;
+
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * Waiting for a server under benchmark to come up, shared by the benchmarks that start one.
+ */
+final class Ports {
+
+    private Ports() {
+    }
+
+    /**
+     * Block until something accepts connections on a local port.
+     * @param port the port
+     * @throws InterruptedException if interrupted while waiting
+     */
+    static void awaitPort(int port) throws InterruptedException {
+        while (true) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+    }
+}
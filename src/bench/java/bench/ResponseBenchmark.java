@@ -0,0 +1,69 @@
+package bench;
+
+import playground.books.Book;
+import server.json.JsonCodec;
+import server.response.HttpResponse;
+import server.response.HttpResponseFormater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a response and formatting its head, as the transports do before writing it:
+ * a plain text response, and the JSON path, where the body is serialized by the server's codec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseBenchmark {
+
+    private final JsonCodec codec = JsonCodec.getDefault();
+    private final Book book = new Book("42", "The Pragmatic Programmer");
+    private final List<Book> books = new ArrayList<>();
+
+    public ResponseBenchmark() {
+        for (int i = 0; i < 20; i++) {
+            books.add(new Book(String.valueOf(i), "Book number " + i));
+        }
+    }
+
+    @Benchmark
+    public byte[] formatHeaders() {
+        HttpResponse response = new HttpResponse(200, "Hello, World!")
+                .withHeader("Cache-Control", "no-cache")
+                .withHeader("Connection", "keep-alive");
+        return HttpResponseFormater.formatHeaders(response).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public void jsonObject(Blackhole bh) {
+        encode(new HttpResponse(200).json(book), bh);
+    }
+
+    @Benchmark
+    public void jsonList(Blackhole bh) {
+        encode(new HttpResponse(200).json(books), bh);
+    }
+
+    private void encode(HttpResponse response, Blackhole bh) {
+        response.encodeBody(codec);
+        bh.consume(HttpResponseFormater.formatHeaders(response).getBytes(StandardCharsets.US_ASCII));
+        bh.consume(response.getBodyBytes());
+    }
+}
@@ -0,0 +1,85 @@
+package bench;
+
+import playground.books.BookRoutes;
+import server.request.HttpRequestHandler;
+import server.response.HttpResponse;
+import server.route.Route;
+import server.route.RouteMatch;
+import server.route.Router;
+import server.staticfiles.StaticMount;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Route lookup as the server does it for every request, over the book routes plus a REST API's worth of
+ * literal, parameterized, and wildcard routes and a few static mounts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RouterBenchmark {
+
+    private final Router router;
+
+    public RouterBenchmark() {
+        HttpRequestHandler handler = request -> new HttpResponse(200);
+        Map<Route, HttpRequestHandler> routes = new HashMap<>(new BookRoutes().getRoutes());
+        for (String resource : List.of("users", "orders", "products", "reviews", "carts")) {
+            routes.put(new Route("/api/v1/" + resource, "GET"), handler);
+            routes.put(new Route("/api/v1/" + resource, "POST"), handler);
+            routes.put(new Route("/api/v1/" + resource + "/{id}", "GET"), handler);
+            routes.put(new Route("/api/v1/" + resource + "/{id}", "PUT"), handler);
+            routes.put(new Route("/api/v1/" + resource + "/{id}", "DELETE"), handler);
+            routes.put(new Route("/api/v1/" + resource + "/{id}/history/{version}", "GET"), handler);
+        }
+        routes.put(new Route("/api/v1/users/me", "GET"), handler);
+        routes.put(new Route("/health", "GET"), handler);
+        routes.put(new Route("/metrics", "GET"), handler);
+        routes.put(new Route("/downloads/*", "GET"), handler);
+        List<StaticMount> mounts = List.of(new StaticMount("/", "/static/", null),
+                new StaticMount("/assets/", "/assets/", null), new StaticMount("/docs/", "/docs/", null));
+        router = new Router(routes, Map.of(), Map.of(), Map.of(), mounts);
+    }
+
+    @Benchmark
+    public RouteMatch literal() {
+        return router.find("GET", "/books");
+    }
+
+    @Benchmark
+    public RouteMatch parameters() {
+        return router.find("GET", "/api/v1/orders/81723/history/4");
+    }
+
+    @Benchmark
+    public RouteMatch wildcard() {
+        return router.find("GET", "/downloads/releases/2.1/server.tar.gz");
+    }
+
+    @Benchmark
+    public RouteMatch methodNotAllowed() {
+        return router.find("PATCH", "/api/v1/products/17");
+    }
+
+    @Benchmark
+    public StaticMount staticMount() {
+        // Unrouted paths fall through to the static mounts
+        return router.find("GET", "/assets/css/site.css") == null ? router.findMount("/assets/css/site.css") : null;
+    }
+}
@@ -0,0 +1,63 @@
+package bench;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Requests as clients send them, shared by the microbenchmarks.
+ */
+final class SampleRequests {
+
+    /** A minimal GET, as sent by curl or a load generator. */
+    static final byte[] SMALL_GET = ascii("""
+            GET /books HTTP/1.1\r
+            Host: localhost:8080\r
+            User-Agent: curl/8.5.0\r
+            Accept: */*\r
+            \r
+            """);
+
+    /** A GET as a desktop browser sends it, with a query string, client hints, and cookies. */
+    static final byte[] BROWSER_GET = ascii("""
+            GET /books?page=2&sort=title HTTP/1.1\r
+            Host: localhost:8080\r
+            Connection: keep-alive\r
+            sec-ch-ua: "Chromium";v="128", "Not;A=Brand";v="24", "Google Chrome";v="128"\r
+            sec-ch-ua-mobile: ?0\r
+            sec-ch-ua-platform: "macOS"\r
+            Upgrade-Insecure-Requests: 1\r
+            User-Agent: Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/128.0.0.0 Safari/537.36\r
+            Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,image/apng,*/*;q=0.8\r
+            Sec-Fetch-Site: same-origin\r
+            Sec-Fetch-Mode: navigate\r
+            Sec-Fetch-User: ?1\r
+            Sec-Fetch-Dest: document\r
+            Referer: http://localhost:8080/books?page=1&sort=title\r
+            Accept-Encoding: gzip, deflate, br, zstd\r
+            Accept-Language: en-US,en;q=0.9,de;q=0.8\r
+            Cookie: session=7f3a9c2e4b8d1f6a0e5c3b9d7a2f4e8c; theme=dark; _ga=GA1.1.1234567890.1726000000\r
+            If-None-Match: "5d41402abc4b2a76b9719d911017c592"\r
+            \r
+            """);
+
+    static final byte[] JSON_POST_BODY = ascii("{\"id\":\"42\",\"title\":\"The Pragmatic Programmer\"}");
+
+    /** The head of a JSON POST, as sent by a fetch() call; {@link #JSON_POST_BODY} follows it. */
+    static final byte[] JSON_POST_HEAD = ascii("""
+            POST /books HTTP/1.1\r
+            Host: localhost:8080\r
+            Connection: keep-alive\r
+            Content-Type: application/json\r
+            Accept: application/json\r
+            Origin: http://localhost:8080\r
+            User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:130.0) Gecko/20100101 Firefox/130.0\r
+            Content-Length: %d\r
+            \r
+            """.formatted(JSON_POST_BODY.length));
+
+    private SampleRequests() {
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
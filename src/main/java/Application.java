@@ -1,12 +1,25 @@
+import playground.books.BookDao;
 import playground.books.BookRoutes;
+import playground.store.Durability;
 import server.HttpServer;
+import server.cache.CachePolicy;
+import server.route.Route;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 
 public class Application {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        BookDao.open(Path.of("data", "books"), Durability.GROUP_COMMIT);
         HttpServer server = new HttpServer(8080);
         server
                 .rateLimit(5)
+                .compression()
                 .routes(new BookRoutes())
+                .cache(new Route("/books", "GET"), new CachePolicy(Duration.ofSeconds(5))
+                        .staleWhileRevalidate(Duration.ofSeconds(30))
+                        .invalidatedBy(new Route("/books", "POST")))
                 .staticFiles("/hidden", "hidden")
                 .staticFiles("/", "/static");
         server.startServer();
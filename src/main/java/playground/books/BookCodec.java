@@ -0,0 +1,24 @@
+package playground.books;
+
+import playground.store.RecordCodec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stores a book as its UTF-8 title.
+ */
+class BookCodec implements RecordCodec<Book> {
+
+    @Override
+    public byte[] encode(Book book) {
+        return book.getTitle().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Book decode(ByteBuffer payload) {
+        byte[] title = new byte[payload.remaining()];
+        payload.get(title);
+        return new Book(null, new String(title, StandardCharsets.UTF_8));
+    }
+}
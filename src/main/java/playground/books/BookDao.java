@@ -1,30 +1,59 @@
 package playground.books;
 
-import java.util.ArrayList;
+import playground.store.Durability;
+import playground.store.InMemoryRepository;
+import playground.store.Snapshot;
+import playground.store.WriteAheadLog;
+
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 
 public class BookDao {
 
-    public static List<Book> books = new ArrayList<>();
+    private static InMemoryRepository<Book> books = newRepository();
+    private static InMemoryRepository<Book>.Index<String> byTitle = books.index(Book::getTitle);
+    private static WriteAheadLog<Book> log; // Null while books are only kept in memory
 
-    public static Book getById(String id) {
-        return books.stream()
-                .filter(book -> book.getId().equals(id))
-                .findFirst()
-                .orElse(null);
+    /**
+     * Keep books in a directory, loading the ones stored there. Without this they are lost on restart.
+     * Call before serving requests; books added before are dropped.
+     *
+     * @param dir        the directory
+     * @param durability when an added book counts as saved
+     * @throws IOException if the directory cannot be read or its contents are corrupt
+     */
+    public static void open(Path dir, Durability durability) throws IOException {
+        InMemoryRepository<Book> repository = newRepository();
+        log = WriteAheadLog.open(dir, repository, new BookCodec(), durability);
+        books = repository;
+        byTitle = repository.index(Book::getTitle);
     }
 
-    public static Book addBook(Book book) {
-        // Set bookId
-        if (books.isEmpty()) {
-            book.setId("1");
-        } else {
-            String lastId = books.getLast().getId();
-            int newId = Integer.parseInt(lastId) + 1;
-            book.setId(String.valueOf(newId));
+    private static InMemoryRepository<Book> newRepository() {
+        return new InMemoryRepository<>((book, id) -> book.setId(String.valueOf(id)));
+    }
+
+    public static Book getById(String id) {
+        try {
+            return books.get(Long.parseLong(id));
+        } catch (NumberFormatException e) {
+            return null; // Not an id this store hands out
         }
+    }
+
+    public static List<Book> getByTitle(String title) {
+        return byTitle.find(title);
+    }
 
-        books.add(book);
-        return book;
+    /**
+     * @return every book added so far, in the order they were added
+     */
+    public static Snapshot<Book> getAll() {
+        return books.snapshot();
+    }
+
+    public static Book addBook(Book book) {
+        return log != null ? log.insert(book) : books.insert(book);
     }
-}
\ No newline at end of file
+}
@@ -2,36 +2,89 @@ package playground.books.handlers;
 
 import playground.books.Book;
 import playground.books.BookDao;
+import playground.store.Snapshot;
 import server.request.HttpRequest;
 import server.request.HttpRequestHandler;
 import server.response.HttpResponse;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Lists books a page at a time: {@code limit} books (default 100) with ids after {@code after} (default 0).
+ * A page that is not the last links to the next one with a {@code Link: <...>; rel="next"} header, keyed by the
+ * last id on it, so following the links neither skips nor repeats books however many are added meanwhile.
+ * {@code stream=json} or {@code stream=ndjson} exports every book instead, written as it is encoded.
+ */
 public class GetBooksHandler implements HttpRequestHandler {
 
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 1000;
+
     @Override
     public HttpResponse handle(HttpRequest request) {
+        Map<String, String> params = request.getQueryParams();
         // Check for id
-        if (request.getQueryParams().containsKey("id")) {
-            String id = request.getQueryParams().get("id");
+        if (params.containsKey("id")) {
+            String id = params.get("id");
             Book book = BookDao.getById(id);
             if (book == null) {
                 return new HttpResponse()
                         .withStatus(404)
                         .withBody("Book not found");
             }
-            var response = new HttpResponse(200, book);
-            response.putHeader("Content-Type", "application/json");
             return new HttpResponse()
                     .withStatus(200)
                     .withContentType("application/json")
                     .withBody(book);
         }
 
-        List<Book> books = BookDao.books;
-        return new HttpResponse()
+        if (params.containsKey("title")) {
+            return new HttpResponse()
+                    .withStatus(200)
+                    .json(BookDao.getByTitle(params.get("title")));
+        }
+
+        Snapshot<Book> books = BookDao.getAll();
+        if (params.containsKey("stream")) {
+            return switch (params.get("stream")) {
+                case "json" -> new HttpResponse().withStatus(200).jsonStream(books);
+                case "ndjson" -> new HttpResponse().withStatus(200).ndjsonStream(books);
+                default -> new HttpResponse()
+                        .withStatus(400)
+                        .withBody("Stream must be json or ndjson.");
+            };
+        }
+
+        int limit;
+        long after;
+        try {
+            limit = Integer.parseInt(params.getOrDefault("limit", String.valueOf(DEFAULT_LIMIT)));
+            after = Long.parseLong(params.getOrDefault("after", "0"));
+        } catch (NumberFormatException e) {
+            limit = -1;
+            after = -1;
+        }
+        if (limit < 1 || limit > MAX_LIMIT || after < 0) {
+            return new HttpResponse()
+                    .withStatus(400)
+                    .withBody("Limit must be 1 to " + MAX_LIMIT + " and after a book id.");
+        }
+
+        List<Book> page = new ArrayList<>(Math.min(limit, 64));
+        Iterator<Book> it = books.after(after).iterator();
+        while (page.size() < limit && it.hasNext()) {
+            page.add(it.next());
+        }
+        HttpResponse response = new HttpResponse()
                 .withStatus(200)
-                .json(books);
+                .json(page);
+        if (it.hasNext()) {
+            response.withHeader("Link", "<" + request.getPath() + "?limit=" + limit + "&after="
+                    + page.getLast().getId() + ">; rel=\"next\"");
+        }
+        return response;
     }
-}
\ No newline at end of file
+}
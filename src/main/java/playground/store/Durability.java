@@ -0,0 +1,23 @@
+package playground.store;
+
+/**
+ * When a {@link WriteAheadLog} considers a write done, trading insert latency against what survives a crash.
+ */
+public enum Durability {
+    /**
+     * Every insert is written and fsynced on its own before it returns. Survives power loss; each insert waits
+     * for a full device flush, and inserts are serialized behind each other's.
+     */
+    SYNC,
+    /**
+     * Inserts that arrive while a flush is in progress are written and fsynced together by the next one, so a
+     * burst of concurrent inserts shares one device flush (group commit). As safe as {@link #SYNC}, at a
+     * fraction of the flushes under load; a lone insert costs the same.
+     */
+    GROUP_COMMIT,
+    /**
+     * Inserts are written to the OS in batches as for {@link #GROUP_COMMIT} but never fsynced. Survives the
+     * process crashing, not the machine; the last few seconds of inserts may be lost on power loss.
+     */
+    BUFFERED
+}
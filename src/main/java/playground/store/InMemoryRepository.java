@@ -0,0 +1,170 @@
+package playground.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * An append-only in-memory table that is safe to use from any number of threads.
+ * Records get ids 1, 2, 3... in insertion order. Lookups by id go through a hash index; records are also
+ * kept in id order, so listing is a walk of that order, and {@link Index secondary indexes} map a key to the
+ * records having it.
+ * <p>
+ * Reads take no locks. Inserts are serialized by a short lock that assigns the id and adds the record to every
+ * index, then publish it by moving the committed id forward; readers only see records up to that id, so a
+ * record is never visible through one index and missing from another. Since records are never removed, the
+ * records up to an id never change, which makes a {@link Snapshot} free to take and consistent for as long as
+ * it is kept.
+ * <p>
+ * Records must not be modified once inserted; the indexes would not follow. A repository kept by a
+ * {@link WriteAheadLog} must only be inserted into through the log.
+ *
+ * @param <T> the record type
+ */
+public class InMemoryRepository<T> {
+
+    private final ObjLongConsumer<T> assignId;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long, T> byId = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, T> ordered = new ConcurrentSkipListMap<>();
+    private final List<Index<?>> indexes = new CopyOnWriteArrayList<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile long committed; // Highest id whose record is in every index
+
+    /**
+     * @param assignId sets a new record's id, called before the record becomes visible
+     */
+    public InMemoryRepository(ObjLongConsumer<T> assignId) {
+        this.assignId = assignId;
+    }
+
+    /**
+     * Add a record under the next id.
+     *
+     * @param record the record
+     * @return the record, with its id assigned
+     */
+    public T insert(T record) {
+        writeLock.lock();
+        try {
+            add(ids.incrementAndGet(), record);
+            return record;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Add a record under an id given out elsewhere, e.g. by a {@link WriteAheadLog} or while replaying one.
+     *
+     * @param id     the id, one past the last record's
+     * @param record the record
+     * @throws IllegalStateException if the id is out of order
+     */
+    void load(long id, T record) {
+        writeLock.lock();
+        try {
+            if (id != ids.get() + 1) {
+                throw new IllegalStateException("Expected record " + (ids.get() + 1) + ", got " + id);
+            }
+            ids.set(id);
+            add(id, record);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void add(long id, T record) {
+        assignId.accept(record, id);
+        Long key = id; // Boxed once for both maps
+        byId.put(key, record);
+        ordered.put(key, record);
+        for (Index<?> index : indexes) {
+            index.add(id, record);
+        }
+        committed = id;
+    }
+
+    /**
+     * @param id the record's id
+     * @return the record, or null if there is none
+     */
+    public T get(long id) {
+        return id <= committed ? byId.get(id) : null;
+    }
+
+    /**
+     * @return the number of records
+     */
+    public long size() {
+        return committed;
+    }
+
+    /**
+     * @return the records inserted so far; later inserts do not show in it
+     */
+    public Snapshot<T> snapshot() {
+        long version = committed;
+        return new Snapshot<>(ordered.headMap(version, true), version);
+    }
+
+    /**
+     * Add a secondary index, filled with the records inserted so far and kept up to date by later inserts.
+     *
+     * @param key the key a record is found by; records whose key is null are left out
+     * @param <K> the key type
+     * @return the index
+     */
+    public <K> Index<K> index(Function<T, K> key) {
+        writeLock.lock();
+        try {
+            Index<K> index = new Index<>(key);
+            ordered.forEach(index::add);
+            indexes.add(index);
+            return index;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Records by a key derived from them. Lookups see the same records as {@link #snapshot()} would.
+     *
+     * @param <K> the key type
+     */
+    public final class Index<K> {
+        private final Function<T, K> key;
+        private final Map<K, ConcurrentSkipListMap<Long, T>> entries = new ConcurrentHashMap<>();
+
+        private Index(Function<T, K> key) {
+            this.key = key;
+        }
+
+        private void add(long id, T record) {
+            K k = key.apply(record);
+            if (k != null) {
+                entries.computeIfAbsent(k, unused -> new ConcurrentSkipListMap<>()).put(id, record);
+            }
+        }
+
+        /**
+         * @param k the key
+         * @return the records with the key, in id order
+         */
+        public List<T> find(K k) {
+            return find(k, committed);
+        }
+
+        List<T> find(K k, long version) {
+            ConcurrentSkipListMap<Long, T> records = entries.get(k);
+            return records == null ? List.of() : new ArrayList<>(records.headMap(version, true).values());
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package playground.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns records into bytes for a {@link WriteAheadLog} and back. The log stores each record's id next to its
+ * bytes, so codecs leave the id out.
+ *
+ * @param <T> the record type
+ */
+public interface RecordCodec<T> {
+
+    /**
+     * @param record the record
+     * @return its bytes
+     */
+    byte[] encode(T record);
+
+    /**
+     * @param payload the bytes {@link #encode} produced, from its position to its limit; only valid during the call
+     * @return the record
+     */
+    T decode(ByteBuffer payload);
+}
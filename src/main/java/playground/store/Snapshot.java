@@ -0,0 +1,73 @@
+package playground.store;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.stream.Stream;
+
+/**
+ * The records of an {@link InMemoryRepository} as of one moment, in id order. A view, not a copy: taking one
+ * costs nothing and it stays consistent however many records are inserted after it.
+ *
+ * @param <T> the record type
+ */
+public final class Snapshot<T> implements Iterable<T> {
+
+    private final NavigableMap<Long, T> records;
+    private final long version;
+
+    Snapshot(NavigableMap<Long, T> records, long version) {
+        this.records = records;
+        this.version = version;
+    }
+
+    /**
+     * @return the number of records; ids run from 1 to this
+     */
+    public long size() {
+        return version;
+    }
+
+    /**
+     * @return the records, in id order
+     */
+    public Collection<T> values() {
+        return records.values();
+    }
+
+    /**
+     * @param id the record's id
+     * @return the record, or null if it is not in the snapshot
+     */
+    public T get(long id) {
+        return records.get(id);
+    }
+
+    /**
+     * @param afterId the id to start after, 0 for the first record
+     * @return the records with a greater id, in id order
+     */
+    public Collection<T> after(long afterId) {
+        return records.tailMap(afterId, false).values();
+    }
+
+    /**
+     * @param index a secondary index of the same repository
+     * @param key   the key
+     * @param <K>   the key type
+     * @return the records in the snapshot with the key, in id order
+     */
+    public <K> List<T> find(InMemoryRepository<T>.Index<K> index, K key) {
+        return index.find(key, version);
+    }
+
+    public Stream<T> stream() {
+        return records.values().stream();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return records.values().iterator();
+    }
+}
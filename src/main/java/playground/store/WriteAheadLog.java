@@ -0,0 +1,420 @@
+package playground.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps an {@link InMemoryRepository} on disk: every insert is appended to a log before it becomes visible,
+ * and the repository is rebuilt from the log when the process starts again.
+ * <p>
+ * Each record is stored as its length, a CRC-32C, its id, and its bytes. Inserts are written in batches:
+ * the first insert to find no write in progress writes every insert waiting behind it and, unless
+ * {@link Durability#BUFFERED}, fsyncs them together, then adds them to the repository in id order and wakes
+ * their threads. While it does, new inserts gather for the next batch, so the busier the log the more inserts
+ * share a flush.
+ * <p>
+ * The log is split into segments named after their first id. Once one grows past the segment size the next
+ * is started, and a background thread writes the whole repository to a snapshot file and deletes the
+ * segments it covers, so the log never holds much more than one segment of records past the last snapshot.
+ * On startup the snapshot and then the remaining segments are memory-mapped and replayed. A record cut short
+ * by a crash ends the last segment; it was never acknowledged, so it is cut off.
+ *
+ * @param <T> the record type
+ */
+public class WriteAheadLog<T> implements Closeable {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    private static final int HEADER_BYTES = 16;            // Payload length, CRC of id and payload, id
+    private static final int SNAPSHOT_MAGIC = 0x534e4150;  // "SNAP"
+    private static final int SNAPSHOT_HEADER_BYTES = 12;   // Magic, last id
+    private static final long MAP_WINDOW = 1L << 30;       // Largest mapping used for replay
+    private static final String SNAPSHOT = "snapshot.dat";
+
+    private final Path dir;
+    private final InMemoryRepository<T> repository;
+    private final RecordCodec<T> codec;
+    private final Durability durability;
+    private final long segmentBytes;
+    private final ExecutorService snapshots = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "wal-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean snapshotQueued = new AtomicBoolean();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition written = lock.newCondition();
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024); // Encoded inserts waiting for the next batch
+    private ByteBuffer writing = ByteBuffer.allocate(64 * 1024);
+    private List<T> pendingRecords = new ArrayList<>();
+    private List<T> writingRecords = new ArrayList<>();
+    private long lastId;      // Given out
+    private long durableId;   // Written (and fsynced) and in the repository
+    private boolean flushing; // A batch is being written
+    private IOException failure;
+    private boolean closed;
+
+    // Only touched by the thread writing a batch
+    private FileChannel segment;
+    private long segmentSize;
+
+    private WriteAheadLog(Path dir, InMemoryRepository<T> repository, RecordCodec<T> codec, Durability durability,
+                          long segmentBytes) {
+        this.dir = dir;
+        this.repository = repository;
+        this.codec = codec;
+        this.durability = durability;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Open the log in a directory, creating it if needed, and load what it holds into an empty repository.
+     *
+     * @param dir        the directory
+     * @param repository the repository to load into and keep; it must be empty
+     * @param codec      turns records into bytes and back
+     * @param durability when an insert counts as done
+     * @param <T>        the record type
+     * @return the open log
+     * @throws IOException if the directory cannot be read or its contents are corrupt
+     */
+    public static <T> WriteAheadLog<T> open(Path dir, InMemoryRepository<T> repository, RecordCodec<T> codec,
+                                            Durability durability) throws IOException {
+        return open(dir, repository, codec, durability, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * @param segmentBytes the size past which a new segment is started and a snapshot taken
+     * @see #open(Path, InMemoryRepository, RecordCodec, Durability)
+     */
+    public static <T> WriteAheadLog<T> open(Path dir, InMemoryRepository<T> repository, RecordCodec<T> codec,
+                                            Durability durability, long segmentBytes) throws IOException {
+        if (repository.size() != 0) {
+            throw new IllegalArgumentException("Repository must be empty.");
+        }
+        Files.createDirectories(dir);
+        WriteAheadLog<T> log = new WriteAheadLog<>(dir, repository, codec, durability, segmentBytes);
+        log.recover();
+        return log;
+    }
+
+    /**
+     * Write a record to the log and, once it is durable, add it to the repository.
+     *
+     * @param record the record
+     * @return the record, with its id assigned
+     * @throws UncheckedIOException if the log cannot be written; it accepts no more inserts after that
+     */
+    public T insert(T record) {
+        byte[] payload = codec.encode(record);
+        lock.lock();
+        try {
+            checkWritable();
+            long id = ++lastId;
+            pending = append(pending, id, payload);
+            pendingRecords.add(record);
+            if (durability == Durability.SYNC) {
+                // One record per flush: write it while holding the lock, so no other insert joins it
+                writeBatch(swapBatch(), id);
+                durableId = id;
+                return record;
+            }
+            while (durableId < id) {
+                checkWritable();
+                if (flushing) {
+                    written.awaitUninterruptibly(); // The batch being written, or the next, carries this insert
+                    continue;
+                }
+                flushing = true;
+                long batchLast = lastId;
+                List<T> batch = swapBatch();
+                lock.unlock();
+                IOException error = null;
+                try {
+                    writeBatch(batch, batchLast);
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    lock.lock();
+                    flushing = false;
+                    if (error == null) {
+                        durableId = batchLast;
+                    } else {
+                        failure = error;
+                    }
+                    written.signalAll();
+                }
+            }
+            return record;
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for the write in progress, then close the log. Inserts fail afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            while (flushing) {
+                written.awaitUninterruptibly();
+            }
+            closed = true;
+            written.signalAll();
+            if (segment != null) {
+                segment.force(false);
+                segment.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+        snapshots.shutdown();
+    }
+
+    private void checkWritable() {
+        if (closed) {
+            throw new IllegalStateException("Log is closed.");
+        }
+        if (failure != null) {
+            throw new UncheckedIOException("Log failed; no further inserts are accepted", failure);
+        }
+    }
+
+    // Hand the pending inserts to the thread about to write them; called with the lock held
+    private List<T> swapBatch() {
+        ByteBuffer buffer = pending;
+        pending = writing;
+        writing = buffer;
+        List<T> records = pendingRecords;
+        pendingRecords = writingRecords;
+        writingRecords = records;
+        return records;
+    }
+
+    // Write the batch in writing, make it durable, and add it to the repository; only one thread at a time
+    private void writeBatch(List<T> records, long batchLast) throws IOException {
+        writing.flip();
+        int bytes = writing.remaining();
+        while (writing.hasRemaining()) {
+            segment.write(writing);
+        }
+        writing.clear();
+        if (durability != Durability.BUFFERED) {
+            segment.force(false);
+        }
+        long id = batchLast - records.size();
+        for (T record : records) {
+            repository.load(++id, record);
+        }
+        records.clear();
+
+        segmentSize += bytes;
+        if (segmentSize >= segmentBytes) {
+            segment.force(false);
+            segment.close();
+            openSegment(batchLast + 1);
+            if (snapshotQueued.compareAndSet(false, true)) {
+                snapshots.execute(this::snapshot);
+            }
+        }
+    }
+
+    private void openSegment(long firstId) throws IOException {
+        segment = FileChannel.open(dir.resolve(segmentName(firstId)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentSize = segment.size();
+        syncDirectory();
+    }
+
+    // Make a created, renamed, or deleted file in the log's directory survive a crash
+    private void syncDirectory() {
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // Not supported for directories on every platform
+        }
+    }
+
+    private static String segmentName(long firstId) {
+        return String.format("wal-%020d.log", firstId);
+    }
+
+    // Append one record in log format, growing the buffer if needed
+    private static ByteBuffer append(ByteBuffer buffer, long id, byte[] payload) {
+        int size = HEADER_BYTES + payload.length;
+        if (buffer.remaining() < size) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+            buffer.flip();
+            buffer = bigger.put(buffer);
+        }
+        int start = buffer.position();
+        buffer.putInt(payload.length).putInt(0).putLong(id).put(payload);
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), start + 8, 8 + payload.length);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        return buffer;
+    }
+
+    // Write the repository to a new snapshot file, then delete the segments it makes redundant
+    private void snapshot() {
+        snapshotQueued.set(false);
+        Snapshot<T> snapshot = repository.snapshot();
+        Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+                buffer.putInt(SNAPSHOT_MAGIC).putLong(snapshot.size());
+                long id = 0;
+                for (T record : snapshot) {
+                    byte[] payload = codec.encode(record);
+                    if (buffer.remaining() < HEADER_BYTES + payload.length) {
+                        writeFully(out, buffer);
+                    }
+                    buffer = append(buffer, ++id, payload);
+                }
+                writeFully(out, buffer);
+                out.force(true);
+            }
+            Files.move(tmp, dir.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory(); // The new snapshot must be in place before the segments it replaces are gone
+            for (Path covered : coveredSegments(snapshot.size())) {
+                Files.delete(covered);
+            }
+        } catch (IOException e) {
+            e.printStackTrace(); // The log still holds everything; the next rotation tries again
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Segments whose records all have ids up to lastId
+    private List<Path> coveredSegments(long lastId) throws IOException {
+        List<Path> segments = listSegments();
+        List<Path> covered = new ArrayList<>();
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (firstId(segments.get(i + 1)) - 1 <= lastId) {
+                covered.add(segments.get(i));
+            }
+        }
+        return covered;
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().matches("wal-\\d{20}\\.log")).sorted().toList();
+        }
+    }
+
+    private static long firstId(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(4, name.length() - 4));
+    }
+
+    // Load the snapshot and the segments after it, cut off a torn last record, and open a segment for inserts
+    private void recover() throws IOException {
+        Files.deleteIfExists(dir.resolve(SNAPSHOT + ".tmp"));
+        Path snapshotFile = dir.resolve(SNAPSHOT);
+        if (Files.exists(snapshotFile)) {
+            try (FileChannel in = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+                ByteBuffer header = in.map(FileChannel.MapMode.READ_ONLY, 0,
+                        Math.min(in.size(), SNAPSHOT_HEADER_BYTES));
+                if (header.remaining() < SNAPSHOT_HEADER_BYTES || header.getInt() != SNAPSHOT_MAGIC) {
+                    throw new IOException("Not a snapshot: " + snapshotFile);
+                }
+                long snapshotLast = header.getLong();
+                long end = replay(in, SNAPSHOT_HEADER_BYTES);
+                if (end != in.size() || lastId != snapshotLast) {
+                    throw new IOException("Snapshot " + snapshotFile + " is corrupt after record " + lastId);
+                }
+            }
+        }
+
+        List<Path> segments = listSegments();
+        for (int i = 0; i < segments.size(); i++) {
+            Path file = segments.get(i);
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long end = replay(in, 0);
+                if (end < in.size()) {
+                    if (i < segments.size() - 1) {
+                        throw new IOException("Segment " + file + " is corrupt after record " + lastId);
+                    }
+                    in.truncate(end); // A write cut short by a crash; never acknowledged
+                }
+            }
+        }
+        durableId = lastId;
+        openSegment(segments.isEmpty() ? lastId + 1 : firstId(segments.getLast()));
+    }
+
+    // Load the intact records from offset on, skipping those already loaded; returns where they end
+    private long replay(FileChannel in, long offset) throws IOException {
+        long size = in.size();
+        long position = offset;
+        MappedByteBuffer map = null;
+        ByteBuffer view = null; // Of map, moved over each record rather than sliced, to spare the garbage
+        long mapStart = 0;
+        CRC32C crc = new CRC32C();
+        while (position + HEADER_BYTES <= size) {
+            if (map == null || position + HEADER_BYTES > mapStart + map.limit()) {
+                mapStart = position;
+                map = in.map(FileChannel.MapMode.READ_ONLY, mapStart, Math.min(MAP_WINDOW, size - mapStart));
+                view = map.duplicate();
+            }
+            int at = (int) (position - mapStart);
+            int length = map.getInt(at);
+            if (length < 0 || length > MAP_WINDOW - HEADER_BYTES || position + HEADER_BYTES + length > size) {
+                break;
+            }
+            if (at + HEADER_BYTES + length > map.limit()) {
+                map = null; // The record runs past this mapping; map again from its start
+                continue;
+            }
+            crc.reset();
+            crc.update(view.limit(at + HEADER_BYTES + length).position(at + 8));
+            if ((int) crc.getValue() != map.getInt(at + 4)) {
+                break;
+            }
+            long id = map.getLong(at + 8);
+            if (id > lastId) {
+                try {
+                    repository.load(id, codec.decode(view.position(at + HEADER_BYTES)));
+                } catch (IllegalStateException e) {
+                    throw new IOException("Log is missing records before " + id, e);
+                }
+                lastId = id;
+            }
+            position += HEADER_BYTES + length;
+        }
+        return position;
+    }
+}
@@ -1,60 +1,141 @@
 package server;
 
+import server.accesslog.AccessLog;
+import server.accesslog.AccessLogFormat;
+import server.admission.ConcurrencyLimiter;
+import server.cache.CachePolicy;
+import server.cache.ResponseCache;
+import server.exceptions.HttpParseException;
+import server.exceptions.RequestTimeoutException;
+import server.exceptions.ServiceUnavailableException;
 import server.exceptions.TooManyRequestsException;
+import server.json.JsonCodec;
+import server.metrics.ServerMetrics;
+import server.ratelimit.RateLimiter;
+import server.ratelimit.SlidingWindowRateLimiter;
+import server.request.AsyncHttpRequestHandler;
 import server.request.HttpRequest;
 import server.request.HttpRequestHandler;
 import server.request.HttpRequestParser;
 import server.request.HttpStaticRequestHandler;
+import server.request.RequestTimeouts;
+import server.request.TimeoutPhase;
+import server.response.Compression;
 import server.response.HttpResponse;
-import server.response.HttpResponseFormater;
 import server.route.Route;
+import server.route.RouteMatch;
+import server.route.Router;
 import server.route.Routes;
+import server.staticfiles.StaticFileCache;
+import server.staticfiles.StaticMount;
+import server.transport.BlockingTransport;
+import server.transport.NioTransport;
+import server.transport.Transport;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.nio.charset.StandardCharsets;
-import java.time.LocalDateTime;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 /**
  * A simple HTTP server that can handle multiple routes and concurrent requests.
  */
 public class HttpServer implements Runnable {
 
+    private static final int DEFAULT_POOL_SIZE = 50;
+    private static final int DEFAULT_WORK_QUEUE_CAPACITY = 1000;
+
     private final int port;
-    private final ExecutorService threadPool;
+    private ExecutorService threadPool;
+    private boolean defaultPool = true; // False once replaced with executor()
+    private Transport transport = new BlockingTransport();
     private final HashMap<Route, HttpRequestHandler> routes = new HashMap<>();
-    private final Map<String, String> staticRoutes = new HashMap<>();
-    private int CLIENT_RATE_LIMIT = 0; // Max requests per minute per call per IP
-    private final HashMap<String, List<LocalDateTime>> clientRequestCounts = new HashMap<>(); // Maps IP -> List of request timestamps
+    private final Map<String, StaticMount> staticRoutes = new HashMap<>();
+    private Router router; // Compiled from routes and staticRoutes when the server starts
+    private RateLimiter clientRateLimiter; // Per client IP over all requests; null when disabled
+    private RateLimiter globalRateLimiter; // Over all requests from all clients; null when disabled
+    private final HashMap<Route, RateLimiter> routeRateLimiters = new HashMap<>(); // Per client IP on one route
+    private int keepAliveTimeout = 5000; // Idle time in ms before a persistent connection is closed (0 disables keep-alive)
+    private int maxRequestsPerConnection = 100; // Max requests served on one persistent connection
+    private int maxPipelineDepth = 16; // Max pipelined responses batched into one write
+    private long requestLineTimeoutMillis = 10_000; // From the first byte of a request
+    private long headersTimeoutMillis = 20_000;     // From the first byte of a request
+    private long bodyTimeoutMillis = 30_000;        // Longest pause while a body arrives
+    private long minDataRate = 240;                 // Bytes per second, for request bodies and response writes
+    private long minDataRateGraceMillis = 5_000;
+    private long writeTimeoutMillis = 30_000;
+    private RequestTimeouts requestTimeouts; // Built when the server starts
+    private int maxConnections = 10_000; // Open connections beyond this are answered with 503 and closed
+    private int acceptBacklog; // Connections the OS queues until accepted; 0 for the OS default
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder shedRequests = new LongAdder();
+    private ConcurrencyLimiter concurrencyLimiter; // null when requests are not limited
+    private int maxHeaderCount = HttpRequestParser.DEFAULT_MAX_HEADER_COUNT;
+    private int maxHeaderBytes = HttpRequestParser.DEFAULT_MAX_HEADER_BYTES;
+    private long maxBodySize = 10 * 1024 * 1024; // Default request body limit in bytes
+    private final HashMap<Route, Long> routeMaxBodySizes = new HashMap<>();
+    private long handlerTimeoutMillis = 30_000; // Default time an asynchronous handler has to complete
+    private final HashMap<Route, Long> routeHandlerTimeouts = new HashMap<>();
+    private JsonCodec jsonCodec = JsonCodec.getDefault();
+    private StaticFileCache staticFileCache = new StaticFileCache();
+    private final HashMap<Route, CachePolicy> routeCachePolicies = new HashMap<>();
+    private long responseCacheMaxBytes = ResponseCache.DEFAULT_MAX_BYTES;
+    private long responseCacheMaxEntryBytes = ResponseCache.DEFAULT_MAX_ENTRY_BYTES;
+    private ResponseCache responseCache; // Built when the server starts; null when no route is cached
+    private Compression compression; // null when response compression is disabled
+    private ServerMetrics metrics; // null when metrics are disabled
+    private AccessLog accessLog = new AccessLog(System.out, AccessLogFormat.COMMON); // null when disabled
+    private HttpStaticRequestHandler staticHandler = new HttpStaticRequestHandler(staticFileCache, null);
 
     public HttpServer(int port) {
         this.port = port;
-        // Create a thread pool with a fixed number of threads
-        this.threadPool = Executors.newFixedThreadPool(50);
+        // A fixed number of threads with a bounded queue, so that overload is turned away rather than queued
+        this.threadPool = newDefaultPool(DEFAULT_WORK_QUEUE_CAPACITY);
+    }
+
+    private static ExecutorService newDefaultPool(int queueCapacity) {
+        return new ThreadPoolExecutor(DEFAULT_POOL_SIZE, DEFAULT_POOL_SIZE, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity));
     }
 
 
     /**
-     * Add a route to the server
+     * Add a route to the server. The route's path may contain parameters and a trailing wildcard,
+     * e.g. "/books/{id}" or "/assets/*", read by handlers with {@link HttpRequest#getPathParam}.
+     * Routes are compiled into a {@link Router} when the server starts and cannot be changed afterwards.
      *
      * @param route   the route to add
      * @param handler the handler for the route
      * @return the server instance (for chaining)
      */
     public HttpServer route(Route route, HttpRequestHandler handler) {
+        checkNotStarted();
         this.routes.put(route, handler);
         return this;
     }
 
     public HttpServer routes(Routes routes) {
+        checkNotStarted();
         this.routes.putAll(routes.getRoutes());
         return this;
     }
@@ -102,6 +183,20 @@ public class HttpServer implements Runnable {
      * @return the server instance (for chaining)
      */
     public HttpServer staticFiles(String urlPath, String directory) {
+        return staticFiles(urlPath, directory, null);
+    }
+
+    /**
+     * Serve static files from a directory for a given URL path, with a Cache-Control policy for its files.
+     * Files are always sent with an ETag and Last-Modified date, so clients can revalidate with a cheap 304.
+     *
+     * @param urlPath      the URL path to serve static files from (e.g., "/static/")
+     * @param directory    the directory to serve files from (e.g., "/static/")
+     * @param cacheControl the Cache-Control header value (e.g., "public, max-age=3600"), or null for none
+     * @return the server instance (for chaining)
+     */
+    public HttpServer staticFiles(String urlPath, String directory, String cacheControl) {
+        checkNotStarted();
         // Normalize URL path - ensure it ends with / for consistency
         String normalizedUrlPath = urlPath.endsWith("/") ? urlPath : urlPath + "/";
         // Normalize directory - ensure it starts with / (classpath-absolute) and ends with /
@@ -110,12 +205,141 @@ public class HttpServer implements Runnable {
             normalizedDirectory = "/" + normalizedDirectory;
         }
         normalizedDirectory = normalizedDirectory.endsWith("/") ? normalizedDirectory : normalizedDirectory + "/";
-        staticRoutes.put(normalizedUrlPath, normalizedDirectory);
+        staticRoutes.put(normalizedUrlPath, new StaticMount(normalizedUrlPath, normalizedDirectory, cacheControl));
+        return this;
+    }
+
+    /**
+     * Serve static files from a filesystem directory for a given URL path
+     *
+     * @param urlPath   the URL path to serve static files from (e.g., "/downloads/")
+     * @param directory the filesystem directory to serve files from
+     * @return the server instance (for chaining)
+     */
+    public HttpServer staticFiles(String urlPath, Path directory) {
+        return staticFiles(urlPath, directory, null);
+    }
+
+    /**
+     * Serve static files from a filesystem directory for a given URL path, with a Cache-Control policy for its files.
+     * Unlike classpath directories, files are not loaded into memory: each response streams the file from disk
+     * with {@link java.nio.channels.FileChannel#transferTo}, so large files and Range requests are cheap.
+     * Request paths cannot reach files outside the directory, including through symbolic links.
+     *
+     * @param urlPath      the URL path to serve static files from (e.g., "/downloads/")
+     * @param directory    the filesystem directory to serve files from
+     * @param cacheControl the Cache-Control header value (e.g., "public, max-age=3600"), or null for none
+     * @return the server instance (for chaining)
+     */
+    public HttpServer staticFiles(String urlPath, Path directory, String cacheControl) {
+        checkNotStarted();
+        String normalizedUrlPath = urlPath.endsWith("/") ? urlPath : urlPath + "/";
+        Path root;
+        try {
+            root = directory.toRealPath();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Static file directory does not exist: " + directory, e);
+        }
+        if (!Files.isDirectory(root)) {
+            throw new IllegalArgumentException("Static file path is not a directory: " + directory);
+        }
+        staticRoutes.put(normalizedUrlPath, new StaticMount(normalizedUrlPath, root, cacheControl));
         return this;
     }
 
     /**
-     * Set the rate limit for clients (requests per minute per IP)
+     * Set the memory limits of the static file cache. Static files are read from the classpath once and then
+     * served from memory; when the cache is over budget, the least recently used files are evicted.
+     * Defaults to 64 MB in total and 4 MB per file. A budget of 0 disables caching.
+     *
+     * @param maxBytes     the total size of cached files, in bytes
+     * @param maxFileBytes the size above which a file is never cached, in bytes
+     * @return the server instance (for chaining)
+     */
+    public HttpServer staticFileCache(long maxBytes, long maxFileBytes) {
+        checkNotStarted();
+        this.staticFileCache = maxBytes > 0 ? new StaticFileCache(maxBytes, maxFileBytes) : null;
+        this.staticHandler = new HttpStaticRequestHandler(staticFileCache, compression);
+        return this;
+    }
+
+    /**
+     * Cache the responses of a GET route in memory, so that repeated requests are answered without calling its
+     * handler until the policy's TTL runs out or one of its writer routes succeeds. See {@link CachePolicy}.
+     *
+     * @param route  the route, which must be a GET route
+     * @param policy how its responses are cached
+     * @return the server instance (for chaining)
+     */
+    public HttpServer cache(Route route, CachePolicy policy) {
+        if (!"GET".equals(route.getMethod())) {
+            throw new IllegalArgumentException("Only GET routes can be cached.");
+        }
+        checkNotStarted();
+        routeCachePolicies.put(route, policy);
+        return this;
+    }
+
+    /**
+     * Set the memory limits of the response cache used by routes given a {@link #cache(Route, CachePolicy)
+     * policy}. When the cache is over budget, the least recently used responses are evicted.
+     * Defaults to 16 MB in total and 1 MB per response.
+     *
+     * @param maxBytes      the total size of cached responses, in bytes
+     * @param maxEntryBytes the size above which a response is never cached, in bytes
+     * @return the server instance (for chaining)
+     */
+    public HttpServer responseCache(long maxBytes, long maxEntryBytes) {
+        if (maxBytes < 0 || maxEntryBytes < 0) {
+            throw new IllegalArgumentException("Cache sizes must be non-negative.");
+        }
+        checkNotStarted();
+        this.responseCacheMaxBytes = maxBytes;
+        this.responseCacheMaxEntryBytes = maxEntryBytes;
+        return this;
+    }
+
+    /**
+     * @return the response cache, or null if no route is cached or the server has not started
+     */
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Enable gzip/deflate response compression with the default settings: bodies of at least 1 KB
+     * whose type is text, JSON, JavaScript, XML, or SVG.
+     *
+     * @return the server instance (for chaining)
+     */
+    public HttpServer compression() {
+        return compression(new Compression());
+    }
+
+    /**
+     * Enable gzip/deflate response compression, negotiated per request from Accept-Encoding.
+     * Handler responses are compressed as they are written; static files are compressed once when loaded
+     * and cached alongside the original.
+     *
+     * @param compression the minimum size and content type allowlist
+     * @return the server instance (for chaining)
+     */
+    public HttpServer compression(Compression compression) {
+        checkNotStarted();
+        this.compression = compression;
+        this.staticHandler = new HttpStaticRequestHandler(staticFileCache, compression);
+        return this;
+    }
+
+    /**
+     * @return the static file cache, for its hit/miss counters; null if caching is disabled
+     */
+    public StaticFileCache getStaticFileCache() {
+        return staticFileCache;
+    }
+
+    /**
+     * Set the rate limit for clients (requests per minute per IP), counted over a sliding one-minute window.
      * Rate limit is disabled by default (set to 0)
      *
      * @param requestsPerMinutePerIP the number of requests allowed per minute per IP
@@ -125,30 +349,626 @@ public class HttpServer implements Runnable {
         if (requestsPerMinutePerIP < 0) {
             throw new IllegalArgumentException("Rate limit must be non-negative.");
         }
-        this.CLIENT_RATE_LIMIT = requestsPerMinutePerIP;
+        return rateLimit(requestsPerMinutePerIP == 0 ? null
+                : new SlidingWindowRateLimiter(requestsPerMinutePerIP, Duration.ofMinutes(1)));
+    }
+
+    /**
+     * Limit the requests of each client IP with a rate limiter, e.g. a
+     * {@link server.ratelimit.TokenBucketRateLimiter} to allow short bursts.
+     * Rejected requests are answered with 429 and a Retry-After header.
+     *
+     * @param limiter the limiter, keyed by client IP, or null to disable per-client limiting
+     * @return the server instance (for chaining)
+     */
+    public HttpServer rateLimit(RateLimiter limiter) {
+        checkNotStarted();
+        this.clientRateLimiter = limiter;
+        return this;
+    }
+
+    /**
+     * Limit the requests of each client IP to one route, in addition to any per-client limit.
+     *
+     * @param route   the route, as registered (e.g. "/books/{id}")
+     * @param limiter the limiter, keyed by client IP
+     * @return the server instance (for chaining)
+     */
+    public HttpServer rateLimit(Route route, RateLimiter limiter) {
+        checkNotStarted();
+        routeRateLimiters.put(route, limiter);
+        return this;
+    }
+
+    /**
+     * Limit the requests of all clients together, e.g. to protect a backend with a fixed capacity.
+     *
+     * @param limiter the limiter, used with a single key, or null to disable the global limit
+     * @return the server instance (for chaining)
+     */
+    public HttpServer globalRateLimit(RateLimiter limiter) {
+        checkNotStarted();
+        this.globalRateLimiter = limiter;
+        return this;
+    }
+
+    /**
+     * Set how long an idle persistent (keep-alive) connection is held open waiting for the next request.
+     * Keep-alive is enabled by default with a 5 second timeout; a timeout of 0 disables it
+     * and closes every connection after one request.
+     *
+     * @param timeoutMillis the idle timeout in milliseconds
+     * @return the server instance (for chaining)
+     */
+    public HttpServer keepAliveTimeout(int timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Keep-alive timeout must be non-negative.");
+        }
+        checkNotStarted();
+        this.keepAliveTimeout = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * Set how long a client has, from the first byte of a request, to send its request line and its whole head.
+     * A request over either is answered with 408 Request Timeout and the connection is closed. The clock is not
+     * reset by each byte that arrives, so a client trickling its request in cannot hold the connection.
+     * Defaults to 10 and 20 seconds.
+     *
+     * @param requestLine the timeout for the request line
+     * @param headers     the timeout for the request line and header fields together
+     * @return the server instance (for chaining)
+     */
+    public HttpServer requestTimeouts(Duration requestLine, Duration headers) {
+        if (requestLine.isNegative() || requestLine.isZero() || headers.compareTo(requestLine) < 0) {
+            throw new IllegalArgumentException("Timeouts must be positive, the headers' no shorter than the request line's.");
+        }
+        checkNotStarted();
+        this.requestLineTimeoutMillis = requestLine.toMillis();
+        this.headersTimeoutMillis = headers.toMillis();
+        return this;
+    }
+
+    /**
+     * Set the longest a client may pause while sending a request body before it is answered with 408 Request Timeout
+     * and the connection is closed. Defaults to 30 seconds.
+     *
+     * @param timeout the timeout
+     * @return the server instance (for chaining)
+     */
+    public HttpServer bodyTimeout(Duration timeout) {
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Body timeout must be positive.");
+        }
+        checkNotStarted();
+        this.bodyTimeoutMillis = timeout.toMillis();
         return this;
     }
 
-    private void checkClientRateLimit(String clientIP) throws TooManyRequestsException {
-        if (CLIENT_RATE_LIMIT <= 0) {
-            return; // Rate limiting is disabled
+    /**
+     * Set the slowest rate at which a request body must arrive, and a response be read, once the grace period has
+     * passed. A body arriving slower is answered with 408 Request Timeout; a response read slower times the write
+     * out (see {@link #writeTimeout}). Defaults to 240 bytes per second after 5 seconds.
+     *
+     * @param bytesPerSecond the minimum average rate, or 0 to enforce none
+     * @param grace          how long a transfer may run below the rate, e.g. while TCP ramps up
+     * @return the server instance (for chaining)
+     */
+    public HttpServer minDataRate(long bytesPerSecond, Duration grace) {
+        if (bytesPerSecond < 0 || grace.isNegative()) {
+            throw new IllegalArgumentException("Minimum data rate and grace period must be non-negative.");
         }
+        checkNotStarted();
+        this.minDataRate = bytesPerSecond;
+        this.minDataRateGraceMillis = grace.toMillis();
+        return this;
+    }
 
-        LocalDateTime now = LocalDateTime.now();
+    /**
+     * Set how long a client may leave a response unread before the connection is closed. On the blocking
+     * transport this bounds each write, plus the time its size takes at the minimum data rate; on the NIO
+     * transport it bounds how long the socket may stay unwritable. No response can be sent to a client that does
+     * not read, so a write timeout only closes the connection. Defaults to 30 seconds.
+     *
+     * @param timeout the timeout
+     * @return the server instance (for chaining)
+     */
+    public HttpServer writeTimeout(Duration timeout) {
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Write timeout must be positive.");
+        }
+        checkNotStarted();
+        this.writeTimeoutMillis = timeout.toMillis();
+        return this;
+    }
 
-        clientRequestCounts.putIfAbsent(clientIP, new ArrayList<>());
-        List<LocalDateTime> requestTimes = clientRequestCounts.get(clientIP);
+    /**
+     * Set the maximum number of requests served on a single persistent connection before it is closed.
+     * Defaults to 100.
+     *
+     * @param maxRequests the maximum number of requests per connection
+     * @return the server instance (for chaining)
+     */
+    public HttpServer maxRequestsPerConnection(int maxRequests) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("Max requests per connection must be at least 1.");
+        }
+        checkNotStarted();
+        this.maxRequestsPerConnection = maxRequests;
+        return this;
+    }
 
-        // Check if we exceed the rate limit
-        if (requestTimes.size() >= CLIENT_RATE_LIMIT) {
-            throw new TooManyRequestsException("Too many requests from IP: " + clientIP + ". " + requestTimes.size() + " requests in the last minute.");
+    /**
+     * Set how many pipelined requests are answered in one batch. When a client sends requests without waiting
+     * for responses (HTTP/1.1 pipelining), responses to requests that are already buffered are held back and
+     * written together, in request order, with one write instead of one per response. After this many, the
+     * batch is written; on the blocking transport the connection then also gives up its worker thread and
+     * queues for another, so a pipelining client cannot keep a worker to itself. Defaults to 16; 1 writes every
+     * response on its own.
+     *
+     * @param maxDepth the maximum number of responses per batch
+     * @return the server instance (for chaining)
+     */
+    public HttpServer maxPipelineDepth(int maxDepth) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("Max pipeline depth must be at least 1.");
         }
+        checkNotStarted();
+        this.maxPipelineDepth = maxDepth;
+        return this;
+    }
 
-        // Add current request time
-        requestTimes.add(now);
-        clientRequestCounts.putIfAbsent(clientIP, requestTimes);
+    /**
+     * Cap the number of open client connections. A connection accepted beyond the cap is answered with
+     * 503 Service Unavailable before anything is read from it, and closed. Defaults to 10,000.
+     *
+     * @param maxConnections the maximum number of open connections
+     * @return the server instance (for chaining)
+     */
+    public HttpServer maxConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("Max connections must be at least 1.");
+        }
+        checkNotStarted();
+        this.maxConnections = maxConnections;
+        return this;
     }
 
+    /**
+     * Set how many connections the operating system queues while they wait to be accepted; clients beyond it
+     * are refused by the OS. Defaults to the OS default.
+     *
+     * @param backlog the accept queue length, or 0 for the OS default
+     * @return the server instance (for chaining)
+     */
+    public HttpServer acceptBacklog(int backlog) {
+        if (backlog < 0) {
+            throw new IllegalArgumentException("Accept backlog must be non-negative.");
+        }
+        checkNotStarted();
+        this.acceptBacklog = backlog;
+        return this;
+    }
+
+    /**
+     * Set how many tasks (connections on the blocking transport, requests on the NIO transport) may wait for
+     * one of the default pool's 50 threads. A task beyond it is answered with 503 Service Unavailable at once,
+     * on the blocking transport before its request is read. Defaults to 1000.
+     *
+     * @param capacity the maximum number of queued tasks
+     * @return the server instance (for chaining)
+     * @throws IllegalStateException if the pool has been replaced with {@link #executor}, or the server has started
+     */
+    public HttpServer workQueueCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Work queue capacity must be at least 1.");
+        }
+        checkNotStarted();
+        if (!defaultPool) {
+            throw new IllegalStateException("The work queue capacity only applies to the default pool.");
+        }
+        this.threadPool.shutdown(); // The server has not started, so the default pool has not run any tasks
+        this.threadPool = newDefaultPool(capacity);
+        return this;
+    }
+
+    /**
+     * Limit the number of requests being handled at once. A request over the limit is answered with
+     * 503 Service Unavailable and Retry-After straight away. An adaptive limiter, e.g.
+     * {@link server.admission.AimdConcurrencyLimiter} or {@link server.admission.GradientConcurrencyLimiter},
+     * moves the limit with the observed handler latency, so the server keeps completing requests at its peak
+     * rate under overload instead of queueing them until every one is late.
+     * The limit covers each request from dispatch until its response is ready, asynchronous handlers included.
+     *
+     * @param limiter the limiter, or null to disable the limit
+     * @return the server instance (for chaining)
+     */
+    public HttpServer concurrencyLimit(ConcurrencyLimiter limiter) {
+        checkNotStarted();
+        this.concurrencyLimiter = limiter;
+        return this;
+    }
+
+    /**
+     * Set the limits the request parser enforces on the request head. Requests over either limit are
+     * answered with 431 and the connection is closed. Defaults to 100 header fields and 16 KB.
+     *
+     * @param maxHeaderCount the maximum number of header fields per request
+     * @param maxHeaderBytes the maximum size in bytes of the request line and headers together
+     * @return the server instance (for chaining)
+     */
+    public HttpServer headerLimits(int maxHeaderCount, int maxHeaderBytes) {
+        if (maxHeaderCount < 1 || maxHeaderBytes < 1) {
+            throw new IllegalArgumentException("Header limits must be positive.");
+        }
+        checkNotStarted();
+        this.maxHeaderCount = maxHeaderCount;
+        this.maxHeaderBytes = maxHeaderBytes;
+        return this;
+    }
+
+    /**
+     * Set the maximum request body size for routes without a limit of their own. Larger bodies are answered
+     * with 413 and the connection is closed: before the body is sent when the request declares its
+     * Content-Length, otherwise as soon as the limit is passed while reading. Defaults to 10 MB.
+     *
+     * @param maxBytes the maximum body size in bytes
+     * @return the server instance (for chaining)
+     */
+    public HttpServer maxBodySize(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Max body size must be non-negative.");
+        }
+        checkNotStarted();
+        this.maxBodySize = maxBytes;
+        return this;
+    }
+
+    /**
+     * Set the maximum request body size for one route, e.g. to allow large uploads on a single endpoint.
+     *
+     * @param route    the route
+     * @param maxBytes the maximum body size in bytes
+     * @return the server instance (for chaining)
+     */
+    public HttpServer maxBodySize(Route route, long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Max body size must be non-negative.");
+        }
+        checkNotStarted();
+        routeMaxBodySizes.put(route, maxBytes);
+        return this;
+    }
+
+    /**
+     * Set how long asynchronous handlers ({@link AsyncHttpRequestHandler}) have to complete their response
+     * on routes without a timeout of their own. A request whose handler has not completed in time is answered
+     * with 504 Gateway Timeout. Defaults to 30 seconds. Synchronous handlers are not timed out; they hold their
+     * worker until they return.
+     *
+     * @param timeout the timeout
+     * @return the server instance (for chaining)
+     */
+    public HttpServer handlerTimeout(Duration timeout) {
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Handler timeout must be positive.");
+        }
+        checkNotStarted();
+        this.handlerTimeoutMillis = timeout.toMillis();
+        return this;
+    }
+
+    /**
+     * Set how long the asynchronous handler of one route has to complete its response, e.g. a tighter bound
+     * for a route that calls a slow downstream service.
+     *
+     * @param route   the route
+     * @param timeout the timeout
+     * @return the server instance (for chaining)
+     */
+    public HttpServer handlerTimeout(Route route, Duration timeout) {
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Handler timeout must be positive.");
+        }
+        checkNotStarted();
+        routeHandlerTimeouts.put(route, timeout.toMillis());
+        return this;
+    }
+
+    /**
+     * @param request a request whose head has been read
+     * @return the largest body its route accepts, in bytes
+     */
+    public long getMaxBodySize(HttpRequest request) {
+        RouteMatch match = findRoute(request);
+        return match != null && match.getMaxBodySize() >= 0 ? match.getMaxBodySize() : maxBodySize;
+    }
+
+    // Route the request once, when its body limit or its handler is first needed
+    private RouteMatch findRoute(HttpRequest request) {
+        RouteMatch match = request.getRouteMatch();
+        if (match == null) {
+            match = router.find(request.getMethod(), request.getPath());
+            request.setRouteMatch(match);
+        }
+        return match;
+    }
+
+    private void checkNotStarted() {
+        if (router != null) {
+            throw new IllegalStateException("The server cannot be reconfigured after it has started.");
+        }
+    }
+
+    /**
+     * Enable request metrics and serve them at GET /metrics in the Prometheus text format.
+     *
+     * @return the server instance (for chaining)
+     * @see #metrics(String)
+     */
+    public HttpServer metrics() {
+        return metrics("/metrics");
+    }
+
+    /**
+     * Enable request metrics and serve them at a path in the Prometheus text format: request counts by route
+     * and status class, in-flight requests, latency histograms for the parse, handler, and write phases,
+     * bytes in and out, and the executor's queue depth and active threads when it exposes them.
+     * Metrics are off by default; recording costs a few atomic increments per request.
+     *
+     * @param path the path to serve the metrics at (e.g., "/metrics")
+     * @return the server instance (for chaining)
+     */
+    public HttpServer metrics(String path) {
+        checkNotStarted();
+        ServerMetrics serverMetrics = new ServerMetrics();
+        this.metrics = serverMetrics;
+        return route(new Route(path, "GET"), request -> new HttpResponse(200, serverMetrics.render())
+                .withContentType("text/plain; version=0.0.4; charset=utf-8"));
+    }
+
+    /**
+     * @return the server's metrics, or null if they are disabled
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set where completed requests are logged. By default they are logged to System.out in the Common Log Format.
+     * Entries are queued on a ring buffer and written by a background thread, so request threads never wait on
+     * the log's I/O; see {@link AccessLog} for the file, rotation, and overflow settings.
+     *
+     * @param accessLog the access log, or null to disable access logging
+     * @return the server instance (for chaining)
+     */
+    public HttpServer accessLog(AccessLog accessLog) {
+        checkNotStarted();
+        this.accessLog = accessLog;
+        return this;
+    }
+
+    /**
+     * Set the JSON codec used to decode request bodies ({@link HttpRequest#getBodyAs}) and encode
+     * object response bodies. Build it from a configured ObjectMapper: {@code new JsonCodec(mapper)}.
+     *
+     * @param jsonCodec the codec to use
+     * @return the server instance (for chaining)
+     */
+    public HttpServer jsonCodec(JsonCodec jsonCodec) {
+        if (jsonCodec == null) {
+            throw new IllegalArgumentException("JSON codec must not be null.");
+        }
+        checkNotStarted();
+        this.jsonCodec = jsonCodec;
+        return this;
+    }
+
+    /**
+     * Set the transport that accepts connections and moves bytes between sockets and handlers.
+     * Defaults to {@link BlockingTransport} (one pooled thread per connection); use {@link NioTransport}
+     * to hold many idle keep-alive connections on a few selector threads.
+     *
+     * @param transport the transport to use
+     * @return the server instance (for chaining)
+     */
+    public HttpServer transport(Transport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("Transport must not be null.");
+        }
+        checkNotStarted();
+        this.transport = transport;
+        return this;
+    }
+
+    /**
+     * Run every connection (blocking transport) or request handler (NIO transport) on its own virtual thread
+     * instead of the default pool of 50 platform threads. Handlers that block on I/O, and clients that are
+     * slow to send, then no longer exhaust a fixed number of workers.
+     *
+     * @return the server instance (for chaining)
+     */
+    public HttpServer virtualThreads() {
+        return executor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    /**
+     * Replace the default pool of 50 platform threads with a custom executor. An executor that rejects tasks
+     * when saturated, like the default pool, makes the server answer the excess with 503; one with an unbounded
+     * queue makes excess requests wait instead.
+     *
+     * @param executor the executor to run connections or handlers on
+     * @return the server instance (for chaining)
+     * @throws IllegalStateException if the server has started
+     */
+    public HttpServer executor(ExecutorService executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor must not be null.");
+        }
+        checkNotStarted();
+        if (defaultPool) {
+            this.threadPool.shutdown(); // Created by the server and not yet used; an executor passed in is the caller's
+        }
+        this.threadPool = executor;
+        this.defaultPool = false;
+        return this;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the worker pool that runs connection loops (blocking transport) or request handlers (NIO transport)
+     */
+    public ExecutorService getThreadPool() {
+        return threadPool;
+    }
+
+    /**
+     * @return a new request parser with this server's header limits and JSON codec, for one connection
+     */
+    public HttpRequestParser newRequestParser() {
+        return new HttpRequestParser(maxHeaderCount, maxHeaderBytes, jsonCodec);
+    }
+
+    public int getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    public int getMaxPipelineDepth() {
+        return maxPipelineDepth;
+    }
+
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    /**
+     * @return the timeouts for reading requests; available once the server has started
+     */
+    public RequestTimeouts getRequestTimeouts() {
+        return requestTimeouts;
+    }
+
+    public long getWriteTimeoutMillis() {
+        return writeTimeoutMillis;
+    }
+
+    /**
+     * @return the minimum rate at which responses must be read, in bytes per second, or 0 for none
+     */
+    public long getMinDataRate() {
+        return minDataRate;
+    }
+
+    /**
+     * Count a connection that timed out. Called by transports, and by the server when a handler's body read
+     * times out.
+     *
+     * @param phase the part of the exchange that took too long
+     */
+    public void recordTimeout(TimeoutPhase phase) {
+        if (metrics != null) {
+            metrics.timeout(phase);
+        }
+    }
+
+    /**
+     * Count a newly accepted connection against the connection cap. Called by transports before reading from it.
+     *
+     * @return true if the connection may be served; it must then be reported with {@link #connectionClosed()}
+     *         when closed. False if the server is at its cap; the transport must reject it.
+     */
+    public boolean tryOpenConnection() {
+        if (openConnections.incrementAndGet() > maxConnections) {
+            openConnections.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Called by transports when a connection counted by {@link #tryOpenConnection()} is closed.
+     */
+    public void connectionClosed() {
+        openConnections.decrementAndGet();
+    }
+
+    /**
+     * Called by transports when they turn a connection away with 503, over the connection cap or because
+     * no worker could take it.
+     */
+    public void connectionRejected() {
+        rejectedConnections.increment();
+    }
+
+    /**
+     * Count a request turned away because the server is overloaded, and build its response.
+     * Called by transports when no worker can take a request, and by the server over the concurrency limit.
+     *
+     * @return a 503 response asking the client to retry after a second
+     */
+    public HttpResponse shedRequest() {
+        shedRequests.increment();
+        return new HttpResponse(503, "Service Unavailable").withHeader("Retry-After", "1");
+    }
+
+    /**
+     * Count the request against the route, client, and global limits, in that order. A request rejected by
+     * any limit is counted by none: the permits already taken from earlier limits are given back.
+     *
+     * @throws TooManyRequestsException if any limit rejects it
+     */
+    private void checkRateLimits(RouteMatch match, String clientIP) throws TooManyRequestsException {
+        RateLimiter routeLimiter = match != null ? match.getRateLimiter() : null;
+        long now = System.nanoTime();
+        if (routeLimiter != null) {
+            checkRateLimit(routeLimiter, clientIP, now, "route " + match.getRoute().getPath());
+        }
+        if (clientRateLimiter != null) {
+            try {
+                checkRateLimit(clientRateLimiter, clientIP, now, "IP " + clientIP);
+            } catch (TooManyRequestsException e) {
+                if (routeLimiter != null) {
+                    routeLimiter.refund(clientIP, now);
+                }
+                throw e;
+            }
+        }
+        if (globalRateLimiter != null) {
+            try {
+                checkRateLimit(globalRateLimiter, "", now, "server");
+            } catch (TooManyRequestsException e) {
+                if (routeLimiter != null) {
+                    routeLimiter.refund(clientIP, now);
+                }
+                if (clientRateLimiter != null) {
+                    clientRateLimiter.refund(clientIP, now);
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void checkRateLimit(RateLimiter limiter, String key, long nowNanos, String scope) {
+        long waitNanos = limiter.tryAcquire(key, nowNanos);
+        if (waitNanos > 0) {
+            long retryAfter = Math.max(1, (waitNanos + 999_999_999) / 1_000_000_000); // Whole seconds, rounded up
+            throw new TooManyRequestsException("Rate limit exceeded for " + scope, retryAfter);
+        }
+    }
+
+    private List<RateLimiter> rateLimiters() {
+        List<RateLimiter> limiters = new ArrayList<>(routeRateLimiters.values());
+        if (clientRateLimiter != null) {
+            limiters.add(clientRateLimiter);
+        }
+        if (globalRateLimiter != null) {
+            limiters.add(globalRateLimiter);
+        }
+        return limiters;
+    }
 
     /**
      * Start the server
@@ -159,124 +979,298 @@ public class HttpServer implements Runnable {
         if (routes.isEmpty()) {
             System.out.println("Warning: No routes defined. Server will respond with 404 for all requests.");
         }
-        ServerSocket serverSocket = new ServerSocket(port);
-        if (CLIENT_RATE_LIMIT > 0) {
-            Thread cleanerThread = new Thread(() -> {
+        router = new Router(routes, routeMaxBodySizes, routeRateLimiters, routeHandlerTimeouts, staticRoutes.values());
+        // An idle connection without keep-alive is still waiting for its first request
+        requestTimeouts = new RequestTimeouts(keepAliveTimeout > 0 ? keepAliveTimeout : requestLineTimeoutMillis,
+                requestLineTimeoutMillis, headersTimeoutMillis, bodyTimeoutMillis, minDataRate, minDataRateGraceMillis);
+        if (!routeCachePolicies.isEmpty()) {
+            responseCache = new ResponseCache(responseCacheMaxBytes, responseCacheMaxEntryBytes, routeCachePolicies,
+                    jsonCodec, compression, threadPool);
+        }
+        if (accessLog != null) {
+            accessLog.start();
+        }
+        if (metrics != null) {
+            registerExecutorGauges();
+            registerAdmissionGauges();
+            if (responseCache != null) {
+                registerResponseCacheGauges();
+            }
+            if (accessLog != null) {
+                metrics.counter("http_access_log_dropped_total",
+                        "Access log entries dropped because the buffer was full.", accessLog::getDroppedCount);
+            }
+        }
+        List<RateLimiter> limiters = rateLimiters();
+        if (!limiters.isEmpty()) {
+            // Drop clients whose limits have recovered, so memory tracks recently active clients only
+            Thread evictionThread = new Thread(() -> {
                 while (true) {
                     try {
-                        Thread.sleep(60000); // Sleep for 1 min
-                        clientRequestCounts.clear();
+                        Thread.sleep(10000);
                     } catch (InterruptedException e) {
-                        throw new RuntimeException(e);
+                        return;
+                    }
+                    for (RateLimiter limiter : limiters) {
+                        limiter.evictIdle(System.nanoTime());
                     }
                 }
-            });
-            cleanerThread.setDaemon(true); // Set as daemon so it doesn't block JVM exit
-            cleanerThread.start();
-            System.out.println("Rate limiting enabled: " + CLIENT_RATE_LIMIT + " requests per minute.");
+            }, "rate-limit-eviction");
+            evictionThread.setDaemon(true); // Set as daemon so it doesn't block JVM exit
+            evictionThread.start();
+            System.out.println("Rate limiting enabled.");
         }
-        System.out.println("Server started on port " + port);
+        transport.start(this);
+    }
+
+    /**
+     * Handle a single parsed request, applying rate limiting, routing, and static file lookup, and wait for
+     * its response. Transports use {@link #handleRequestAsync}, which does not wait for asynchronous handlers.
+     *
+     * @param request  the parsed request
+     * @param clientIP the IP address of the client
+     * @return the response to send
+     */
+    public HttpResponse handleRequest(HttpRequest request, String clientIP) {
+        return handleRequestAsync(request, clientIP).join();
+    }
 
-        while (true) {
-            Socket client = serverSocket.accept();
-            threadPool.submit(() -> handleClient(client));
+    /**
+     * Handle a single parsed request, applying rate limiting, routing, and static file lookup.
+     * Called by transports once a request has been fully read. A synchronous handler runs on the calling thread
+     * and the returned future is already complete. An asynchronous handler's future completes when its stage
+     * does, on the thread that completes it, or with a 504 once the route's timeout has passed.
+     * A handler that throws or fails produces an error response (500 unless the exception says otherwise);
+     * the future never completes exceptionally.
+     *
+     * @param request  the parsed request
+     * @param clientIP the IP address of the client
+     * @return the response to send, once it is ready
+     */
+    public CompletableFuture<HttpResponse> handleRequestAsync(HttpRequest request, String clientIP) {
+        if (metrics != null) {
+            findRoute(request); // Route first so the handler phase is attributed to the route
         }
+        return admit(request, () -> dispatch(request, clientIP), true);
     }
 
     /**
-     * Handle a client request
+     * Run a request's handling under the concurrency limit, recording it in the handler metrics.
      *
-     * @param client the client socket
+     * @param work handles the request; an exception it throws becomes an error response
+     * @param shed whether to answer with 503 when the limiter has no free slot, rather than not run at all
+     * @return the response, once it is ready; null if the limiter had no free slot and shed is false
      */
-    private void handleClient(Socket client) {
+    private CompletableFuture<HttpResponse> admit(HttpRequest request, Supplier<CompletableFuture<HttpResponse>> work,
+                                                  boolean shed) {
+        boolean limited = concurrencyLimiter != null;
+        if (limited && !concurrencyLimiter.tryAcquire()) {
+            if (!shed) {
+                return null;
+            }
+            limited = false; // Holds no slot to release
+            work = () -> CompletableFuture.completedFuture(shedRequest());
+        }
+        long start = metrics != null ? metrics.handlerStarted(request) : System.nanoTime();
+        CompletableFuture<HttpResponse> response;
         try {
-            // Check rate limit
-            String clientIP = ((InetSocketAddress) client.getRemoteSocketAddress()).getAddress().toString().replace("/", "");
-            try {
-                checkClientRateLimit(clientIP);
-            } catch (TooManyRequestsException e) {
-                var response = new HttpResponse(429)
-                        .withBody("Too Many Requests")
-                        .withHeader("Retry-After", "60"); // Suggest client to retry after 60 seconds
+            response = work.get();
+        } catch (Exception e) {
+            response = CompletableFuture.completedFuture(errorResponse(e));
+        }
+        if (metrics != null || limited) {
+            boolean release = limited;
+            if (response.isDone()) {
+                handlerFinished(request, start, release, response.join());
+            } else {
+                response = response.whenComplete((r, e) -> handlerFinished(request, start, release, r));
+            }
+        }
+        return response;
+    }
 
-                client.getOutputStream().write(HttpResponseFormater.formatHeaders(response).getBytes(StandardCharsets.US_ASCII));
-                byte[] body = response.getBodyBytes();
-                if (body != null && body.length > 0) {
-                    client.getOutputStream().write(body);
-                }
-                client.getOutputStream().flush();
-                client.close();
-                return;
+    private void handlerFinished(HttpRequest request, long startNanos, boolean release, HttpResponse response) {
+        if (metrics != null) {
+            metrics.handlerFinished(request, startNanos);
+        }
+        if (release) {
+            int status = response.getStatusCode();
+            concurrencyLimiter.release(System.nanoTime() - startNanos, status == 503 || status == 504);
+        }
+    }
+
+    // Already complete unless the route's handler is asynchronous
+    private CompletableFuture<HttpResponse> dispatch(HttpRequest request, String clientIP) {
+        // Find handler for route, then check rate limits, which may depend on the route
+        RouteMatch match = findRoute(request);
+        checkRateLimits(match, clientIP);
+        if (match != null) {
+            if (match.getHandler() == null) {
+                return CompletableFuture.completedFuture(
+                        new HttpResponse(405, "Method Not Allowed").withHeader("Allow", match.getAllow()));
+            }
+            if (responseCache != null) {
+                // A background refresh of a stale response takes a slot like any request, and is skipped without one
+                return responseCache.handle(match.getRoute(), request, () -> callHandler(request, match),
+                        () -> admit(request, () -> callHandler(request, match), false));
             }
+            return callHandler(request, match);
+        }
+        return CompletableFuture.completedFuture(serveStatic(request));
+    }
 
-            // Parse into HttpRequest object
-            HttpRequest request = HttpRequestParser.parse(client);
-            HttpResponse response = null;
+    private CompletableFuture<HttpResponse> callHandler(HttpRequest request, RouteMatch match) {
+        if (match.getHandler() instanceof AsyncHttpRequestHandler handler) {
+            return awaitHandler(handler.handleAsync(request), match);
+        }
+        return CompletableFuture.completedFuture(match.getHandler().handle(request));
+    }
 
-            // Find handler for route
-            Route requestRoute = new Route(request.getPath(), request.getMethod());
-            if (routes.containsKey(requestRoute)) {
-                HttpRequestHandler handler = routes.get(requestRoute);
-                response = handler.handle(request);
+    // The stage's response, an error response if it fails, or 504 if it has not completed within the route's timeout
+    private CompletableFuture<HttpResponse> awaitHandler(CompletionStage<HttpResponse> stage, RouteMatch match) {
+        if (stage == null) {
+            throw new IllegalStateException("Asynchronous handler returned no stage");
+        }
+        // A future of our own, so the timeout does not complete the handler's future with a TimeoutException
+        CompletableFuture<HttpResponse> timed = new CompletableFuture<>();
+        stage.whenComplete((response, error) -> {
+            if (error != null) {
+                timed.completeExceptionally(error);
             } else {
-                response = new HttpResponse(404, "Not Found"); // If no handler found, will be 404
-                // Check for static files
-                if (request.getMethod().equalsIgnoreCase("GET")) {
-                    for (String urlPath : staticRoutes.keySet()) {
-                        String requestPath = request.getPath();
-                        String urlPathNoSlash = urlPath.endsWith("/") ? urlPath.substring(0, urlPath.length() - 1) : urlPath;
-                        boolean matchesRoot = requestPath.equals(urlPathNoSlash);
-                        boolean matchesPrefix = requestPath.startsWith(urlPath);
-                        if (matchesRoot || matchesPrefix) {
-                            String baseDir = staticRoutes.get(urlPath);
-                            String relativePath = matchesPrefix ? requestPath.substring(urlPath.length()) : "";
-                            String filePath = baseDir + relativePath;
-                            // If end of filepath is "/" or relative is empty, serve index.html
-                            if (filePath.endsWith("/")) {
-                                filePath += "index.html";
-                            }
-                            HttpStaticRequestHandler staticHandler = new HttpStaticRequestHandler();
-                            response = staticHandler.handleStaticFile(filePath);
-                            break;
-                        }
-                    }
-                }
+                timed.complete(response);
             }
+        });
+        if (!timed.isDone()) {
+            long timeout = match.getTimeoutMillis() >= 0 ? match.getTimeoutMillis() : handlerTimeoutMillis;
+            timed.orTimeout(timeout, TimeUnit.MILLISECONDS); // Cancels its timer once the stage completes
+        }
+        return timed.handle((response, error) -> {
+            if (error == null && response == null) {
+                error = new IllegalStateException("Asynchronous handler completed without a response");
+            }
+            if (error == null) {
+                return response;
+            }
+            if (error instanceof TimeoutException && stage instanceof CompletableFuture<?> future) {
+                future.cancel(true); // Nobody is waiting for the result any more
+            }
+            return errorResponse(error);
+        });
+    }
 
-            // Ensure Content-Length is correct for current body bytes
-            if (response.getBodyBytes() != null) {
-                response.withHeader("Content-Length", String.valueOf(response.getBodyBytes().length));
-            } else {
-                response.withHeader("Content-Length", "0");
+    // The response to a handler that threw, or whose stage completed exceptionally
+    private HttpResponse errorResponse(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof RequestTimeoutException e) {
+            recordTimeout(e.getPhase());
+        }
+        if (cause instanceof HttpParseException e) {
+            // The body broke a limit or its framing while the handler read it; the connection cannot be reused
+            return new HttpResponse(e.getStatusCode(), e.getMessage()).withHeader("Connection", "close");
+        }
+        if (cause instanceof TooManyRequestsException e) {
+            return new HttpResponse(429)
+                    .withBody("Too Many Requests")
+                    .withHeader("Retry-After", Long.toString(e.getRetryAfterSeconds()));
+        }
+        if (cause instanceof ServiceUnavailableException e) {
+            HttpResponse response = new HttpResponse(503, "Service Unavailable");
+            return e.getRetryAfterSeconds() >= 0
+                    ? response.withHeader("Retry-After", Long.toString(e.getRetryAfterSeconds())) : response;
+        }
+        if (cause instanceof RejectedExecutionException) {
+            return new HttpResponse(503, "Service Unavailable"); // A downstream executor is saturated
+        }
+        if (cause instanceof TimeoutException) {
+            return new HttpResponse(504, "Gateway Timeout");
+        }
+        cause.printStackTrace();
+        return new HttpResponse(500, "Internal Server Error");
+    }
+
+    private HttpResponse serveStatic(HttpRequest request) {
+        HttpResponse response = new HttpResponse(404, "Not Found"); // If no handler found, will be 404
+        // Check for static files, in the mount with the longest matching prefix
+        if (request.getMethod().equalsIgnoreCase("GET")) {
+            String requestPath = request.getPath();
+            StaticMount mount = router.findMount(requestPath);
+            if (mount != null) {
+                String urlPath = mount.getUrlPath();
+                String relativePath = requestPath.length() >= urlPath.length() ? requestPath.substring(urlPath.length()) : "";
+                if (mount.getRoot() != null) {
+                    return staticHandler.handleFileSystemFile(mount.getRoot(), relativePath, request, mount.getCacheControl());
+                }
+                String filePath = mount.getDirectory() + relativePath;
+                // If end of filepath is "/" or relative is empty, serve index.html
+                if (filePath.endsWith("/")) {
+                    filePath += "index.html";
+                }
+                response = staticHandler.handleStaticFile(filePath, request, mount.getCacheControl());
             }
+        }
+        return response;
+    }
 
-            // Write headers then raw body bytes to avoid corrupting binary content
-            String headers = HttpResponseFormater.formatHeaders(response);
-            client.getOutputStream().write(headers.getBytes(StandardCharsets.US_ASCII));
-            byte[] body = response.getBodyBytes();
-            if (body != null && body.length > 0) {
-                client.getOutputStream().write(body);
+    /**
+     * Finish a response before it is written: set Content-Length from the body (or Transfer-Encoding: chunked
+     * for a streaming body of unknown length) and decide whether the connection stays open,
+     * setting the Connection (and for HTTP/1.0, Keep-Alive) headers to match.
+     * Used by transports after {@link #handleRequest(HttpRequest, String)}.
+     *
+     * @param request      the request being answered
+     * @param response     the response to finish
+     * @param requestCount the number of requests served on this connection, including this one
+     * @return true if the connection should be kept open for another request
+     */
+    public boolean prepareResponse(HttpRequest request, HttpResponse response, int requestCount) {
+        // Ensure Content-Length is correct for current body bytes
+        response.encodeBody(jsonCodec);
+        if (response.getStatusCode() == 204 || response.getStatusCode() == 304) {
+            // Bodyless by definition; a Content-Length here would have to describe the 200 representation
+            response.setBodyBytes(new byte[0]);
+            response.getHeaders().remove("Content-Length");
+            response.getHeaders().remove("Content-Type");
+        } else {
+            if (compression != null) {
+                compression.apply(request, response);
             }
-            client.getOutputStream().flush();
-            client.close();
-            logRequestResponse(request, response);
-        } catch (Exception e) {
-            e.printStackTrace();
-            HttpResponse response = new HttpResponse(500, "Internal Server Error");
-            try {
-                String headers = HttpResponseFormater.formatHeaders(response);
-                client.getOutputStream().write(headers.getBytes(StandardCharsets.US_ASCII));
-                byte[] body = response.getBodyBytes();
-                if (body != null && body.length > 0) {
-                    client.getOutputStream().write(body);
+            if (response.getFileBody() != null) {
+                response.withHeader("Content-Length", String.valueOf(response.getFileBody().length()));
+            } else if (response.getStreamingBody() != null) {
+                response.getHeaders().remove("Content-Length");
+                if (response.getStreamingLength() >= 0) {
+                    response.withHeader("Content-Length", String.valueOf(response.getStreamingLength()));
+                } else if ("HTTP/1.1".equals(request.getHttpVersion())) {
+                    response.withHeader("Transfer-Encoding", "chunked");
                 }
-                client.getOutputStream().flush();
-                client.close();
-            } catch (IOException ex) {
-                ex.printStackTrace();
-                throw new RuntimeException(ex);
+            } else {
+                byte[] body = response.getBodyBytes();
+                response.withHeader("Content-Length", body != null ? String.valueOf(body.length) : "0");
             }
         }
+
+        // An HTTP/1.0 client can only find the end of a body of unknown length by the connection closing
+        boolean delimitedByClose = response.getStreamingBody() != null
+                && response.getStreamingLength() < 0
+                && !"HTTP/1.1".equals(request.getHttpVersion());
+        boolean keepAlive = keepAliveTimeout > 0
+                && request.isKeepAlive()
+                && requestCount < maxRequestsPerConnection
+                && response.getStatusCode() != 500
+                && !delimitedByClose
+                && !"close".equalsIgnoreCase(response.getHeaders().get("Connection"));
+        if (keepAlive) {
+            response.withHeader("Connection", "keep-alive");
+            if (!"HTTP/1.1".equals(request.getHttpVersion())) {
+                response.withHeader("Keep-Alive", "timeout=" + (keepAliveTimeout / 1000) + ", max=" + (maxRequestsPerConnection - requestCount));
+            }
+        } else {
+            response.withHeader("Connection", "close");
+        }
+        return keepAlive;
     }
 
     /**
@@ -291,6 +1285,65 @@ public class HttpServer implements Runnable {
         }
     }
 
+    /**
+     * Record an exchange once its response has been written, in the metrics and the access log. Called by transports.
+     *
+     * @param clientIP   the client's address
+     * @param request    the request, or null if it could not be parsed
+     * @param response   the response sent
+     * @param startNanos when the request's first byte arrived
+     * @param parseNanos time from the request's first byte until it was dispatched, or -1 if unknown
+     * @param writeNanos time from the handler's return until the response was written
+     * @param bytesIn    request bytes read from the connection
+     * @param bytesOut   response bytes written to the connection
+     */
+    public void recordExchange(String clientIP, HttpRequest request, HttpResponse response, long startNanos,
+                               long parseNanos, long writeNanos, long bytesIn, long bytesOut) {
+        if (metrics != null) {
+            metrics.recordExchange(request, response, parseNanos, writeNanos, bytesIn, bytesOut);
+        }
+        if (accessLog != null) {
+            accessLog.log(clientIP, request, response.getStatusCode(), bytesOut, System.nanoTime() - startNanos);
+        }
+    }
+
+    private void registerExecutorGauges() {
+        if (threadPool instanceof ThreadPoolExecutor pool) {
+            metrics.gauge("http_executor_queue_depth", "Tasks waiting for a worker thread.", () -> pool.getQueue().size());
+            metrics.gauge("http_executor_active_threads", "Worker threads running a task.", pool::getActiveCount);
+        } else if (threadPool instanceof ForkJoinPool pool) {
+            metrics.gauge("http_executor_queue_depth", "Tasks waiting for a worker thread.", pool::getQueuedSubmissionCount);
+            metrics.gauge("http_executor_active_threads", "Worker threads running a task.", pool::getActiveThreadCount);
+        }
+        // Virtual thread executors start every task at once; in-flight requests are the closest measure
+    }
+
+    private void registerAdmissionGauges() {
+        metrics.gauge("http_open_connections", "Open client connections.", openConnections::get);
+        metrics.counter("http_connections_rejected_total",
+                "Connections answered with 503 and closed before being read.", rejectedConnections::sum);
+        metrics.counter("http_requests_shed_total", "Requests answered with 503 because the server was overloaded.",
+                shedRequests::sum);
+        if (concurrencyLimiter != null) {
+            ConcurrencyLimiter limiter = concurrencyLimiter;
+            metrics.gauge("http_concurrency_limit", "Requests the concurrency limiter admits at once.", limiter::getLimit);
+            metrics.gauge("http_concurrency_in_flight", "Requests holding a concurrency limiter slot.", limiter::getInFlight);
+        }
+    }
+
+    private void registerResponseCacheGauges() {
+        ResponseCache cache = responseCache;
+        metrics.counter("http_response_cache_hits_total", "Responses served from the response cache.", cache::getHits);
+        metrics.counter("http_response_cache_stale_hits_total",
+                "Responses served from the response cache past their TTL.", cache::getStaleHits);
+        metrics.counter("http_response_cache_misses_total", "Cacheable requests passed to their handler.",
+                cache::getMisses);
+        metrics.counter("http_response_cache_evictions_total", "Responses evicted to keep the cache within its budget.",
+                cache::getEvictions);
+        metrics.gauge("http_response_cache_bytes", "Estimated size of cached responses.", cache::getSizeBytes);
+        metrics.gauge("http_response_cache_entries", "Cached responses.", cache::getEntryCount);
+    }
+
     /**
      * Start the server in a new thread
      *
@@ -301,8 +1354,4 @@ public class HttpServer implements Runnable {
         serverThread.start();
         return serverThread;
     }
-
-    private void logRequestResponse(HttpRequest request, HttpResponse response) {
-        System.out.println(response.getStatusCode() + " " + request.getMethod() + request.getPath());
-    }
 }
\ No newline at end of file
@@ -0,0 +1,328 @@
+package server.accesslog;
+
+import server.request.HttpRequest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An asynchronous access log. Request threads only claim a slot in a bounded ring buffer and store
+ * references in it; a background writer thread formats the entries and writes them in batches, to a file
+ * (rotated by size) or a stream such as System.out. Request threads never format, never do I/O,
+ * and never take a lock.
+ * <p>
+ * The ring is a multi-producer, single-consumer queue of preallocated {@link AccessLogEntry} slots: a producer
+ * claims the next sequence number with a CAS, fills the slot, and publishes it by writing the sequence into it;
+ * the writer consumes slots in sequence order. When the writer falls behind and the ring is full, entries are
+ * dropped and counted (the default), or with {@link OverflowPolicy#BLOCK} the request thread waits for room.
+ * <p>
+ * Configure the log, then hand it to {@link server.HttpServer#accessLog(AccessLog)}, which starts it.
+ */
+public class AccessLog implements Closeable {
+
+    /** What a request thread does when the ring buffer is full. */
+    public enum OverflowPolicy {
+        /** Drop the entry and count it in {@link #getDroppedCount()}. */
+        DROP,
+        /** Wait until the writer has made room. */
+        BLOCK
+    }
+
+    private static final int BATCH_BYTES = 64 * 1024;
+    private static final long MAX_IDLE_PARK_NANOS = 10_000_000;
+
+    private final Path file; // null when writing to a stream
+    private final OutputStream stream;
+    private final AccessLogFormat format;
+    private long maxFileBytes = 100L * 1024 * 1024;
+    private int maxFiles = 5;
+    private int capacity = 8192;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+
+    private AccessLogEntry[] ring;
+    private int mask;
+    private final AtomicLong claimed = new AtomicLong(); // Next sequence to claim
+    private volatile long consumed;                      // Next sequence the writer will read
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean running;
+    private Thread writer;
+    private Thread shutdownHook; // Registered while running, to write what is buffered on exit
+
+    private WritableByteChannel channel;
+    private long fileSize;
+
+    /**
+     * Log to a file, appending to it if it exists. It is rotated at 100 MB, keeping 5 old files, unless
+     * changed with {@link #rotate}.
+     * @param file   the log file
+     * @param format the line format
+     */
+    public AccessLog(Path file, AccessLogFormat format) {
+        this.file = file;
+        this.stream = null;
+        this.format = format;
+    }
+
+    /**
+     * Log to a stream, e.g. System.out. The stream is not closed with the log.
+     * @param stream the stream
+     * @param format the line format
+     */
+    public AccessLog(OutputStream stream, AccessLogFormat format) {
+        this.file = null;
+        this.stream = stream;
+        this.format = format;
+    }
+
+    /**
+     * Rotate the log file when it would grow past a size: the file becomes file.1, file.1 becomes file.2,
+     * and so on, dropping the oldest.
+     * @param maxFileBytes the size at which the file is rotated
+     * @param maxFiles     the number of rotated files to keep
+     * @return this log (for chaining)
+     */
+    public AccessLog rotate(long maxFileBytes, int maxFiles) {
+        if (maxFileBytes <= 0 || maxFiles < 0) {
+            throw new IllegalArgumentException("Rotation size must be positive and file count non-negative.");
+        }
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        return this;
+    }
+
+    /**
+     * @param entries the number of entries the ring buffer holds, rounded up to a power of two (default 8192)
+     * @return this log (for chaining)
+     */
+    public AccessLog bufferSize(int entries) {
+        if (entries <= 0 || entries > 1 << 24) {
+            throw new IllegalArgumentException("Buffer size must be between 1 and 16M entries.");
+        }
+        this.capacity = entries == 1 ? 1 : Integer.highestOneBit(entries - 1) << 1;
+        return this;
+    }
+
+    /**
+     * @param policy what to do when the ring buffer is full (default {@link OverflowPolicy#DROP})
+     * @return this log (for chaining)
+     */
+    public AccessLog overflowPolicy(OverflowPolicy policy) {
+        this.overflowPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Open the log and start its writer thread. Called by the server when it starts.
+     * @throws IOException if the log file cannot be opened
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        ring = new AccessLogEntry[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new AccessLogEntry(i - capacity); // Not yet published for sequence i
+        }
+        mask = capacity - 1;
+        if (file != null) {
+            openFile();
+        } else {
+            channel = Channels.newChannel(stream);
+        }
+        running = true;
+        writer = new Thread(this::drainLoop, "access-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        shutdownHook = new Thread(this::close, "access-log-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Queue an entry. Cheap enough for every request: no formatting, I/O, or allocation.
+     * @param clientIP      the client's address
+     * @param request       the request, or null if it could not be parsed; it must not be used afterwards
+     * @param status        the response status
+     * @param bytesSent     the response bytes written
+     * @param durationNanos the time from the request's first byte until the response was written
+     * @return false if the entry was dropped because the buffer was full or the log is not running
+     */
+    public boolean log(String clientIP, HttpRequest request, int status, long bytesSent, long durationNanos) {
+        if (!running) {
+            return false;
+        }
+        long sequence;
+        while (true) {
+            sequence = claimed.get();
+            if (sequence - consumed >= capacity) {
+                if (overflowPolicy == OverflowPolicy.DROP) {
+                    dropped.increment();
+                    return false;
+                }
+                LockSupport.parkNanos(50_000); // Wait for the writer to make room
+                if (!running) {
+                    return false;
+                }
+                continue;
+            }
+            if (claimed.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+        AccessLogEntry entry = ring[(int) sequence & mask];
+        entry.epochMillis = System.currentTimeMillis();
+        entry.clientIP = clientIP;
+        entry.request = request;
+        entry.status = status;
+        entry.bytesSent = bytesSent;
+        entry.durationNanos = durationNanos;
+        entry.sequence = sequence; // Publish: the writer reads the fields after seeing this
+        return true;
+    }
+
+    /**
+     * @return the number of entries dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Stop the writer after it has written every entry published so far.
+     */
+    @Override
+    public void close() {
+        Thread thread;
+        Thread hook;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            thread = writer;
+            hook = shutdownHook;
+            shutdownHook = null;
+        }
+        if (Thread.currentThread() != hook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException e) {
+                // The JVM is shutting down; the hook runs anyway and finds the log closed
+            }
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        StringBuilder batch = new StringBuilder(BATCH_BYTES + 1024);
+        long idlePark = 0;
+        while (true) {
+            boolean stopping = !running; // Read before draining, so entries published before close are written
+            long next = consumed;
+            AccessLogEntry entry;
+            while ((entry = ring[(int) next & mask]).sequence == next && batch.length() < BATCH_BYTES) {
+                try {
+                    format.format(entry, batch);
+                } catch (RuntimeException e) {
+                    batch.append("# unformattable entry: ").append(e);
+                }
+                batch.append('\n');
+                entry.clear();
+                next++;
+                consumed = next; // Frees the slot for producers
+            }
+            if (batch.length() > 0) {
+                write(batch);
+                batch.setLength(0);
+                idlePark = 0;
+                continue;
+            }
+            if (stopping) {
+                closeChannel();
+                return;
+            }
+            // Back off while idle, up to 10 ms between polls; request threads never have to wake the writer
+            idlePark = Math.min(MAX_IDLE_PARK_NANOS, Math.max(100_000, idlePark * 2));
+            LockSupport.parkNanos(idlePark);
+        }
+    }
+
+    private void write(StringBuilder batch) {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(batch));
+        try {
+            if (file != null && fileSize > 0 && fileSize + bytes.remaining() > maxFileBytes) {
+                rotateFile();
+            }
+            fileSize += bytes.remaining();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            if (stream != null) {
+                stream.flush();
+            }
+        } catch (IOException e) {
+            // Keep consuming so request threads are never blocked behind a broken log
+            System.err.println("Access log write failed: " + e);
+        }
+    }
+
+    private void rotateFile() throws IOException {
+        channel.close();
+        if (maxFiles == 0) {
+            Files.deleteIfExists(file);
+        } else {
+            Files.deleteIfExists(rotated(maxFiles));
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                if (Files.exists(rotated(i))) {
+                    Files.move(rotated(i), rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        openFile();
+    }
+
+    private Path rotated(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    private void openFile() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        fileSize = fileChannel.size();
+        channel = fileChannel;
+    }
+
+    private void closeChannel() {
+        try {
+            if (file != null) {
+                channel.close();
+            } else {
+                stream.flush();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+}
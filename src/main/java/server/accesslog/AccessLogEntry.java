@@ -0,0 +1,81 @@
+package server.accesslog;
+
+import server.request.HttpRequest;
+
+/**
+ * One access log entry, as read by an {@link AccessLogFormat} on the log's writer thread.
+ * Entries are slots of the log's ring buffer, reused once written: a format must not keep one.
+ */
+public final class AccessLogEntry {
+
+    long epochMillis;
+    String clientIP;
+    HttpRequest request;
+    int status;
+    long bytesSent;
+    long durationNanos;
+    volatile long sequence; // The ring position this slot was last published for
+
+    AccessLogEntry(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return when the response was completed, in milliseconds since the epoch
+     */
+    public long getEpochMillis() {
+        return epochMillis;
+    }
+
+    /**
+     * @return the client's IP address, or null if unknown
+     */
+    public String getClientIP() {
+        return clientIP;
+    }
+
+    /**
+     * @return the request, or null if it could not be parsed
+     */
+    public HttpRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return the request line as received (e.g. "GET /books?page=2 HTTP/1.1"), or null if it could not be parsed
+     */
+    public String getRequestLine() {
+        return request != null ? request.getMethod() + " " + request.getRequestTarget() + " " + request.getHttpVersion() : null;
+    }
+
+    /**
+     * @param name the header name (case-insensitive)
+     * @return the request header's value, or null if absent or the request could not be parsed
+     */
+    public String getHeader(String name) {
+        return request != null ? request.getHeader(name) : null;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the response bytes written, headers included
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return the time from the request's first byte until its response was written
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    void clear() {
+        clientIP = null;
+        request = null;
+    }
+}
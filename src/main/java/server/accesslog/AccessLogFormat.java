@@ -0,0 +1,124 @@
+package server.accesslog;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Access log line formats.
+ */
+public enum AccessLogFormat {
+
+    /**
+     * The Common Log Format: {@code 127.0.0.1 - - [10/Oct/2025:13:55:36 +0200] "GET /books HTTP/1.1" 200 2326}
+     */
+    COMMON {
+        @Override
+        public void format(AccessLogEntry entry, StringBuilder out) {
+            appendCommon(entry, out);
+        }
+    },
+
+    /**
+     * The Combined Log Format: the common format followed by the quoted Referer and User-Agent headers.
+     */
+    COMBINED {
+        @Override
+        public void format(AccessLogEntry entry, StringBuilder out) {
+            appendCommon(entry, out);
+            out.append(" \"");
+            appendEscaped(out, orDash(entry.getHeader("Referer")));
+            out.append("\" \"");
+            appendEscaped(out, orDash(entry.getHeader("User-Agent")));
+            out.append('"');
+        }
+    },
+
+    /**
+     * One JSON object per line, with the request's parts as separate fields and the duration in milliseconds.
+     */
+    JSON {
+        @Override
+        public void format(AccessLogEntry entry, StringBuilder out) {
+            out.append("{\"time\":\"").append(Instant.ofEpochMilli(entry.getEpochMillis())).append('"');
+            field(out, "client", entry.getClientIP());
+            if (entry.getRequest() != null) {
+                field(out, "method", entry.getRequest().getMethod());
+                field(out, "target", entry.getRequest().getRequestTarget());
+                field(out, "protocol", entry.getRequest().getHttpVersion());
+            }
+            out.append(",\"status\":").append(entry.getStatus());
+            out.append(",\"bytes\":").append(entry.getBytesSent());
+            out.append(",\"duration_ms\":").append(entry.getDurationNanos() / 1_000_000.0);
+            field(out, "referer", entry.getHeader("Referer"));
+            field(out, "user_agent", entry.getHeader("User-Agent"));
+            out.append('}');
+        }
+
+        private static void field(StringBuilder out, String name, String value) {
+            if (value == null) {
+                return;
+            }
+            out.append(",\"").append(name).append("\":\"");
+            appendEscaped(out, value);
+            out.append('"');
+        }
+    };
+
+    private static final DateTimeFormatter CLF_TIME =
+            DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US).withZone(ZoneId.systemDefault());
+
+    // The last second formatted; entries of one second share the string. Replaced whole, so safe to race on
+    private static volatile FormattedSecond lastSecond = new FormattedSecond(-1, "");
+
+    /**
+     * Append one entry, without a line terminator.
+     * @param entry the entry
+     * @param out   the buffer to append to
+     */
+    public abstract void format(AccessLogEntry entry, StringBuilder out);
+
+    private static void appendCommon(AccessLogEntry entry, StringBuilder out) {
+        out.append(orDash(entry.getClientIP())).append(" - - [").append(clfTime(entry.getEpochMillis())).append("] \"");
+        String requestLine = entry.getRequestLine();
+        appendEscaped(out, orDash(requestLine));
+        out.append("\" ").append(entry.getStatus()).append(' ');
+        if (entry.getBytesSent() > 0) {
+            out.append(entry.getBytesSent());
+        } else {
+            out.append('-');
+        }
+    }
+
+    private static String clfTime(long epochMillis) {
+        long second = epochMillis / 1000;
+        FormattedSecond cached = lastSecond;
+        if (cached.second != second) {
+            cached = new FormattedSecond(second, CLF_TIME.format(Instant.ofEpochSecond(second)));
+            lastSecond = cached;
+        }
+        return cached.text;
+    }
+
+    private static String orDash(String value) {
+        return value != null ? value : "-";
+    }
+
+    // Escapes quotes, backslashes, and control characters, so a client cannot forge log lines or JSON fields
+    static void appendEscaped(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20 || c == 0x7f) {
+                out.append("\\u").append(String.format("%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private record FormattedSecond(long second, String text) {
+    }
+}
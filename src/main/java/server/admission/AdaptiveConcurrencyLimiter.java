@@ -0,0 +1,67 @@
+package server.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Base for limiters that recompute their limit from every completed request.
+ * Acquiring and releasing a slot is a CAS on the in-flight count; only the limit update takes a lock,
+ * and it runs after the response is ready, off the path of requests still waiting to be admitted.
+ */
+abstract class AdaptiveConcurrencyLimiter implements ConcurrencyLimiter {
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    final int minLimit;
+    final int maxLimit;
+    private volatile int limit;
+
+    AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= min <= initial <= max.");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    @Override
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void release(long latencyNanos, boolean overloaded) {
+        int current = inFlight.getAndDecrement();
+        synchronized (this) {
+            double next = update(latencyNanos, overloaded, current, System.nanoTime());
+            limit = (int) Math.max(minLimit, Math.min(maxLimit, next));
+        }
+    }
+
+    /**
+     * Compute the next limit from a completed request. Called under the limiter's lock.
+     * @param latencyNanos how long the request held its slot
+     * @param overloaded   whether it failed with a sign of overload
+     * @param inFlight     requests in flight when it completed, itself included
+     * @param nowNanos     the current {@link System#nanoTime()}
+     * @return the next limit, clamped by the caller to [minLimit, maxLimit]
+     */
+    abstract double update(long latencyNanos, boolean overloaded, int inFlight, long nowNanos);
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
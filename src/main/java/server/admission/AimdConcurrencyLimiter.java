@@ -0,0 +1,58 @@
+package server.admission;
+
+import java.time.Duration;
+
+/**
+ * Additive increase, multiplicative decrease, as TCP does for its congestion window: while requests complete
+ * within the latency target and the limit is in use, each one raises the limit by one; a request slower than the
+ * target, or one that failed with a sign of overload, cuts it by the backoff ratio.
+ * <p>
+ * The requests in flight when the limit is cut were admitted under the old limit and are likely to be slow too,
+ * so only requests that started after the last cut can cut it again; one burst of slow responses backs off once.
+ */
+public class AimdConcurrencyLimiter extends AdaptiveConcurrencyLimiter {
+
+    private final long latencyTargetNanos;
+    private final double backoffRatio;
+    private double current;
+    private long lastDecreaseNanos = Long.MIN_VALUE / 2;
+
+    /**
+     * A limiter starting at 20 concurrent requests, between 1 and 1000, backing off by 10%.
+     * @param latencyTarget the latency above which a request counts as a sign of overload
+     */
+    public AimdConcurrencyLimiter(Duration latencyTarget) {
+        this(20, 1, 1000, latencyTarget, 0.9);
+    }
+
+    /**
+     * @param initialLimit  the limit to start at
+     * @param minLimit      the lowest the limit may go
+     * @param maxLimit      the highest the limit may go
+     * @param latencyTarget the latency above which a request counts as a sign of overload
+     * @param backoffRatio  the factor the limit is multiplied by on overload, between 0.5 and 1
+     */
+    public AimdConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, Duration latencyTarget,
+                                  double backoffRatio) {
+        super(initialLimit, minLimit, maxLimit);
+        if (backoffRatio < 0.5 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("Backoff ratio must be in [0.5, 1).");
+        }
+        this.latencyTargetNanos = latencyTarget.toNanos();
+        this.backoffRatio = backoffRatio;
+        this.current = initialLimit;
+    }
+
+    @Override
+    double update(long latencyNanos, boolean overloaded, int inFlight, long nowNanos) {
+        if (overloaded || latencyNanos > latencyTargetNanos) {
+            if (nowNanos - latencyNanos >= lastDecreaseNanos) {
+                current = Math.max(minLimit, current * backoffRatio);
+                lastDecreaseNanos = nowNanos;
+            }
+        } else if (inFlight * 2 >= current) {
+            current = Math.min(maxLimit, current + 1); // Only grow a limit that is being used
+        }
+        return current;
+    }
+}
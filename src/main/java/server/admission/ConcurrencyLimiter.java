@@ -0,0 +1,34 @@
+package server.admission;
+
+/**
+ * Bounds the number of requests the server handles at once. A request that would exceed the limit is shed
+ * with 503 straight away, instead of waiting in a queue until its client has given up on it.
+ * Implementations are thread-safe; adaptive ones move the limit with the latency they observe, so the server
+ * stays near the concurrency at which it completes the most requests in time.
+ */
+public interface ConcurrencyLimiter {
+
+    /**
+     * Take a slot for a request if one is free. A request that gets one must give it back with {@link #release}.
+     * @return true if the request may proceed
+     */
+    boolean tryAcquire();
+
+    /**
+     * Give back a request's slot once its response is ready.
+     * @param latencyNanos how long the request held the slot
+     * @param overloaded   true if the request failed in a way that signals overload, e.g. it timed out (504)
+     *                     or a downstream service turned it away (503)
+     */
+    void release(long latencyNanos, boolean overloaded);
+
+    /**
+     * @return the current limit
+     */
+    int getLimit();
+
+    /**
+     * @return the number of requests holding a slot
+     */
+    int getInFlight();
+}
@@ -0,0 +1,84 @@
+package server.admission;
+
+/**
+ * Moves the limit with the gradient between the no-load latency and the latency of recent requests, as TCP Vegas
+ * does for its window, needing no latency target. While recent requests are about as fast as on an idle server the
+ * gradient is 1 and the limit grows by a queue allowance of sqrt(limit); once they slow down, requests are queueing
+ * and the limit shrinks in proportion, down to half per update.
+ * <p>
+ * The limit is updated once per window of about a limit's worth of requests, roughly one round trip, and
+ * smoothed, so a single slow request barely moves it. The no-load latency is the fastest window seen; since
+ * the work behind a route can get slower for good, it is measured again every {@code PROBE_WINDOWS} windows,
+ * with the limit halved for the measurement so that queueing does not inflate it.
+ */
+public class GradientConcurrencyLimiter extends AdaptiveConcurrencyLimiter {
+
+    private static final int MIN_WINDOW = 10;       // Fewest requests to average per update
+    private static final int PROBE_WINDOWS = 100;   // Updates between measurements of the no-load latency
+    private static final double SMOOTHING = 0.2;    // Weight of each new limit
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final double tolerance;
+    private double current;
+    private double noLoadLatency; // 0 until measured
+    private long windowSum;
+    private int windowCount;
+    private int windowMaxInFlight;
+    private boolean windowOverloaded;
+    private int windows;
+
+    /**
+     * A limiter starting at 20 concurrent requests, between 1 and 1000, that tolerates latency 50% above the
+     * no-load latency before backing off.
+     */
+    public GradientConcurrencyLimiter() {
+        this(20, 1, 1000, 1.5);
+    }
+
+    /**
+     * @param initialLimit the limit to start at
+     * @param minLimit     the lowest the limit may go
+     * @param maxLimit     the highest the limit may go
+     * @param tolerance    how many times the no-load latency recent requests may take before the limit shrinks,
+     *                     at least 1
+     */
+    public GradientConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        super(initialLimit, minLimit, maxLimit);
+        if (tolerance < 1) {
+            throw new IllegalArgumentException("Tolerance must be at least 1.");
+        }
+        this.tolerance = tolerance;
+        this.current = initialLimit;
+    }
+
+    @Override
+    double update(long latencyNanos, boolean overloaded, int inFlight, long nowNanos) {
+        windowSum += latencyNanos;
+        windowCount++;
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlight);
+        windowOverloaded |= overloaded;
+        if (windowCount < Math.max(MIN_WINDOW, current)) {
+            return current;
+        }
+        double latency = Math.max(1, (double) windowSum / windowCount);
+        boolean used = windowMaxInFlight * 2 >= current;
+        boolean dropped = windowOverloaded;
+        windowSum = windowCount = windowMaxInFlight = 0;
+        windowOverloaded = false;
+
+        if (noLoadLatency == 0 || latency < noLoadLatency) {
+            noLoadLatency = latency;
+        }
+        double gradient = dropped ? MIN_GRADIENT
+                : Math.max(MIN_GRADIENT, Math.min(1, tolerance * noLoadLatency / latency));
+        if (gradient < 1 || used) { // Only grow a limit that is being used
+            double next = current * gradient + Math.sqrt(current);
+            current = Math.max(minLimit, Math.min(maxLimit, current * (1 - SMOOTHING) + next * SMOOTHING));
+        }
+        if (++windows % PROBE_WINDOWS == 0) {
+            noLoadLatency = 0; // Measured again by the next window, at half the limit
+            current = Math.max(minLimit, current / 2);
+        }
+        return current;
+    }
+}
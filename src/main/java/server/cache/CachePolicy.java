@@ -0,0 +1,111 @@
+package server.cache;
+
+import server.route.Route;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * How a {@link ResponseCache} caches the responses of one GET route: for how long, which parts of the request
+ * tell responses apart, and which routes change the data so the cached responses must go.
+ * <p>
+ * By default responses are keyed by the whole request target, path and query string as received. Naming the
+ * query parameters that matter with {@link #keyParams} lets requests that only differ in others (tracking
+ * parameters, parameter order) share one entry. Request headers the response depends on must be named with
+ * {@link #vary}; they become part of the key and of the response's Vary header.
+ * <p>
+ * Configure the policy, then hand it to {@link server.HttpServer#cache(Route, CachePolicy)}.
+ */
+public class CachePolicy {
+
+    private final long ttlNanos;
+    private long staleNanos;
+    private List<String> keyParams; // null to key on the whole request target
+    private List<String> vary = List.of();
+    private List<Route> invalidatedBy = List.of();
+
+    /**
+     * @param ttl how long a response is served from the cache before the handler is asked again
+     */
+    public CachePolicy(Duration ttl) {
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("Cache TTL must be positive.");
+        }
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    /**
+     * Keep serving a response for a while after its TTL has run out, while a single background call to the
+     * handler replaces it. Requests then never wait for the handler once a response is cached, at the cost of
+     * seeing data up to this much older than the TTL. Invalidated responses are never served stale.
+     * Defaults to none.
+     *
+     * @param window how long past its TTL a response may still be served
+     * @return the policy (for chaining)
+     */
+    public CachePolicy staleWhileRevalidate(Duration window) {
+        if (window.isNegative()) {
+            throw new IllegalArgumentException("Stale window must be non-negative.");
+        }
+        this.staleNanos = window.toNanos();
+        return this;
+    }
+
+    /**
+     * Key responses on the path and these query parameters only, ignoring any others.
+     *
+     * @param names the query parameter names
+     * @return the policy (for chaining)
+     */
+    public CachePolicy keyParams(String... names) {
+        this.keyParams = List.of(names);
+        return this;
+    }
+
+    /**
+     * Keep a separate response for each value of these request headers, e.g. "Accept-Language".
+     * Responses whose own Vary header names any other header are not cached.
+     *
+     * @param headers the request header names
+     * @return the policy (for chaining)
+     */
+    public CachePolicy vary(String... headers) {
+        this.vary = List.of(headers);
+        return this;
+    }
+
+    /**
+     * Drop the cached responses whenever one of these routes answers with a 2xx status, e.g. POST /books for
+     * GET /books. Requests already past the cache are not affected, and what they fetch is not cached.
+     *
+     * @param routes the routes that change the data
+     * @return the policy (for chaining)
+     */
+    public CachePolicy invalidatedBy(Route... routes) {
+        this.invalidatedBy = List.of(routes);
+        return this;
+    }
+
+    public long getTtlNanos() {
+        return ttlNanos;
+    }
+
+    public long getStaleNanos() {
+        return staleNanos;
+    }
+
+    /**
+     * @return the query parameters responses are keyed on, or null for the whole request target
+     */
+    public List<String> getKeyParams() {
+        return keyParams;
+    }
+
+    public List<String> getVary() {
+        return vary;
+    }
+
+    public List<Route> getInvalidatedBy() {
+        return invalidatedBy;
+    }
+}
@@ -0,0 +1,436 @@
+package server.cache;
+
+import server.json.JsonCodec;
+import server.request.HttpRequest;
+import server.response.Compression;
+import server.response.HttpResponse;
+import server.route.Route;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A bounded in-memory cache of handler responses, for the GET routes given a {@link CachePolicy}.
+ * A hit answers the request without calling the handler: the response is stored with its body already
+ * encoded, and compressed once per content coding when the server compresses responses, so serving it
+ * only copies the header map.
+ * <p>
+ * Only 200 responses with an in-memory body are cached, and not when they set a cookie, say Cache-Control
+ * no-store, no-cache or private, or vary by a request header the policy does not key on.
+ * <p>
+ * Each cached route has a generation that {@link #invalidate} and the policy's writer routes move forward;
+ * entries from an older generation are never served, and a response fetched while the generation moved is
+ * not stored, so a client that has seen its write succeed never reads the data from before it.
+ * <p>
+ * Lookups are lock-free. When an insert pushes the cache over its byte budget, dead entries (invalidated or
+ * past their stale window) are dropped first, then the least recently used ones until it fits again.
+ * Responses larger than the per-entry limit are never cached.
+ */
+public class ResponseCache {
+
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+    public static final long DEFAULT_MAX_ENTRY_BYTES = 1024L * 1024;
+
+    private static final int ENTRY_OVERHEAD = 128; // Rough size of an entry's objects besides its strings and body
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final JsonCodec jsonCodec;
+    private final Compression compression; // null when the server sends bodies uncompressed
+    private final Executor executor;
+    private final Map<Route, CachedRoute> cachedRoutes = new HashMap<>(); // Read-only once constructed
+    private final Map<Route, List<CachedRoute>> writerRoutes = new HashMap<>(); // Read-only once constructed
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final Object evictionLock = new Object();
+
+    /**
+     * @param maxBytes      the total size of cached responses, in bytes
+     * @param maxEntryBytes the size above which a response is served without being cached, in bytes
+     * @param policies      the cached GET routes and their policies
+     * @param jsonCodec     the codec the server encodes object bodies with
+     * @param compression   the server's compression settings, or null if it does not compress
+     * @param executor      runs the handler calls that refresh stale responses
+     */
+    public ResponseCache(long maxBytes, long maxEntryBytes, Map<Route, CachePolicy> policies, JsonCodec jsonCodec,
+                         Compression compression, Executor executor) {
+        if (maxBytes < 0 || maxEntryBytes < 0) {
+            throw new IllegalArgumentException("Cache sizes must be non-negative.");
+        }
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.jsonCodec = jsonCodec;
+        this.compression = compression;
+        this.executor = executor;
+        for (Map.Entry<Route, CachePolicy> policy : policies.entrySet()) {
+            CachedRoute cached = new CachedRoute(policy.getValue());
+            cachedRoutes.put(policy.getKey(), cached);
+            for (Route writer : policy.getValue().getInvalidatedBy()) {
+                writerRoutes.computeIfAbsent(writer, unused -> new ArrayList<>()).add(cached);
+            }
+        }
+    }
+
+    /**
+     * Answer a request to a route from the cache if it is cached there, or call its handler. Responses of
+     * cached routes are stored; a 2xx response of a writer route invalidates the routes it writes to.
+     *
+     * @param route   the route the request matched
+     * @param request the request
+     * @param handler   calls the route's handler
+     * @param refresher calls the route's handler again later, from the executor, to refresh a stale response;
+     *                  returns null if the server has no capacity to spare, and the refresh is left to a later
+     *                  request
+     * @return the response
+     */
+    public CompletableFuture<HttpResponse> handle(Route route, HttpRequest request,
+                                                  Supplier<CompletableFuture<HttpResponse>> handler,
+                                                  Supplier<CompletableFuture<HttpResponse>> refresher) {
+        CachedRoute cached = cachedRoutes.get(route);
+        if (cached == null) {
+            List<CachedRoute> written = writerRoutes.get(route);
+            if (written == null) {
+                return handler.get();
+            }
+            return handler.get().thenApply(response -> {
+                if (response.getStatusCode() >= 200 && response.getStatusCode() < 300) {
+                    for (CachedRoute target : written) {
+                        target.generation.incrementAndGet();
+                    }
+                }
+                return response;
+            });
+        }
+
+        String key = cached.key(request);
+        long generation = cached.generation.get();
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            long age = System.nanoTime() - entry.storedNanos;
+            if (entry.generation == generation && age < cached.policy.getTtlNanos()) {
+                entry.lastAccess = System.nanoTime();
+                hits.increment();
+                return CompletableFuture.completedFuture(entry.toResponse(age));
+            }
+            if (entry.generation == generation && age < cached.policy.getTtlNanos() + cached.policy.getStaleNanos()) {
+                entry.lastAccess = System.nanoTime();
+                staleHits.increment();
+                if (entry.refreshing.compareAndSet(false, true)) {
+                    refresh(cached, key, entry, request, refresher);
+                }
+                return CompletableFuture.completedFuture(entry.toResponse(age));
+            }
+            remove(key, entry);
+        }
+        misses.increment();
+        return handler.get().thenApply(response -> {
+            store(cached, key, generation, request, response);
+            return response;
+        });
+    }
+
+    // Replace a stale entry in the background; until then, or if the new response cannot be cached, it is served on
+    private void refresh(CachedRoute cached, String key, Entry stale, HttpRequest request,
+                         Supplier<CompletableFuture<HttpResponse>> refresher) {
+        long generation = cached.generation.get();
+        try {
+            executor.execute(() -> {
+                try {
+                    CompletableFuture<HttpResponse> pending = refresher.get();
+                    if (pending == null) {
+                        stale.refreshing.set(false); // No capacity to spare; a later request tries again
+                        return;
+                    }
+                    pending.whenComplete((response, error) -> {
+                        if (response != null) {
+                            store(cached, key, generation, request, response);
+                        }
+                        stale.refreshing.set(false);
+                    });
+                } catch (RuntimeException e) {
+                    stale.refreshing.set(false); // A later request tries again
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            stale.refreshing.set(false); // The server is busy; a later request tries again
+        }
+    }
+
+    private void store(CachedRoute cached, String key, long generation, HttpRequest request, HttpResponse response) {
+        if (!cached.isCacheable(response)) {
+            return;
+        }
+        cached.addVary(response);
+        response.encodeBody(jsonCodec);
+
+        // A copy, since the server compresses and adds connection headers to the response it sends
+        HttpResponse copy = new HttpResponse(response.getStatusCode());
+        copy.getHeaders().clear();
+        copy.getHeaders().putAll(response.getHeaders());
+        copy.getHeaders().remove("Connection");
+        copy.getHeaders().remove("Keep-Alive");
+        copy.withBodyBytes(response.getBodyBytes());
+        if (compression != null) {
+            compression.apply(request, copy); // The key includes the negotiated coding
+        }
+
+        long size = ENTRY_OVERHEAD + copy.getBodyBytes().length + 2L * key.length();
+        for (Map.Entry<String, String> header : copy.getHeaders().entrySet()) {
+            size += 2L * (header.getKey().length() + header.getValue().length());
+        }
+        if (size > maxEntryBytes || size > maxBytes) {
+            return;
+        }
+        if (cached.generation.get() != generation) {
+            return; // Invalidated while the handler ran; the response may predate the write
+        }
+        Entry entry = new Entry(cached, generation, copy.getStatusCode(), copy.getHeaders(), copy.getBodyBytes(), size);
+        Entry replaced = entries.put(key, entry);
+        long total = totalBytes.addAndGet(replaced != null ? size - replaced.size : size);
+        if (total > maxBytes) {
+            evict();
+        }
+    }
+
+    /**
+     * Drop the cached responses of a route, e.g. after its data changed other than through the policy's
+     * writer routes.
+     *
+     * @param route the cached route
+     */
+    public void invalidate(Route route) {
+        CachedRoute cached = cachedRoutes.get(route);
+        if (cached != null) {
+            cached.generation.incrementAndGet();
+        }
+    }
+
+    /**
+     * Remove every cached response.
+     */
+    public void clear() {
+        synchronized (evictionLock) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private boolean remove(String key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            totalBytes.addAndGet(-entry.size);
+            return true;
+        }
+        return false;
+    }
+
+    // Drop dead entries, then the least recently used ones, until the cache is within its budget
+    private void evict() {
+        synchronized (evictionLock) {
+            long now = System.nanoTime();
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (entry.getValue().isDead(now) && remove(entry.getKey(), entry.getValue())) {
+                    evictions.increment();
+                }
+            }
+            while (totalBytes.get() > maxBytes) {
+                Map.Entry<String, Entry> oldest = null;
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    if (oldest == null || entry.getValue().lastAccess < oldest.getValue().lastAccess) {
+                        oldest = entry;
+                    }
+                }
+                if (oldest == null) {
+                    return;
+                }
+                if (remove(oldest.getKey(), oldest.getValue())) {
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return hits on responses past their TTL, served while they were refreshed
+     */
+    public long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the estimated size of cached responses, in bytes
+     */
+    public long getSizeBytes() {
+        return totalBytes.get();
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    // A cached route: its policy and the generation its entries must match
+    private final class CachedRoute {
+        private final CachePolicy policy;
+        private final AtomicLong generation = new AtomicLong();
+
+        private CachedRoute(CachePolicy policy) {
+            this.policy = policy;
+        }
+
+        // Request line, then one line per key parameter and varying header; absent values are told from empty ones
+        private String key(HttpRequest request) {
+            StringBuilder key = new StringBuilder(64).append(request.getMethod()).append(' ');
+            if (policy.getKeyParams() == null) {
+                key.append(request.getRequestTarget());
+            } else {
+                key.append(request.getPath());
+                Map<String, String> query = request.getQueryParams();
+                for (String name : policy.getKeyParams()) {
+                    appendValue(key, query.get(name));
+                }
+            }
+            for (String name : policy.getVary()) {
+                appendValue(key, request.getHeader(name));
+            }
+            if (compression != null) {
+                appendValue(key, Compression.negotiate(request.getHeader("Accept-Encoding")));
+            }
+            return key.toString();
+        }
+
+        private boolean isCacheable(HttpResponse response) {
+            if (response.getStatusCode() != 200 || response.getFileBody() != null
+                    || response.getStreamingBody() != null || header(response, "Set-Cookie") != null) {
+                return false;
+            }
+            String cacheControl = header(response, "Cache-Control");
+            if (cacheControl != null) {
+                String directives = cacheControl.toLowerCase();
+                if (directives.contains("no-store") || directives.contains("no-cache")
+                        || directives.contains("private")) {
+                    return false;
+                }
+            }
+            String vary = header(response, "Vary");
+            if (vary != null) {
+                for (String name : vary.split(",")) {
+                    if (!varies(name.trim())) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        // Whether the key tells responses apart by this request header
+        private boolean varies(String name) {
+            if (compression != null && name.equalsIgnoreCase("Accept-Encoding")) {
+                return true;
+            }
+            for (String header : policy.getVary()) {
+                if (header.equalsIgnoreCase(name)) {
+                    return true;
+                }
+            }
+            return false; // Including "*"
+        }
+
+        // List the policy's headers in Vary, so downstream caches key on them too
+        private void addVary(HttpResponse response) {
+            if (policy.getVary().isEmpty()) {
+                return;
+            }
+            String vary = header(response, "Vary");
+            for (String name : policy.getVary()) {
+                if (vary == null) {
+                    vary = name;
+                } else if (!vary.toLowerCase().contains(name.toLowerCase())) {
+                    vary += ", " + name;
+                }
+            }
+            response.getHeaders().keySet().removeIf(name -> name.equalsIgnoreCase("Vary"));
+            response.withHeader("Vary", vary);
+        }
+    }
+
+    private static void appendValue(StringBuilder key, String value) {
+        key.append('\n');
+        if (value != null) {
+            key.append('=').append(value);
+        }
+    }
+
+    // Response header names are not case-normalized
+    private static String header(HttpResponse response, String name) {
+        for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static final class Entry {
+        private final CachedRoute route;
+        private final long generation;
+        private final int status;
+        private final Map<String, String> headers;
+        private final byte[] body;
+        private final long size;
+        private final long storedNanos = System.nanoTime();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private volatile long lastAccess = storedNanos;
+
+        private Entry(CachedRoute route, long generation, int status, Map<String, String> headers, byte[] body,
+                      long size) {
+            this.route = route;
+            this.generation = generation;
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+            this.size = size;
+        }
+
+        // Invalidated, or too old to be served even stale
+        private boolean isDead(long nowNanos) {
+            return generation != route.generation.get()
+                    || nowNanos - storedNanos >= route.policy.getTtlNanos() + route.policy.getStaleNanos();
+        }
+
+        // A response of its own, since the server adds per-request headers; the body bytes are shared
+        private HttpResponse toResponse(long ageNanos) {
+            HttpResponse response = new HttpResponse(status);
+            response.getHeaders().clear();
+            response.getHeaders().putAll(headers);
+            response.withBodyBytes(body);
+            response.withHeader("Age", String.valueOf(ageNanos / 1_000_000_000L));
+            return response;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package server.exceptions;
+
+/**
+ * Thrown when a request cannot be parsed or breaks a parser limit.
+ * Carries the status code the server should answer with before closing the connection
+ * (400, 408, 413, 414, 417, 431, or 501).
+ */
+public class HttpParseException extends RuntimeException {
+    private final int statusCode;
+
+    public HttpParseException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
@@ -0,0 +1,23 @@
+package server.exceptions;
+
+import server.request.TimeoutPhase;
+
+/**
+ * Thrown when a client does not send a request, or its body, within the server's timeouts.
+ * Answered with 408 Request Timeout and the connection is closed, like any other request that cannot be read.
+ */
+public class RequestTimeoutException extends HttpParseException {
+    private final TimeoutPhase phase;
+
+    public RequestTimeoutException(TimeoutPhase phase, String message) {
+        super(408, message);
+        this.phase = phase;
+    }
+
+    /**
+     * @return the part of the request that was not received in time
+     */
+    public TimeoutPhase getPhase() {
+        return phase;
+    }
+}
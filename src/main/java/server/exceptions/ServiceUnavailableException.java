@@ -0,0 +1,26 @@
+package server.exceptions;
+
+/**
+ * Thrown, or used to complete an asynchronous handler's stage, when a request cannot be served right now,
+ * e.g. because a downstream service is overloaded. Answered with 503 and, if given, a Retry-After header.
+ * Carries no stack trace, since it is raised when the server is already under pressure.
+ */
+public class ServiceUnavailableException extends RuntimeException {
+    private final long retryAfterSeconds;
+
+    public ServiceUnavailableException(String message) {
+        this(message, -1);
+    }
+
+    public ServiceUnavailableException(String message, long retryAfterSeconds) {
+        super(message, null, false, false);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return the number of seconds after which the request may succeed, or -1 to send no Retry-After header
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -1,7 +1,25 @@
 package server.exceptions;
 
+/**
+ * Thrown when a client has used up its rate limit. Answered with 429 and a Retry-After header;
+ * handlers may throw it too. Carries no stack trace, since it is raised on every rejected request.
+ */
 public class TooManyRequestsException extends RuntimeException {
+    private final long retryAfterSeconds;
+
     public TooManyRequestsException(String message) {
-        super(message);
+        this(message, 60);
+    }
+
+    public TooManyRequestsException(String message, long retryAfterSeconds) {
+        super(message, null, false, false);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return the number of seconds after which the request may succeed, for the Retry-After header
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
     }
-}
\ No newline at end of file
+}
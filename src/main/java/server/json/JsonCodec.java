@@ -0,0 +1,127 @@
+package server.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Server-wide JSON encoding and decoding.
+ * Wraps one {@link ObjectMapper} and keeps an {@link ObjectReader} and {@link ObjectWriter} per type, so Jackson's
+ * serializer caches are built once and reused by every request. Reads straight from body bytes and writes
+ * straight to UTF-8 bytes, without going through an intermediate String. Collections too large to hold as JSON
+ * in memory can be written element by element to a stream, as one array or as newline-delimited JSON.
+ * Thread-safe.
+ */
+public class JsonCodec {
+
+    private static final JsonCodec DEFAULT = new JsonCodec(new ObjectMapper());
+
+    private final ObjectMapper mapper;
+    private final ConcurrentHashMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    /**
+     * @param mapper the configured mapper to build readers and writers from; must not be reconfigured afterwards
+     */
+    public JsonCodec(ObjectMapper mapper) {
+        if (mapper == null) {
+            throw new IllegalArgumentException("ObjectMapper must not be null.");
+        }
+        this.mapper = mapper;
+    }
+
+    /**
+     * @return the codec used when a server has not been given one, backed by a default ObjectMapper
+     */
+    public static JsonCodec getDefault() {
+        return DEFAULT;
+    }
+
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    /**
+     * Decode JSON bytes into an object.
+     * @param bytes UTF-8 (or other Jackson-detected encoding) JSON
+     * @param type the class to decode into
+     * @return the decoded object
+     * @param <T> the type of the class
+     * @throws IOException if the bytes are not valid JSON for the type
+     */
+    public <T> T read(byte[] bytes, Class<T> type) throws IOException {
+        return readers.computeIfAbsent(type, mapper::readerFor).readValue(bytes);
+    }
+
+    /**
+     * Encode an object as UTF-8 JSON bytes.
+     * @param value the object to encode
+     * @return the JSON bytes
+     * @throws IOException if the object cannot be serialized
+     */
+    public byte[] write(Object value) throws IOException {
+        if (value == null) {
+            return mapper.writeValueAsBytes(null);
+        }
+        return writer(value.getClass()).writeValueAsBytes(value);
+    }
+
+    /**
+     * Encode elements as a JSON array, one at a time, so only the one being encoded is held as JSON.
+     * The stream is flushed once, at the end; a buffering stream decides how the bytes are split up before that.
+     * @param items the elements, iterated once
+     * @param out the stream to write to; left open
+     * @throws IOException if an element cannot be serialized or writing fails
+     */
+    public void writeArray(Iterable<?> items, OutputStream out) throws IOException {
+        try (JsonGenerator generator = newGenerator(out)) {
+            generator.writeStartArray();
+            for (Object item : items) {
+                writeValue(generator, item);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * Encode elements as newline-delimited JSON (one document per line), one at a time, flushing once at the end.
+     * @param items the elements, iterated once
+     * @param out the stream to write to; left open
+     * @throws IOException if an element cannot be serialized or writing fails
+     */
+    public void writeLines(Iterable<?> items, OutputStream out) throws IOException {
+        try (JsonGenerator generator = newGenerator(out)) {
+            generator.setRootValueSeparator(null); // Lines are separated by the newline alone
+            for (Object item : items) {
+                writeValue(generator, item);
+                generator.writeRaw('\n');
+            }
+        }
+    }
+
+    private JsonGenerator newGenerator(OutputStream out) throws IOException {
+        JsonGenerator generator = mapper.getFactory().createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET); // Closing flushes it into out, which stays open
+        return generator;
+    }
+
+    private void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else {
+            writer(value.getClass()).writeValue(generator, value);
+        }
+    }
+
+    // Writers leave flushing to the caller, so a stream of elements is flushed once rather than per element
+    private ObjectWriter writer(Class<?> type) {
+        return writers.computeIfAbsent(type,
+                t -> mapper.writerFor(t).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE));
+    }
+}
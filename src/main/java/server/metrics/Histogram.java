@@ -0,0 +1,108 @@
+package server.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values (typically nanoseconds) in logarithmic buckets, in the style of HdrHistogram:
+ * each power of two is split into {@value #SUB_BUCKETS} linear sub-buckets, so a recorded value is known to within
+ * 12.5% at any magnitude, from single units up to {@link #MAX_VALUE}, with a fixed 2.5 KB of counters.
+ * <p>
+ * Recording is lock-free and allocation-free: one atomic increment of the bucket plus striped adders for the count
+ * and sum, so many threads can record into the same histogram. Reads are not atomic snapshots; a percentile taken
+ * while values are being recorded may miss the most recent ones.
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /** Larger values are recorded as this value, about 18 minutes in nanoseconds. */
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param value the value to record; negative values are recorded as 0
+     */
+    public void record(long value) {
+        value = Math.max(0, Math.min(value, MAX_VALUE));
+        buckets.incrementAndGet(bucketIndex(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = getCount();
+        return n == 0 ? 0 : (double) getSum() / n;
+    }
+
+    /**
+     * @param quantile the quantile, from 0 to 1 (e.g. 0.99)
+     * @return the upper bound of the bucket holding the value at that quantile (at most the largest value recorded),
+     *         or 0 if nothing has been recorded
+     */
+    public long getValueAtQuantile(double quantile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i) - 1, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @param bound an exclusive upper bound; exact when it is a power of two or below {@value #SUB_BUCKETS} * 2
+     * @return the number of recorded values below the bound
+     */
+    public long countBelow(long bound) {
+        long below = 0;
+        for (int i = 0; i < BUCKET_COUNT && bucketUpperBound(i) <= bound; i++) {
+            below += buckets.get(i);
+        }
+        return below;
+    }
+
+    /*
+     * Values below 2 * SUB_BUCKETS get a bucket each. Above that, a value with its highest bit at position
+     * SUB_BITS + e is shifted right by e, leaving a sub-bucket number from SUB_BUCKETS to 2 * SUB_BUCKETS - 1,
+     * and lands in bucket e * SUB_BUCKETS + sub-bucket.
+     */
+    static int bucketIndex(long value) {
+        int exponent = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        return exponent * SUB_BUCKETS + (int) (value >>> exponent);
+    }
+
+    // The first value past bucket i
+    static long bucketUpperBound(int i) {
+        int exponent = Math.max(0, i / SUB_BUCKETS - 1);
+        long subBucket = i - (long) exponent * SUB_BUCKETS;
+        return (subBucket + 1) << exponent;
+    }
+}
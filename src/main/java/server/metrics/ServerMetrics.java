@@ -0,0 +1,238 @@
+package server.metrics;
+
+import server.request.HttpRequest;
+import server.request.TimeoutPhase;
+import server.response.HttpResponse;
+import server.route.Route;
+import server.route.RouteMatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Request instrumentation for one server, exposed in the Prometheus text exposition format.
+ * <p>
+ * Requests are counted per route (labelled with the registered pattern, never the raw path, so the number of
+ * series stays bounded) and status class. Each route keeps a gauge of requests whose handler is running
+ * and latency histograms for three phases: parse (from the first byte of the request until it is dispatched), handler (routing and the handler),
+ * and write (from the handler's return until the last byte is handed to the socket).
+ * Everything is recorded with striped adders and lock-free histograms, cheap enough to leave enabled.
+ */
+public class ServerMetrics {
+
+    /** Exported histogram bucket bounds, in nanoseconds: powers of four from 1 µs to 69 s, exact bucket edges. */
+    private static final long[] EXPORTED_BOUNDS = new long[14];
+
+    static {
+        for (int i = 0; i < EXPORTED_BOUNDS.length; i++) {
+            EXPORTED_BOUNDS[i] = 1L << (10 + 2 * i);
+        }
+    }
+
+    private static final String OTHER = "other"; // Requests that matched no route: static files, 404, 405, parse errors
+
+    private final ConcurrentHashMap<Route, RouteMetrics> routes = new ConcurrentHashMap<>();
+    private final RouteMetrics other = new RouteMetrics(OTHER);
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder[] timeouts = new LongAdder[TimeoutPhase.values().length];
+    private final List<SuppliedMetric> supplied = new ArrayList<>(); // Gauges and counters kept elsewhere
+
+    public ServerMetrics() {
+        for (int i = 0; i < timeouts.length; i++) {
+            timeouts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Register a gauge that is read when the metrics are rendered.
+     * @param name   the metric name
+     * @param help   its description
+     * @param supplier reads the current value
+     */
+    public synchronized void gauge(String name, String help, LongSupplier supplier) {
+        supplied.add(new SuppliedMetric(name, help, "gauge", supplier));
+    }
+
+    /**
+     * Register a counter, a value that only ever increases, that is read when the metrics are rendered.
+     * @param name   the metric name, ending in "_total"
+     * @param help   its description
+     * @param supplier reads the current count
+     */
+    public synchronized void counter(String name, String help, LongSupplier supplier) {
+        supplied.add(new SuppliedMetric(name, help, "counter", supplier));
+    }
+
+    /**
+     * Run by the server before a routed request's handler.
+     * @param request the routed request
+     * @return the time the handler phase started, for {@link #handlerFinished}
+     */
+    public long handlerStarted(HttpRequest request) {
+        forRequest(request).inFlight.increment();
+        return System.nanoTime();
+    }
+
+    /**
+     * Run by the server once the handler has returned or thrown, or an asynchronous handler's stage has completed.
+     * @param request    the request
+     * @param startNanos the value returned by {@link #handlerStarted}
+     */
+    public void handlerFinished(HttpRequest request, long startNanos) {
+        RouteMetrics route = forRequest(request);
+        route.handler.record(System.nanoTime() - startNanos);
+        route.inFlight.decrement();
+    }
+
+    /**
+     * Record a completed exchange once its response has been written.
+     * @param request    the request, or null if it could not be parsed
+     * @param response   the response sent
+     * @param parseNanos the parse phase duration, or -1 if unknown
+     * @param writeNanos the write phase duration
+     * @param in         request bytes read from the connection
+     * @param out        response bytes written to the connection
+     */
+    public void recordExchange(HttpRequest request, HttpResponse response, long parseNanos, long writeNanos,
+                               long in, long out) {
+        RouteMetrics route = forRequest(request);
+        int statusClass = response.getStatusCode() / 100;
+        route.statuses[statusClass >= 1 && statusClass <= 5 ? statusClass - 1 : 4].increment();
+        if (parseNanos >= 0) {
+            route.parse.record(parseNanos);
+        }
+        route.write.record(writeNanos);
+        bytesIn.add(in);
+        bytesOut.add(out);
+    }
+
+    /**
+     * Count a connection that timed out.
+     * @param phase the part of the exchange that took too long
+     */
+    public void timeout(TimeoutPhase phase) {
+        timeouts[phase.ordinal()].increment();
+    }
+
+    private RouteMetrics forRequest(HttpRequest request) {
+        RouteMatch match = request != null ? request.getRouteMatch() : null;
+        if (match == null || match.getRoute() == null) {
+            return other;
+        }
+        RouteMetrics metrics = routes.get(match.getRoute());
+        if (metrics == null) {
+            Route route = match.getRoute();
+            metrics = routes.computeIfAbsent(route, r -> new RouteMetrics(r.getMethod() + " " + r.getPath()));
+        }
+        return metrics;
+    }
+
+    /**
+     * @return all metrics in the Prometheus text format, version 0.0.4
+     */
+    public String render() {
+        List<RouteMetrics> all = new ArrayList<>(routes.values());
+        all.sort((a, b) -> a.label.compareTo(b.label));
+        all.add(other);
+        StringBuilder sb = new StringBuilder(4096);
+
+        sb.append("# HELP http_requests_total Requests answered, by route and status class.\n");
+        sb.append("# TYPE http_requests_total counter\n");
+        for (RouteMetrics route : all) {
+            for (int i = 0; i < 5; i++) {
+                long n = route.statuses[i].sum();
+                if (n > 0) {
+                    sb.append("http_requests_total{route=\"").append(route.escapedLabel)
+                            .append("\",status=\"").append(i + 1).append("xx\"} ").append(n).append('\n');
+                }
+            }
+        }
+
+        sb.append("# HELP http_requests_in_flight Requests whose handler is running, by route.\n");
+        sb.append("# TYPE http_requests_in_flight gauge\n");
+        for (RouteMetrics route : all) {
+            sb.append("http_requests_in_flight{route=\"").append(route.escapedLabel).append("\"} ")
+                    .append(route.inFlight.sum()).append('\n');
+        }
+
+        sb.append("# HELP http_request_duration_seconds Request latency by route and phase (parse, handler, write).\n");
+        sb.append("# TYPE http_request_duration_seconds histogram\n");
+        for (RouteMetrics route : all) {
+            renderHistogram(sb, route.escapedLabel, "parse", route.parse);
+            renderHistogram(sb, route.escapedLabel, "handler", route.handler);
+            renderHistogram(sb, route.escapedLabel, "write", route.write);
+        }
+
+        sb.append("# HELP http_request_bytes_total Request bytes read from connections.\n");
+        sb.append("# TYPE http_request_bytes_total counter\n");
+        sb.append("http_request_bytes_total ").append(bytesIn.sum()).append('\n');
+        sb.append("# HELP http_response_bytes_total Response bytes written to connections.\n");
+        sb.append("# TYPE http_response_bytes_total counter\n");
+        sb.append("http_response_bytes_total ").append(bytesOut.sum()).append('\n');
+
+        sb.append("# HELP http_timeouts_total Connections timed out, by phase; all but write timeouts answered 408.\n");
+        sb.append("# TYPE http_timeouts_total counter\n");
+        for (TimeoutPhase phase : TimeoutPhase.values()) {
+            sb.append("http_timeouts_total{phase=\"").append(phase.label()).append("\"} ")
+                    .append(timeouts[phase.ordinal()].sum()).append('\n');
+        }
+
+        synchronized (this) {
+            for (SuppliedMetric metric : supplied) {
+                sb.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+                sb.append("# TYPE ").append(metric.name).append(' ').append(metric.type).append('\n');
+                sb.append(metric.name).append(' ').append(metric.supplier.getAsLong()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void renderHistogram(StringBuilder sb, String route, String phase, Histogram histogram) {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        String labels = "route=\"" + route + "\",phase=\"" + phase + "\"";
+        for (long bound : EXPORTED_BOUNDS) {
+            sb.append("http_request_duration_seconds_bucket{").append(labels).append(",le=\"")
+                    .append(bound / 1e9).append("\"} ").append(histogram.countBelow(bound)).append('\n');
+        }
+        // Counted from the buckets after the bounds above, so the series stays cumulative while values arrive
+        long count = histogram.countBelow(Long.MAX_VALUE);
+        sb.append("http_request_duration_seconds_bucket{").append(labels).append(",le=\"+Inf\"} ")
+                .append(count).append('\n');
+        sb.append("http_request_duration_seconds_sum{").append(labels).append("} ")
+                .append(histogram.getSum() / 1e9).append('\n');
+        sb.append("http_request_duration_seconds_count{").append(labels).append("} ")
+                .append(count).append('\n');
+    }
+
+    // Label values escape backslash, double quote, and line feed
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static final class RouteMetrics {
+        final String label;
+        final String escapedLabel;
+        final LongAdder[] statuses = new LongAdder[5]; // 1xx to 5xx
+        final LongAdder inFlight = new LongAdder();
+        final Histogram parse = new Histogram();
+        final Histogram handler = new Histogram();
+        final Histogram write = new Histogram();
+
+        RouteMetrics(String label) {
+            this.label = label;
+            this.escapedLabel = escape(label);
+            for (int i = 0; i < statuses.length; i++) {
+                statuses[i] = new LongAdder();
+            }
+        }
+    }
+
+    private record SuppliedMetric(String name, String help, String type, LongSupplier supplier) {
+    }
+}
@@ -0,0 +1,96 @@
+package server.ratelimit;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base for rate limiters whose whole per-key state fits in one long, updated with compare-and-set.
+ * Keys live in a ConcurrentHashMap, so requests for different keys never contend and requests
+ * for the same key retry a CAS instead of taking a lock.
+ * <p>
+ * Memory is bounded in two ways: {@link #evictIdle} drops keys back in their initial state, and once
+ * {@code maxKeys} keys are held, requests for further keys all share one overflow state until eviction
+ * makes room. A flood of distinct keys is then limited as if it came from a single client.
+ */
+abstract class KeyedRateLimiter implements RateLimiter {
+
+    /** Set on a state just before it is removed from the map; a request that sees it looks the key up again. */
+    static final long EVICTED = Long.MIN_VALUE;
+
+    private final ConcurrentHashMap<String, AtomicLong> states = new ConcurrentHashMap<>();
+    private final AtomicLong overflow;
+    private final long maxKeys;
+
+    KeyedRateLimiter(long maxKeys) {
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("Max keys must be positive.");
+        }
+        this.maxKeys = maxKeys;
+        this.overflow = new AtomicLong(initialState());
+    }
+
+    @Override
+    public long tryAcquire(String key, long nowNanos) {
+        while (true) {
+            AtomicLong state = states.get(key);
+            if (state == null) {
+                state = states.size() < maxKeys
+                        ? states.computeIfAbsent(key, k -> new AtomicLong(initialState()))
+                        : overflow;
+            }
+            long wait = tryAcquire(state, nowNanos);
+            if (wait != EVICTED) {
+                return wait;
+            }
+        }
+    }
+
+    @Override
+    public void refund(String key, long nowNanos) {
+        // A key without state was counted against the overflow state, or has been evicted since as idle
+        AtomicLong state = states.get(key);
+        refund(state != null ? state : overflow, nowNanos);
+    }
+
+    @Override
+    public int evictIdle(long nowNanos) {
+        int evicted = 0;
+        for (Map.Entry<String, AtomicLong> entry : states.entrySet()) {
+            AtomicLong state = entry.getValue();
+            long value = state.get();
+            if (value != EVICTED && isIdle(value, nowNanos) && state.compareAndSet(value, EVICTED)) {
+                states.remove(entry.getKey(), state);
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    @Override
+    public long size() {
+        return states.mappingCount();
+    }
+
+    /**
+     * @return the state of a key that has never been seen
+     */
+    abstract long initialState();
+
+    /**
+     * Count a request against a state with a CAS loop.
+     * @return 0 if permitted, the nanoseconds to wait if not, or {@link #EVICTED} if the state has been evicted
+     */
+    abstract long tryAcquire(AtomicLong state, long nowNanos);
+
+    /**
+     * Take back one request counted by {@link #tryAcquire(AtomicLong, long)} with a CAS loop.
+     * Does nothing to an evicted state, which was idle and has nothing left to give back.
+     */
+    abstract void refund(AtomicLong state, long nowNanos);
+
+    /**
+     * @return true if a key with this state would be treated exactly like a new key
+     */
+    abstract boolean isIdle(long state, long nowNanos);
+}
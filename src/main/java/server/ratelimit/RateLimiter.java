@@ -0,0 +1,46 @@
+package server.ratelimit;
+
+/**
+ * Decides whether a request counted against a key (e.g. a client IP) may proceed.
+ * Implementations are thread-safe and keep their state per key, dropping keys that have been idle long
+ * enough to be back in their initial state when {@link #evictIdle} is called.
+ */
+public interface RateLimiter {
+
+    /**
+     * Count a request against a key if the key's limit allows it.
+     * @param key      the key to count against
+     * @param nowNanos the current {@link System#nanoTime()}
+     * @return 0 if the request is permitted and has been counted, otherwise the number of nanoseconds
+     *         until a request for this key would be permitted (nothing is counted)
+     */
+    long tryAcquire(String key, long nowNanos);
+
+    default long tryAcquire(String key) {
+        return tryAcquire(key, System.nanoTime());
+    }
+
+    /**
+     * Give back a request counted by {@link #tryAcquire}, e.g. when another limiter rejected the same request.
+     * The key is left as if the request had never been counted, as far as time since allows.
+     * @param key      the key the request was counted against
+     * @param nowNanos the current {@link System#nanoTime()}
+     */
+    void refund(String key, long nowNanos);
+
+    default void refund(String key) {
+        refund(key, System.nanoTime());
+    }
+
+    /**
+     * Drop the state of keys that would behave exactly as unseen keys.
+     * @param nowNanos the current {@link System#nanoTime()}
+     * @return the number of keys dropped
+     */
+    int evictIdle(long nowNanos);
+
+    /**
+     * @return the number of keys with state
+     */
+    long size();
+}
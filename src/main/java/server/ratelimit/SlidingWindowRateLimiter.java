@@ -0,0 +1,134 @@
+package server.ratelimit;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A sliding window counter per key: at most {@code limit} requests in any window of the given length,
+ * approximately. Requests are counted in fixed windows; the count of the previous window is weighted
+ * by how much of it still overlaps the sliding window ending now, which avoids the double burst a fixed
+ * window allows at its boundary without storing a timestamp per request.
+ * <p>
+ * The state of a key is packed into one long: the low 16 bits of the window number, then the previous
+ * and current window counts in 24 bits each. Counts therefore cap the limit at 16,777,215 requests.
+ */
+public class SlidingWindowRateLimiter extends KeyedRateLimiter {
+
+    public static final int MAX_LIMIT = (1 << 24) - 1;
+
+    private static final long COUNT_MASK = MAX_LIMIT;
+    private static final long COUNTS_MASK = (COUNT_MASK << 24) | COUNT_MASK;
+    private static final int WINDOW_MASK = 0xFFFF;
+
+    private final long limit;
+    private final long window; // Window length in nanoseconds
+
+    /**
+     * @param limit  the number of requests allowed per window
+     * @param window the window length
+     */
+    public SlidingWindowRateLimiter(long limit, Duration window) {
+        this(limit, window, 1_000_000);
+    }
+
+    /**
+     * @param limit   the number of requests allowed per window
+     * @param window  the window length
+     * @param maxKeys the number of keys to hold state for before further keys share one counter
+     */
+    public SlidingWindowRateLimiter(long limit, Duration window, long maxKeys) {
+        super(maxKeys);
+        if (limit <= 0 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_LIMIT + ".");
+        }
+        if (window.toNanos() <= 0) {
+            throw new IllegalArgumentException("Window must be positive.");
+        }
+        this.limit = limit;
+        this.window = window.toNanos();
+    }
+
+    @Override
+    long initialState() {
+        return 0; // No requests in any window
+    }
+
+    @Override
+    long tryAcquire(AtomicLong state, long nowNanos) {
+        long windowNumber = Math.floorDiv(nowNanos, window);
+        long elapsed = nowNanos - windowNumber * window; // Into the current window, in [0, window)
+        while (true) {
+            long value = state.get();
+            if (value == EVICTED) {
+                return EVICTED;
+            }
+            long previous;
+            long current;
+            // A state without requests carries no window worth keeping
+            int age = (value & COUNTS_MASK) == 0 ? 2 : age(value, windowNumber);
+            if (age == 0) {
+                previous = (value >>> 24) & COUNT_MASK;
+                current = value & COUNT_MASK;
+            } else if (age == 1) {
+                previous = value & COUNT_MASK;
+                current = 0;
+            } else {
+                previous = 0;
+                current = 0;
+            }
+            double overlap = (double) (window - elapsed) / window;
+            if (previous * overlap + current + 1 <= limit) {
+                long windowBits = age == 0 ? value >>> 48 : windowNumber & WINDOW_MASK;
+                long next = (windowBits << 48) | (previous << 24) | (current + 1);
+                if (state.compareAndSet(value, next)) {
+                    return 0;
+                }
+                continue;
+            }
+            return retryAfter(previous, current, elapsed);
+        }
+    }
+
+    /**
+     * Solve for the earliest time the weighted count leaves room for one more request,
+     * assuming no other requests are counted until then.
+     */
+    private long retryAfter(long previous, long current, long elapsed) {
+        if (current + 1 <= limit) {
+            // Later in this window, once enough of the previous window has slid out
+            long needed = (long) Math.ceil(window * (1 - (double) (limit - current - 1) / previous));
+            return Math.max(1, needed - elapsed);
+        }
+        // In the next window, where the current count becomes the previous one
+        long needed = (long) Math.ceil(window * (1 - (double) (limit - 1) / current));
+        return window - elapsed + Math.max(0, needed);
+    }
+
+    @Override
+    void refund(AtomicLong state, long nowNanos) {
+        while (true) {
+            long value = state.get();
+            // The request was counted in the window the state was last counted in, which is its current count
+            if (value == EVICTED || (value & COUNT_MASK) == 0) {
+                return;
+            }
+            if (state.compareAndSet(value, value - 1)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    boolean isIdle(long state, long nowNanos) {
+        return (state & COUNTS_MASK) == 0 || age(state, Math.floorDiv(nowNanos, window)) > 1;
+    }
+
+    /**
+     * @return how many windows before windowNumber the state was last counted in, 0 for the current window;
+     *         a state from a slightly later window (another thread's clock read) counts as current
+     */
+    private static int age(long state, long windowNumber) {
+        int age = (int) ((windowNumber - (state >>> 48)) & WINDOW_MASK);
+        return age > WINDOW_MASK / 2 ? 0 : age;
+    }
+}
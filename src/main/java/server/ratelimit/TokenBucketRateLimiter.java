@@ -0,0 +1,89 @@
+package server.ratelimit;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket per key: each key may send a burst of up to {@code capacity} requests, and the bucket
+ * refills at a steady rate of {@code permits} requests per {@code period}.
+ * <p>
+ * Implemented as the generic cell rate algorithm: instead of a token count and a refill timestamp,
+ * each key stores only its theoretical arrival time (TAT), the time at which its bucket would be full again.
+ * A request is permitted if the TAT is at most {@code capacity - 1} emission intervals ahead of now,
+ * and pushes the TAT one interval further. A key whose TAT has passed is full and can be evicted.
+ */
+public class TokenBucketRateLimiter extends KeyedRateLimiter {
+
+    private static final long FULL = Long.MIN_VALUE + 1; // A TAT in the past of any nanoTime
+
+    private final long interval;  // Nanoseconds per permit
+    private final long tolerance; // How far ahead of now the TAT may be: capacity - 1 intervals
+
+    /**
+     * @param capacity the largest burst, in requests
+     * @param permits  the number of requests the bucket refills per period
+     * @param period   the refill period
+     */
+    public TokenBucketRateLimiter(long capacity, long permits, Duration period) {
+        this(capacity, permits, period, 1_000_000);
+    }
+
+    /**
+     * @param capacity the largest burst, in requests
+     * @param permits  the number of requests the bucket refills per period
+     * @param period   the refill period
+     * @param maxKeys  the number of keys to hold state for before further keys share one bucket
+     */
+    public TokenBucketRateLimiter(long capacity, long permits, Duration period, long maxKeys) {
+        super(maxKeys);
+        if (capacity <= 0 || permits <= 0) {
+            throw new IllegalArgumentException("Capacity and permits must be positive.");
+        }
+        this.interval = Math.max(1, period.toNanos() / permits);
+        if (capacity - 1 > Long.MAX_VALUE / 4 / interval) {
+            throw new IllegalArgumentException("Capacity too large for the refill rate.");
+        }
+        this.tolerance = interval * (capacity - 1);
+    }
+
+    @Override
+    long initialState() {
+        return FULL;
+    }
+
+    @Override
+    long tryAcquire(AtomicLong state, long nowNanos) {
+        while (true) {
+            long tat = state.get();
+            if (tat == EVICTED) {
+                return EVICTED;
+            }
+            long start = Math.max(tat, nowNanos);
+            long wait = start - tolerance - nowNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (state.compareAndSet(tat, start + interval)) {
+                return 0;
+            }
+        }
+    }
+
+    @Override
+    void refund(AtomicLong state, long nowNanos) {
+        while (true) {
+            long tat = state.get();
+            if (tat == EVICTED || tat <= nowNanos) {
+                return; // Already full
+            }
+            if (state.compareAndSet(tat, tat - interval)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    boolean isIdle(long state, long nowNanos) {
+        return state <= nowNanos;
+    }
+}
@@ -0,0 +1,33 @@
+package server.request;
+
+import server.response.HttpResponse;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A handler that answers later: it returns a stage that completes with the response, on any thread, so a
+ * handler waiting on a downstream call does not hold a worker thread while it waits.
+ * <p>
+ * It is an {@link HttpRequestHandler}, so it is registered like any other, through the server's route methods
+ * or a {@link server.route.Routes} map; wrap a lambda with {@link HttpRequestHandler#async} to pick this type.
+ * The server writes the response when the stage completes. A stage that completes exceptionally is answered
+ * like a handler that threw; one that does not complete within the route's timeout is answered with
+ * 504 Gateway Timeout and, if it is a {@link java.util.concurrent.CompletableFuture}, cancelled.
+ */
+@FunctionalInterface
+public interface AsyncHttpRequestHandler extends HttpRequestHandler {
+
+    /**
+     * @param request the request
+     * @return a stage completing with the response
+     */
+    CompletionStage<HttpResponse> handleAsync(HttpRequest request);
+
+    /**
+     * Wait for the response. The server never calls this; it is here for callers that need a plain handler.
+     */
+    @Override
+    default HttpResponse handle(HttpRequest request) {
+        return handleAsync(request).toCompletableFuture().join();
+    }
+}
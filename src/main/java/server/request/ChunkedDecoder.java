@@ -0,0 +1,181 @@
+package server.request;
+
+import server.exceptions.HttpParseException;
+
+/**
+ * Incremental decoder for request bodies sent with Transfer-Encoding: chunked (RFC 9112 section 7.1).
+ * It only parses the framing and leaves the data where it is: call {@link #skipFraming} to step over
+ * chunk-size lines, chunk terminators, and the trailer section, then take up to {@link #dataRemaining()}
+ * bytes of data from the buffer yourself and report them with {@link #consumedData}.
+ * Every line must end with CRLF: a bare LF is rejected rather than accepted leniently, since a proxy in front
+ * that frames the body differently could otherwise be made to see a different request (request smuggling).
+ * Chunk extensions and trailer fields are ignored. Not thread-safe.
+ */
+public class ChunkedDecoder {
+
+    private static final int MAX_LINE_LENGTH = 4096;
+    private static final int MAX_TRAILER_BYTES = 16 * 1024;
+
+    private static final int SIZE = 0;       // Reading the hex digits of a chunk-size line
+    private static final int EXTENSION = 1;  // Skipping chunk extensions up to the end of the line
+    private static final int SIZE_LF = 2;    // Saw CR at the end of a chunk-size line
+    private static final int DATA = 3;       // Inside chunk data
+    private static final int DATA_CR = 4;    // Expecting the CRLF after chunk data
+    private static final int DATA_LF = 5;
+    private static final int TRAILER = 6;    // At the start of a trailer line
+    private static final int TRAILER_LINE = 7;
+    private static final int TRAILER_LINE_LF = 8; // Saw CR at the end of a trailer line
+    private static final int TRAILER_LF = 9; // Saw CR at the start of a trailer line: the blank line ending the body
+    private static final int DONE = 10;
+
+    private int state = SIZE;
+    private long chunkSize;
+    private int sizeDigits;
+    private long dataRemaining;
+    private int lineLength;
+    private int trailerBytes;
+
+    /**
+     * Consume framing bytes until chunk data, the end of the body, or the end of the input.
+     * @param buf the buffer
+     * @param pos the index of the first unconsumed byte
+     * @param end the index after the last available byte
+     * @return the index of the first byte not consumed
+     * @throws HttpParseException if the framing is malformed (400) or the trailer section is too large (431)
+     */
+    public int skipFraming(byte[] buf, int pos, int end) {
+        while (pos < end && state != DONE && !(state == DATA && dataRemaining > 0)) {
+            byte b = buf[pos++];
+            switch (state) {
+                case SIZE -> {
+                    checkLineLength();
+                    int digit = Character.digit(b, 16);
+                    if (digit >= 0) {
+                        if (++sizeDigits > 15) {
+                            throw new HttpParseException(400, "Chunk size too large");
+                        }
+                        chunkSize = chunkSize * 16 + digit;
+                    } else if (sizeDigits == 0) {
+                        throw new HttpParseException(400, "Invalid chunk size");
+                    } else if (b == ';' || b == ' ' || b == '\t') {
+                        state = EXTENSION;
+                    } else if (b == '\r') {
+                        state = SIZE_LF;
+                    } else {
+                        throw new HttpParseException(400, "Invalid chunk size");
+                    }
+                }
+                case EXTENSION -> {
+                    checkLineLength();
+                    if (b == '\r') {
+                        state = SIZE_LF;
+                    } else if (b == '\n') {
+                        throw new HttpParseException(400, "Invalid chunk size line");
+                    }
+                }
+                case SIZE_LF -> {
+                    if (b != '\n') {
+                        throw new HttpParseException(400, "Invalid chunk size line");
+                    }
+                    endSizeLine();
+                }
+                case DATA -> {
+                    // dataRemaining is 0: the chunk's data has been taken; b starts its terminator
+                    pos--;
+                    state = DATA_CR;
+                }
+                case DATA_CR -> {
+                    if (b != '\r') {
+                        throw new HttpParseException(400, "Missing CRLF after chunk data");
+                    }
+                    state = DATA_LF;
+                }
+                case DATA_LF -> {
+                    if (b != '\n') {
+                        throw new HttpParseException(400, "Missing CRLF after chunk data");
+                    }
+                    state = SIZE;
+                }
+                case TRAILER -> {
+                    if (b == '\r') {
+                        state = TRAILER_LF;
+                    } else if (b == '\n') {
+                        throw new HttpParseException(400, "Invalid trailer section");
+                    } else {
+                        state = TRAILER_LINE;
+                        countTrailer();
+                    }
+                }
+                case TRAILER_LINE -> {
+                    if (b == '\r') {
+                        state = TRAILER_LINE_LF;
+                    } else if (b == '\n') {
+                        throw new HttpParseException(400, "Invalid trailer section");
+                    }
+                    countTrailer();
+                }
+                case TRAILER_LINE_LF -> {
+                    if (b != '\n') {
+                        throw new HttpParseException(400, "Invalid trailer section");
+                    }
+                    state = TRAILER;
+                    countTrailer();
+                }
+                case TRAILER_LF -> {
+                    if (b != '\n') {
+                        throw new HttpParseException(400, "Invalid trailer section");
+                    }
+                    state = DONE;
+                }
+                default -> throw new IllegalStateException();
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * @return the number of data bytes left in the current chunk; the next bytes after
+     *         {@link #skipFraming} returned are data if this is positive
+     */
+    public long dataRemaining() {
+        return state == DATA ? dataRemaining : 0;
+    }
+
+    /**
+     * @param count the number of data bytes the caller has taken from the buffer
+     */
+    public void consumedData(long count) {
+        dataRemaining -= count;
+    }
+
+    /**
+     * @return true once the last chunk and trailer section have been consumed
+     */
+    public boolean isDone() {
+        return state == DONE;
+    }
+
+    private void endSizeLine() {
+        lineLength = 0;
+        if (chunkSize == 0) {
+            state = TRAILER;
+            return;
+        }
+        dataRemaining = chunkSize;
+        chunkSize = 0;
+        sizeDigits = 0;
+        state = DATA;
+    }
+
+    private void checkLineLength() {
+        if (++lineLength > MAX_LINE_LENGTH) {
+            throw new HttpParseException(400, "Chunk size line too long");
+        }
+    }
+
+    private void countTrailer() {
+        if (++trailerBytes > MAX_TRAILER_BYTES) {
+            throw new HttpParseException(431, "Trailer section too large");
+        }
+    }
+}
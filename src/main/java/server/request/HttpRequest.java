@@ -1,18 +1,45 @@
 package server.request;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import server.json.JsonCodec;
+import server.route.RouteMatch;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 public class HttpRequest {
-    private final String httpVersion;
-    private final String method;
-    private final String path;
-    private final Map<String, String> queryParams;
-    private final Map<String, String> headers;
-    private final String body;
+    private static final String[] COMMON_METHODS = {"GET", "POST", "PUT", "DELETE", "PATCH", "HEAD", "OPTIONS"};
+
+    // Raw request head as received, with offsets recorded by HttpRequestParser; null for requests built from Strings
+    private final byte[] head;
+    private final int[] requestLine;
+    private final int[] headerFields;
+    private final int headerCount;
+    private final RequestBody requestBody; // null if the request has no body
+    private final JsonCodec jsonCodec;
+
+    // Materialized on first use. A request may be read from more than one thread (e.g. the access log's writer),
+    // so the maps are built whole and then published through a volatile field; Strings are immutable and safe
+    // to share through a race, at worst built twice.
+    private String httpVersion;
+    private String method;
+    private String path;
+    private volatile Map<String, String> queryParams;
+    private volatile Map<String, String> headers;
+    private String body;
+    private RouteMatch routeMatch; // Set by the server once the request has been routed
 
     public HttpRequest(String httpVersion, String method, String path, Map<String, String> headers, String body, Map<String, String> queryParams) {
+        this.head = null;
+        this.requestLine = null;
+        this.headerFields = null;
+        this.headerCount = 0;
+        this.requestBody = body != null ? new RequestBody(body.getBytes(StandardCharsets.UTF_8)) : null;
+        this.jsonCodec = JsonCodec.getDefault();
         this.httpVersion = httpVersion;
         this.method = method;
         this.path = path;
@@ -21,55 +48,289 @@ public class HttpRequest {
         this.queryParams = queryParams;
     }
 
+    HttpRequest(byte[] head, int[] requestLine, int[] headerFields, int headerCount, RequestBody requestBody, JsonCodec jsonCodec) {
+        this.head = head;
+        this.requestLine = requestLine;
+        this.headerFields = headerFields;
+        this.headerCount = headerCount;
+        this.requestBody = requestBody;
+        this.jsonCodec = jsonCodec;
+    }
+
     public String getMethod() {
+        if (method == null) {
+            method = commonMethod(requestLine[0], requestLine[1]);
+            if (method == null) {
+                method = slice(requestLine[0], requestLine[1]);
+            }
+        }
         return method;
     }
 
     public String getPath() {
+        if (path == null) {
+            int end = HttpRequestParser.indexOf(head, requestLine[2], requestLine[3], (byte) '?');
+            path = slice(requestLine[2], end < 0 ? requestLine[3] : end);
+        }
         return path;
     }
 
+    /**
+     * @return the request target as received, including any query string (e.g. "/books?page=2")
+     */
+    public String getRequestTarget() {
+        if (head == null) {
+            return path;
+        }
+        return slice(requestLine[2], requestLine[3]);
+    }
+
     public Map<String, String> getHeaders() {
-        return headers;
+        Map<String, String> map = headers;
+        if (map == null && head != null) {
+            // Header names are case-insensitive; a repeated header keeps its last value
+            map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 0; i < headerCount * 4; i += 4) {
+                map.put(slice(headerFields[i], headerFields[i + 1]), slice(headerFields[i + 2], headerFields[i + 3]));
+            }
+            headers = map;
+        }
+        return map;
+    }
+
+    /**
+     * Get a single header value without building the header map.
+     * @param name the header name (case-insensitive)
+     * @return the value of the last header with that name, or null if absent
+     */
+    public String getHeader(String name) {
+        Map<String, String> map = headers;
+        if (head == null || map != null) {
+            return map != null ? map.get(name) : null;
+        }
+        for (int i = (headerCount - 1) * 4; i >= 0; i -= 4) {
+            if (nameEquals(headerFields[i], headerFields[i + 1], name)) {
+                return slice(headerFields[i + 2], headerFields[i + 3]);
+            }
+        }
+        return null;
     }
 
     public String getBody() {
+        if (body == null && requestBody != null) {
+            body = new String(getBodyBytes(), StandardCharsets.UTF_8);
+        }
         return body;
     }
 
     /**
-     * Convert the body to the specified class using Jackson ObjectMapper.
+     * Get the raw request body, reading the rest of it from the connection if it is still arriving.
+     * @return the raw request body, or null if the request has none
+     * @throws UncheckedIOException if the connection fails while the body is read
+     * @throws server.exceptions.HttpParseException if the body is larger than the route allows, or than fits in
+     *         memory ({@link RequestBody#MAX_BUFFERED_BYTES}) (413)
+     */
+    public byte[] getBodyBytes() {
+        if (requestBody == null) {
+            return null;
+        }
+        try {
+            return requestBody.getBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Get the request body as a stream, to process an upload as it arrives instead of holding it in memory.
+     * On the blocking transport the stream reads from the connection; a client that sent
+     * Expect: 100-continue is told to send the body on the first read. The NIO transport does not stream
+     * request bodies: it collects the whole body in memory, up to the route's limit, before the handler runs,
+     * and the stream reads that copy.
+     * @return the body, or an empty stream if the request has none
+     * @throws IllegalStateException if the body has already been taken as a stream
+     */
+    public InputStream getBodyStream() {
+        return requestBody != null ? requestBody.getStream() : InputStream.nullInputStream();
+    }
+
+    /**
+     * Convert the JSON body to the specified class using the server's {@link JsonCodec}.
+     * The body bytes are decoded directly, without building a String first.
      * @param clazz the class to convert the body to
-     * @return the body as the specified class, or null if conversion fails
+     * @return the body as the specified class, or null if there is no body or conversion fails
      * @param <T> the type of the class
      */
     public <T> T getBodyAs(Class<T> clazz) {
-        // Use Jackson ObjectMapper to convert body to specified class
-        ObjectMapper objectMapper = new ObjectMapper();
+        byte[] bodyBytes = getBodyBytes();
+        if (bodyBytes == null) {
+            return null;
+        }
         try {
-            return objectMapper.readValue(body, clazz);
+            return jsonCodec.read(bodyBytes, clazz);
         } catch (Exception e) {
             return null;
         }
     }
 
     public Map<String, String> getQueryParams() {
-        return queryParams;
+        Map<String, String> params = queryParams;
+        if (params == null && head != null) {
+            params = parseQueryParams();
+            queryParams = params;
+        }
+        return params;
+    }
+
+    /**
+     * @param name a parameter of the matched route's path pattern, e.g. "id" for "/books/{id}", or "*" for its wildcard
+     * @return the parameter's value from the request path, or null if the route has no such parameter
+     */
+    public String getPathParam(String name) {
+        return routeMatch != null ? routeMatch.getPathParam(name) : null;
+    }
+
+    /**
+     * @return the path parameters of the matched route, in pattern order
+     */
+    public Map<String, String> getPathParams() {
+        return routeMatch != null ? routeMatch.getPathParams() : Map.of();
+    }
+
+    /**
+     * @return the route this request was matched to, or null if it has not been routed or matched no route
+     */
+    public RouteMatch getRouteMatch() {
+        return routeMatch;
+    }
+
+    public void setRouteMatch(RouteMatch routeMatch) {
+        this.routeMatch = routeMatch;
     }
 
     public String getHttpVersion() {
+        if (httpVersion == null) {
+            // Validated by the parser as "HTTP/1.y"
+            if (head[requestLine[4] + 5] == '1' && head[requestLine[4] + 7] == '1') {
+                httpVersion = "HTTP/1.1";
+            } else if (head[requestLine[4] + 5] == '1' && head[requestLine[4] + 7] == '0') {
+                httpVersion = "HTTP/1.0";
+            } else {
+                httpVersion = slice(requestLine[4], requestLine[5]);
+            }
+        }
         return httpVersion;
     }
 
+    /**
+     * Whether the client wants the connection kept open after this request.
+     * HTTP/1.1 connections are persistent unless the client's Connection header lists "close";
+     * HTTP/1.0 connections are only persistent when it lists "keep-alive". The header is a comma-separated
+     * list of options, e.g. "Upgrade, close".
+     * @return true if the connection may be reused for another request
+     */
+    public boolean isKeepAlive() {
+        String connection = getHeader("Connection");
+        if ("HTTP/1.1".equals(getHttpVersion())) {
+            return connection == null || !hasToken(connection, "close");
+        }
+        return connection != null && hasToken(connection, "keep-alive");
+    }
+
+    // Whether a comma-separated header value lists a token, ignoring case and optional whitespace
+    private static boolean hasToken(String value, String token) {
+        int start = 0;
+        while (start <= value.length()) {
+            int end = value.indexOf(',', start);
+            if (end < 0) {
+                end = value.length();
+            }
+            int from = start;
+            int to = end;
+            while (from < to && (value.charAt(from) == ' ' || value.charAt(from) == '\t')) {
+                from++;
+            }
+            while (to > from && (value.charAt(to - 1) == ' ' || value.charAt(to - 1) == '\t')) {
+                to--;
+            }
+            if (to - from == token.length() && value.regionMatches(true, from, token, 0, token.length())) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    // Split "key=value" pairs after '?' by scanning bytes; pairs without '=' are ignored
+    private Map<String, String> parseQueryParams() {
+        Map<String, String> params = new HashMap<>();
+        int end = requestLine[3];
+        int query = HttpRequestParser.indexOf(head, requestLine[2], end, (byte) '?');
+        if (query < 0) {
+            return params;
+        }
+        int pairStart = query + 1;
+        while (pairStart < end) {
+            int pairEnd = HttpRequestParser.indexOf(head, pairStart, end, (byte) '&');
+            if (pairEnd < 0) {
+                pairEnd = end;
+            }
+            int equals = HttpRequestParser.indexOf(head, pairStart, pairEnd, (byte) '=');
+            if (equals >= 0) {
+                params.put(slice(pairStart, equals), slice(equals + 1, pairEnd));
+            }
+            pairStart = pairEnd + 1;
+        }
+        return params;
+    }
+
+    // Returns the shared constant for well-known methods so routing does not allocate
+    private String commonMethod(int start, int end) {
+        for (String candidate : COMMON_METHODS) {
+            if (candidate.length() == end - start && nameEqualsExact(start, candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private boolean nameEqualsExact(int start, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (head[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean nameEquals(int start, int end, String name) {
+        if (end - start != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char a = (char) (head[start + i] & 0xFF);
+            char b = name.charAt(i);
+            if (a != b && Character.toLowerCase(a) != Character.toLowerCase(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Header bytes are ISO-8859-1 per RFC 9110
+    private String slice(int start, int end) {
+        return new String(head, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
     @Override
     public String toString() {
         return "HttpRequest{" +
-                "httpVersion='" + httpVersion + '\'' +
-                ", method='" + method + '\'' +
-                ", path='" + path + '\'' +
-                ", queryParams=" + queryParams +
-                ", headers=" + headers +
-                ", body='" + body + '\'' +
+                "httpVersion='" + getHttpVersion() + '\'' +
+                ", method='" + getMethod() + '\'' +
+                ", path='" + getPath() + '\'' +
+                ", queryParams=" + getQueryParams() +
+                ", headers=" + getHeaders() +
+                ", body='" + body + '\'' + // Only if already decoded; toString must not read from the connection
                 '}';
     }
-}
\ No newline at end of file
+}
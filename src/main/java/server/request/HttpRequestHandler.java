@@ -4,4 +4,15 @@ import server.response.HttpResponse;
 
 public interface HttpRequestHandler {
     HttpResponse handle(HttpRequest request);
-}
\ No newline at end of file
+
+    /**
+     * Mark a lambda as an asynchronous handler, for the route methods that take an HttpRequestHandler:
+     * {@code server.get("/quote", async(request -> quotes.fetch().thenApply(quote -> new HttpResponse(200, quote))))}.
+     *
+     * @param handler the asynchronous handler
+     * @return the same handler
+     */
+    static HttpRequestHandler async(AsyncHttpRequestHandler handler) {
+        return handler;
+    }
+}
@@ -1,149 +1,303 @@
 package server.request;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.Socket;
+import server.exceptions.HttpParseException;
+import server.json.JsonCodec;
+
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
+/**
+ * Byte-level parser for HTTP/1.x request heads.
+ * Scans a caller-owned buffer for line ends and delimiters and records the offsets of the request line
+ * and header fields instead of building Strings. {@link #toRequest} copies the head once into the
+ * {@link HttpRequest}, which only materializes Strings when a handler asks for them.
+ * Parsing is incremental: call {@link #parseHead} again as more bytes arrive and it resumes at the
+ * first unparsed line. One parser is used per connection and is not thread-safe.
+ */
 public class HttpRequestParser {
 
-    private static final boolean DEBUG = true;
+    private static final boolean DEBUG = Boolean.getBoolean("server.debug"); // -Dserver.debug=true
 
-    public static HttpRequest parse(Socket client) throws IOException {
-        InputStream is = client.getInputStream();
+    public static final int DEFAULT_MAX_HEADER_COUNT = 100;
+    public static final int DEFAULT_MAX_HEADER_BYTES = 16 * 1024;
+    private static final int MAX_REQUEST_LINE_LENGTH = 8 * 1024;
 
-        // Read request-line, skipping any leading empty lines per RFC robustness
-        String requestLine = readLine(is);
-        while (requestLine != null && requestLine.isEmpty()) {
-            requestLine = readLine(is);
-        }
-        if (requestLine == null || requestLine.isEmpty()) {
-            throw new IOException("Empty request");
-        }
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRANSFER_ENCODING = "transfer-encoding".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CHUNKED = "chunked".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EXPECT = "expect".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTINUE = "100-continue".getBytes(StandardCharsets.US_ASCII);
 
-        if (DEBUG) {
-            System.out.println("Request-Line: " + requestLine);
-        }
-
-        // Parse method, path, and HTTP version from request line
-        String[] requestLineParts = requestLine.split(" ", 3);
-        if (requestLineParts.length != 3) {
-            throw new IOException("Invalid request line: " + requestLine);
-        }
-        String method = requestLineParts[0];
-        String path = requestLineParts[1];
-        String httpVersion = requestLineParts[2];
-        Map<String, String> queryParams = parseQueryParams(path);
-        // Remove query parameters from path
-        path = path.split("\\?")[0];
-
-        // Parse headers until blank line
-        Map<String, String> headers = new HashMap<>();
-        String line;
-        while ((line = readLine(is)) != null && !line.isEmpty()) {
-            String[] headerParts = line.split(": ", 2);
-            if (headerParts.length == 2) {
-                headers.put(headerParts[0], headerParts[1]);
-            }
-        }
+    private final int maxHeaderCount;
+    private final int maxHeaderBytes;
+    private final JsonCodec jsonCodec;
 
-        // Parse body (only if Content-Length specified)
-        String body = null;
-        if (headers.containsKey("Content-Length")) {
-            int contentLength = 0;
-            try {
-                contentLength = Integer.parseInt(headers.get("Content-Length"));
-            } catch (NumberFormatException ignored) {
-                contentLength = 0;
+    // Parse state; all offsets are relative to the start of the request in the caller's buffer
+    private int scanned; // Start of the next unparsed line
+    private boolean requestLineDone;
+    private final int[] requestLine = new int[6]; // [start, end) of method, target, and version
+    private int[] headerFields = new int[16 * 4]; // [start, end) of name and value for each header
+    private int headerCount;
+    private long contentLength = -1;
+    private boolean chunked;
+    private boolean expectContinue;
+    private boolean http11;
+
+    public HttpRequestParser() {
+        this(DEFAULT_MAX_HEADER_COUNT, DEFAULT_MAX_HEADER_BYTES, JsonCodec.getDefault());
+    }
+
+    /**
+     * @param maxHeaderCount the maximum number of header fields in a request (431 beyond it)
+     * @param maxHeaderBytes the maximum size of the request line plus headers in bytes (431 beyond it)
+     * @param jsonCodec the codec parsed requests use for {@link HttpRequest#getBodyAs}
+     */
+    public HttpRequestParser(int maxHeaderCount, int maxHeaderBytes, JsonCodec jsonCodec) {
+        this.maxHeaderCount = maxHeaderCount;
+        this.maxHeaderBytes = maxHeaderBytes;
+        this.jsonCodec = jsonCodec;
+    }
+
+    /**
+     * Parses as much of a request head as is available.
+     * @param buf the buffer holding the request bytes
+     * @param start the index of the first byte of the request
+     * @param end the index after the last byte received so far
+     * @return the length of the head including its terminating blank line, or -1 if it is not complete yet
+     * @throws HttpParseException if the head is malformed or exceeds a limit
+     */
+    public int parseHead(byte[] buf, int start, int end) {
+        while (true) {
+            int lineStart = start + scanned;
+            int lf = indexOf(buf, lineStart, end, (byte) '\n');
+            if (lf < 0) {
+                checkLimits(end - start, end - lineStart);
+                return -1;
             }
-            if (contentLength > 0) {
-                byte[] bodyBytes = readFixedLength(is, contentLength);
-                body = new String(bodyBytes, StandardCharsets.UTF_8);
+            int lineEnd = lf > lineStart && buf[lf - 1] == '\r' ? lf - 1 : lf;
+            scanned = lf + 1 - start;
+            checkLimits(scanned, lineEnd - lineStart);
+
+            if (!requestLineDone) {
+                if (lineEnd > lineStart) { // Leading blank lines are skipped per RFC robustness
+                    parseRequestLine(buf, start, lineStart, lineEnd);
+                    requestLineDone = true;
+                }
+            } else if (lineEnd == lineStart) {
+                if (chunked && contentLength >= 0) {
+                    // Two framings for one body is how requests are smuggled past proxies (RFC 9112 section 6.3)
+                    throw new HttpParseException(400, "Both Content-Length and Transfer-Encoding");
+                }
+                return scanned;
             } else {
-                body = "";
+                parseHeaderLine(buf, start, lineStart, lineEnd);
             }
         }
+    }
 
-        return new HttpRequest(httpVersion, method, path, headers, body, queryParams);
+    /**
+     * @return the Content-Length of the parsed head, or -1 if it did not declare one
+     */
+    public long getContentLength() {
+        return contentLength;
     }
 
-    private static Map<String, String> parseQueryParams(String path) {
-        Map<String, String> queryParams = new HashMap<>();
-        String[] pathParts = path.split("\\?", 2);
-        if (pathParts.length == 2) {
-            // Split into pairs "key=value"
-            String queryString = pathParts[1];
-            String[] pairs = queryString.split("&");
-            for (String pair : pairs) {
-                // Parse each pair
-                String[] keyValue = pair.split("=", 2);
-                if (keyValue.length == 2) {
-                    queryParams.put(keyValue[0], keyValue[1]);
-                }
-            }
-        }
-        return queryParams;
+    /**
+     * @return true if the parsed head declared Transfer-Encoding: chunked
+     */
+    public boolean isChunked() {
+        return chunked;
     }
 
-    private static void debugLines(String[] lines) {
+    /**
+     * @return true if the parsed head is an HTTP/1.1 request with Expect: 100-continue, so the client
+     *         waits for a 100 Continue before sending the body (HTTP/1.0 expectations are ignored)
+     */
+    public boolean expectsContinue() {
+        return expectContinue && http11;
+    }
+
+    /**
+     * Builds the request from a head completed by {@link #parseHead} and resets the parser for the next one.
+     * @param buf the buffer holding the request bytes
+     * @param start the index of the first byte of the request
+     * @param headLength the head length returned by {@link #parseHead}
+     * @param body the request body, or null if the request has none
+     * @return the request
+     */
+    public HttpRequest toRequest(byte[] buf, int start, int headLength, RequestBody body) {
+        byte[] head = Arrays.copyOfRange(buf, start, start + headLength);
+        HttpRequest request = new HttpRequest(head, requestLine.clone(), Arrays.copyOf(headerFields, headerCount * 4), headerCount, body, jsonCodec);
         if (DEBUG) {
-            System.out.println("---- DEBUG: Request Lines ----");
-            for (String line : lines) {
-                System.out.println(line);
+            System.out.println("Request-Line: " + new String(head, requestLine[0], requestLine[5] - requestLine[0], StandardCharsets.ISO_8859_1));
+        }
+        reset();
+        return request;
+    }
+
+    /**
+     * Discards any partially parsed head.
+     */
+    public void reset() {
+        scanned = 0;
+        requestLineDone = false;
+        headerCount = 0;
+        contentLength = -1;
+        chunked = false;
+        expectContinue = false;
+    }
+
+    private void checkLimits(int headBytes, int lineLength) {
+        if (!requestLineDone && lineLength > MAX_REQUEST_LINE_LENGTH) {
+            throw new HttpParseException(414, "Request line exceeds " + MAX_REQUEST_LINE_LENGTH + " bytes");
+        }
+        if (headBytes > maxHeaderBytes) {
+            throw new HttpParseException(431, "Request head exceeds " + maxHeaderBytes + " bytes");
+        }
+    }
+
+    // method SP request-target SP HTTP-version
+    private void parseRequestLine(byte[] buf, int base, int start, int end) {
+        int methodEnd = indexOf(buf, start, end, (byte) ' ');
+        if (methodEnd <= start) {
+            throw new HttpParseException(400, "Invalid request line");
+        }
+        for (int i = start; i < methodEnd; i++) {
+            if (!isTokenChar(buf[i])) {
+                throw new HttpParseException(400, "Invalid request method");
             }
-            System.out.println("---- END DEBUG ----");
         }
+        int targetEnd = indexOf(buf, methodEnd + 1, end, (byte) ' ');
+        if (targetEnd <= methodEnd + 1) {
+            throw new HttpParseException(400, "Invalid request line");
+        }
+        int versionStart = targetEnd + 1;
+        // HTTP-version = "HTTP/" DIGIT "." DIGIT
+        if (end - versionStart != 8 || !startsWith(buf, versionStart, "HTTP/") || !isDigit(buf[versionStart + 5])
+                || buf[versionStart + 6] != '.' || !isDigit(buf[versionStart + 7])) {
+            throw new HttpParseException(400, "Invalid HTTP version");
+        }
+        if (buf[versionStart + 5] != '1') {
+            throw new HttpParseException(505, "Only HTTP/1.x is supported");
+        }
+        http11 = startsWith(buf, versionStart, "HTTP/1.1");
+        requestLine[0] = start - base;
+        requestLine[1] = methodEnd - base;
+        requestLine[2] = methodEnd + 1 - base;
+        requestLine[3] = targetEnd - base;
+        requestLine[4] = versionStart - base;
+        requestLine[5] = end - base;
     }
 
-    // Read a single line terminated by CRLF or LF; returns line without terminator.
-    private static String readLine(InputStream is) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        int prev = -1;
-        int b;
-        while ((b = is.read()) != -1) {
-            if (b == '\n') { // LF
-                break; // End of line (CR may have been before)
+    // field-name ":" OWS field-value OWS
+    private void parseHeaderLine(byte[] buf, int base, int start, int end) {
+        if (buf[start] == ' ' || buf[start] == '\t') {
+            throw new HttpParseException(400, "Obsolete header line folding");
+        }
+        int colon = indexOf(buf, start, end, (byte) ':');
+        if (colon <= start || buf[colon - 1] == ' ' || buf[colon - 1] == '\t') {
+            throw new HttpParseException(400, "Malformed header line");
+        }
+        int valueStart = colon + 1;
+        while (valueStart < end && (buf[valueStart] == ' ' || buf[valueStart] == '\t')) {
+            valueStart++;
+        }
+        int valueEnd = end;
+        while (valueEnd > valueStart && (buf[valueEnd - 1] == ' ' || buf[valueEnd - 1] == '\t')) {
+            valueEnd--;
+        }
+
+        if (headerCount == maxHeaderCount) {
+            throw new HttpParseException(431, "More than " + maxHeaderCount + " header fields");
+        }
+        if (headerFields.length < (headerCount + 1) * 4) {
+            headerFields = Arrays.copyOf(headerFields, headerFields.length * 2);
+        }
+        int field = headerCount * 4;
+        headerFields[field] = start - base;
+        headerFields[field + 1] = colon - base;
+        headerFields[field + 2] = valueStart - base;
+        headerFields[field + 3] = valueEnd - base;
+        headerCount++;
+
+        if (equalsIgnoreCase(buf, start, colon, CONTENT_LENGTH)) {
+            long length = parseContentLength(buf, valueStart, valueEnd);
+            if (contentLength >= 0 && contentLength != length) {
+                throw new HttpParseException(400, "Conflicting Content-Length headers");
             }
-            if (prev == '\r' && b != '\n') {
-                // Lone CR encountered; treat previous CR as line end and continue processing this byte in next call
-                // Push back is not available; so we append current char and will return previous line.
+            contentLength = length;
+        } else if (equalsIgnoreCase(buf, start, colon, TRANSFER_ENCODING)) {
+            if (!equalsIgnoreCase(buf, valueStart, valueEnd, CHUNKED)) {
+                throw new HttpParseException(501, "Only the chunked transfer coding is supported");
             }
-            sb.append((char) b);
-            prev = b;
-            if (prev == '\r') {
-                // Peek next byte to see if it's \n; if not, we'll consider CR as line end on next iteration.
+            chunked = true;
+        } else if (equalsIgnoreCase(buf, start, colon, EXPECT)) {
+            if (!equalsIgnoreCase(buf, valueStart, valueEnd, CONTINUE)) {
+                throw new HttpParseException(417, "Unsupported expectation");
             }
-            // Safety: limit very long lines
-            if (sb.length() > 8192) {
-                break;
+            expectContinue = true;
+        }
+    }
+
+    private static long parseContentLength(byte[] buf, int start, int end) {
+        if (start == end || end - start > 18) {
+            throw new HttpParseException(400, "Invalid Content-Length");
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buf[i];
+            if (b < '0' || b > '9') {
+                throw new HttpParseException(400, "Invalid Content-Length");
             }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    static int indexOf(byte[] buf, int from, int to, byte target) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // ASCII case-insensitive comparison of buf[start, end) against a lowercase name
+    static boolean equalsIgnoreCase(byte[] buf, int start, int end, byte[] lowerName) {
+        if (end - start != lowerName.length) {
+            return false;
         }
-        // Trim trailing CR if present
-        int len = sb.length();
-        if (len > 0 && sb.charAt(len - 1) == '\r') {
-            sb.setLength(len - 1);
+        for (int i = 0; i < lowerName.length; i++) {
+            byte b = buf[start + i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lowerName[i]) {
+                return false;
+            }
         }
-        return sb.toString();
+        return true;
     }
 
-    // Read exactly n bytes from InputStream
-    private static byte[] readFixedLength(InputStream is, int length) throws IOException {
-        byte[] data = new byte[length];
-        int offset = 0;
-        while (offset < length) {
-            int read = is.read(data, offset, length - offset);
-            if (read == -1) {
-                break;
+    private static boolean startsWith(byte[] buf, int start, String prefix) {
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buf[start + i] != prefix.charAt(i)) {
+                return false;
             }
-            offset += read;
         }
-        if (offset < length) {
-            byte[] partial = new byte[offset];
-            System.arraycopy(data, 0, partial, 0, offset);
-            return partial;
+        return true;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    // RFC 9110 tchar
+    private static boolean isTokenChar(byte b) {
+        if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')) {
+            return true;
         }
-        return data;
+        return "!#$%&'*+-.^_`|~".indexOf(b) >= 0;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,414 @@
+package server.request;
+
+import server.exceptions.HttpParseException;
+import server.exceptions.RequestTimeoutException;
+
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.io.UncheckedIOException;
+
+/**
+ * Reads successive requests from a blocking connection.
+ * Socket reads go into one reusable buffer that {@link HttpRequestParser} scans in place; bytes read past
+ * the end of a request stay buffered for the next one, so the reader must live as long as the connection.
+ * Request bodies are not read up front: the request's body stream reads them from the connection as the
+ * handler consumes it, decoding the chunked transfer coding if it is used. Before reading the next request,
+ * {@link #finishBody} must skip whatever the handler left unread.
+ * <p>
+ * A connection's output may hold back responses to pipelined requests; it is flushed before every read
+ * that could block, so a client is never left waiting for a response the server has already produced.
+ * <p>
+ * With {@link RequestTimeouts}, each read waits only as long as is left of the timeout of the part of the request
+ * being read, so a client that trickles its request in byte by byte is cut off at the same point as one that
+ * sends nothing; the request then fails with a {@link RequestTimeoutException}.
+ */
+public class HttpRequestReader {
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    /**
+     * Sets how long the next read from the connection may block, e.g. a socket's SO_TIMEOUT; a read that
+     * times out must throw {@link SocketTimeoutException}.
+     */
+    @FunctionalInterface
+    public interface ReadTimeout {
+        void set(int millis) throws IOException;
+    }
+
+    private enum Phase { IDLE, REQUEST_LINE, HEADERS, BODY }
+
+    private final InputStream in;
+    private final HttpRequestParser parser;
+    private final Flushable output; // Flushed before blocking reads; may be null
+    private final RequestTimeouts timeouts; // null for no timeouts
+    private final ReadTimeout readTimeout;
+    private Phase phase = Phase.IDLE;
+    private long bodyStartNanos;
+    private byte[] buf = new byte[INITIAL_BUFFER_SIZE];
+    private int start; // First unconsumed byte
+    private int end;   // End of the bytes read so far
+    private BodyStream body; // Body of the current request, or null if it has none
+    private long bytesRead;  // Total bytes read from the connection
+    private long headStartNanos;
+
+    public HttpRequestReader(InputStream in, HttpRequestParser parser) {
+        this(in, parser, null);
+    }
+
+    /**
+     * @param in     the connection's input
+     * @param parser the parser for the connection's request heads
+     * @param output the connection's buffered output, flushed before each read from the connection
+     */
+    public HttpRequestReader(InputStream in, HttpRequestParser parser, Flushable output) {
+        this(in, parser, output, null, null);
+    }
+
+    /**
+     * @param in          the connection's input
+     * @param parser      the parser for the connection's request heads
+     * @param output      the connection's buffered output, flushed before each read from the connection
+     * @param timeouts    the timeouts to enforce while reading requests
+     * @param readTimeout applies the time left to each read from the connection
+     */
+    public HttpRequestReader(InputStream in, HttpRequestParser parser, Flushable output, RequestTimeouts timeouts,
+                             ReadTimeout readTimeout) {
+        this.in = in;
+        this.parser = parser;
+        this.output = output;
+        this.timeouts = timeouts;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Reads the head of the next request from the connection. Its body, if any, is read on demand.
+     * @return the request, or null if the client closed the connection between requests
+     * @throws IOException if the socket fails or the connection closes mid-request; a
+     *         {@link SocketTimeoutException} if no request started within the idle timeout
+     * @throws HttpParseException if the request is malformed or exceeds a parser limit, or a
+     *         {@link RequestTimeoutException} if it did not arrive in time
+     */
+    public HttpRequest next() throws IOException {
+        int headLength;
+        boolean started = end > start; // A pipelined request may already be buffered
+        headStartNanos = System.nanoTime();
+        phase = started ? Phase.REQUEST_LINE : Phase.IDLE;
+        int scanned = start; // Searched for the end of the request line up to here
+        while ((headLength = parser.parseHead(buf, start, end)) < 0) {
+            if (phase == Phase.REQUEST_LINE) {
+                while (scanned < end && buf[scanned] != '\n') {
+                    scanned++;
+                }
+                if (scanned < end) {
+                    phase = Phase.HEADERS;
+                }
+            }
+            int before = start;
+            if (!fill()) {
+                if (onlyLineBreaks()) {
+                    return null;
+                }
+                throw new EOFException("Connection closed mid-request");
+            }
+            scanned -= before - start; // The buffer may have been compacted
+            if (!started) {
+                started = true;
+                phase = Phase.REQUEST_LINE;
+                headStartNanos = System.nanoTime(); // Time spent waiting for an idle client is not parsing
+            }
+        }
+
+        long contentLength = parser.getContentLength();
+        RequestBody requestBody = null;
+        body = null;
+        if (contentLength > 0 || parser.isChunked()) {
+            long length = parser.isChunked() ? -1 : contentLength;
+            body = new BodyStream(length, parser.expectsContinue());
+            requestBody = new RequestBody(body, length);
+        } else if (contentLength == 0) {
+            requestBody = new RequestBody(new byte[0]);
+        }
+        HttpRequest request = parser.toRequest(buf, start, headLength, requestBody);
+        start += headLength;
+        if (start >= end) {
+            start = end = 0; // Everything buffered has been consumed
+        }
+        return request;
+    }
+
+    /**
+     * Apply the route's body size limit to the current request, before any of its body is read.
+     * @param maxBodySize the largest body the route accepts, in bytes
+     * @param sendContinue sends the interim 100 Continue; run on the body's first read if the client expects it
+     * @throws HttpParseException if the declared Content-Length is over the limit (413)
+     */
+    public void prepareBody(long maxBodySize, Runnable sendContinue) {
+        if (body == null) {
+            return;
+        }
+        if (body.remaining > maxBodySize) {
+            throw new HttpParseException(413, "Request body exceeds " + maxBodySize + " bytes");
+        }
+        body.limit = maxBodySize;
+        body.sendContinue = body.expectContinue ? sendContinue : null;
+    }
+
+    /**
+     * Skip the part of the current request's body that the handler did not read, so the next request can be read.
+     * @param maxDiscard the most body bytes to read and discard; a longer remainder is cheaper to drop with the connection
+     * @return true if the body has been consumed; false if the connection must be closed instead, including when
+     *         the client is still waiting for a 100 Continue that was never sent, or the body is malformed
+     * @throws IOException if the socket fails
+     */
+    public boolean finishBody(long maxDiscard) throws IOException {
+        if (body == null || body.done) {
+            return true;
+        }
+        if (body.expectContinue && !body.started) {
+            return false; // The client may never send the body; it cannot be skipped
+        }
+        try {
+            return body.discard(maxDiscard);
+        } catch (HttpParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} at which the first byte of the last request returned by {@link #next()}
+     *         was available
+     */
+    public long getHeadStartNanos() {
+        return headStartNanos;
+    }
+
+    /**
+     * @return the total number of bytes read from the connection so far
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return true if bytes of a following request have already been read
+     */
+    public boolean hasBufferedInput() {
+        return end > start;
+    }
+
+    // Read more bytes, compacting or growing the buffer first if it is full; false at end of stream
+    private boolean fill() throws IOException {
+        if (end == buf.length) {
+            if (start > 0) {
+                System.arraycopy(buf, start, buf, 0, end - start);
+                end -= start;
+                start = 0;
+            } else {
+                byte[] bigger = new byte[buf.length * 2];
+                System.arraycopy(buf, 0, bigger, 0, end);
+                buf = bigger;
+            }
+        }
+        int n = read(buf, end, buf.length - end);
+        if (n == -1) {
+            return false;
+        }
+        end += n;
+        return true;
+    }
+
+    // Every read from the connection goes through here
+    private int read(byte[] b, int off, int len) throws IOException {
+        if (output != null) {
+            output.flush();
+        }
+        if (timeouts != null) {
+            readTimeout.set(timeLeftMillis());
+        }
+        int n;
+        try {
+            n = in.read(b, off, len);
+        } catch (SocketTimeoutException e) {
+            if (phase == Phase.IDLE) {
+                throw e;
+            }
+            throw timedOut();
+        }
+        if (n > 0) {
+            bytesRead += n;
+        }
+        return n;
+    }
+
+    // How long the next read may block: what is left of the current phase's timeout
+    private int timeLeftMillis() {
+        long now = System.nanoTime();
+        long left = switch (phase) {
+            case IDLE -> timeouts.idleMillis();
+            case REQUEST_LINE -> (headStartNanos - now) / 1_000_000 + timeouts.requestLineMillis();
+            case HEADERS -> (headStartNanos - now) / 1_000_000 + timeouts.headersMillis();
+            case BODY -> Math.min(timeouts.bodyMillis(),
+                    (timeouts.bodyRateDeadline(bodyStartNanos, body.total) - now) / 1_000_000);
+        };
+        if (left <= 0) {
+            throw timedOut();
+        }
+        return (int) Math.min(left, Integer.MAX_VALUE);
+    }
+
+    private RequestTimeoutException timedOut() {
+        return switch (phase) {
+            case IDLE, REQUEST_LINE -> new RequestTimeoutException(TimeoutPhase.REQUEST_LINE,
+                    "Request line not received within " + timeouts.requestLineMillis() + " ms");
+            case HEADERS -> new RequestTimeoutException(TimeoutPhase.HEADERS,
+                    "Request headers not received within " + timeouts.headersMillis() + " ms");
+            case BODY -> System.nanoTime() - timeouts.bodyRateDeadline(bodyStartNanos, body.total) >= 0
+                    ? new RequestTimeoutException(TimeoutPhase.BODY_RATE,
+                            "Request body arriving slower than " + timeouts.minBodyRate() + " bytes/s")
+                    : new RequestTimeoutException(TimeoutPhase.BODY,
+                            "Request body paused for " + timeouts.bodyMillis() + " ms");
+        };
+    }
+
+    // Make room for and read more body bytes once the buffered ones have been consumed
+    private boolean fillBody() throws IOException {
+        if (start == end) {
+            start = end = 0;
+        }
+        return fill();
+    }
+
+    private boolean onlyLineBreaks() {
+        for (int i = start; i < end; i++) {
+            if (buf[i] != '\r' && buf[i] != '\n') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A request body read from the connection on demand: Content-Length bytes, or chunked data until the last chunk.
+     */
+    private final class BodyStream extends InputStream {
+        private long remaining; // Content-Length bytes not read yet, or -1 for a chunked body
+        private final ChunkedDecoder chunks;
+        private final boolean expectContinue;
+        private long limit = Long.MAX_VALUE;
+        private long total;
+        private Runnable sendContinue;
+        private boolean started;
+        private boolean done;
+
+        BodyStream(long contentLength, boolean expectContinue) {
+            this.remaining = contentLength;
+            this.chunks = contentLength < 0 ? new ChunkedDecoder() : null;
+            this.expectContinue = expectContinue;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done || body != this) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            start();
+            int n = chunks == null ? readFixed(b, off, len) : readChunked(b, off, len);
+            if (n == -1) {
+                done = true;
+                return -1;
+            }
+            total += n;
+            if (total > limit) {
+                throw new HttpParseException(413, "Request body exceeds " + limit + " bytes");
+            }
+            return n;
+        }
+
+        // Skip up to max bytes of what is left; true if that reached the end of the body
+        boolean discard(long max) throws IOException {
+            byte[] scratch = new byte[8192];
+            long discarded = 0;
+            while (discarded <= max) {
+                int n = read(scratch, 0, scratch.length);
+                if (n == -1) {
+                    return true;
+                }
+                discarded += n;
+            }
+            return false;
+        }
+
+        private void start() throws IOException {
+            if (started) {
+                return;
+            }
+            started = true;
+            phase = Phase.BODY;
+            bodyStartNanos = System.nanoTime();
+            if (sendContinue != null) {
+                try {
+                    sendContinue.run();
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+        }
+
+        private int readFixed(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            len = (int) Math.min(len, remaining);
+            int n;
+            if (start < end) {
+                n = Math.min(len, end - start);
+                System.arraycopy(buf, start, b, off, n);
+                start += n;
+            } else if (len >= buf.length) {
+                n = HttpRequestReader.this.read(b, off, len); // Large reads skip the buffer
+            } else {
+                n = fillBody() ? Math.min(len, end - start) : -1;
+                if (n > 0) {
+                    System.arraycopy(buf, start, b, off, n);
+                    start += n;
+                }
+            }
+            if (n == -1) {
+                throw new EOFException("Connection closed mid-body");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        private int readChunked(byte[] b, int off, int len) throws IOException {
+            while (true) {
+                start = chunks.skipFraming(buf, start, end);
+                if (chunks.isDone()) {
+                    return -1;
+                }
+                if (chunks.dataRemaining() > 0 && start < end) {
+                    int n = (int) Math.min(Math.min(len, chunks.dataRemaining()), end - start);
+                    System.arraycopy(buf, start, b, off, n);
+                    start += n;
+                    chunks.consumedData(n);
+                    return n;
+                }
+                if (!fillBody()) {
+                    throw new EOFException("Connection closed mid-body");
+                }
+            }
+        }
+    }
+}
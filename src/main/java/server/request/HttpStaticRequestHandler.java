@@ -1,9 +1,30 @@
 package server.request;
 
+import server.response.Compression;
+import server.response.FileBody;
+import server.response.HttpDates;
 import server.response.HttpResponse;
+import server.staticfiles.ByteRange;
+import server.staticfiles.StaticFile;
+import server.staticfiles.StaticFileCache;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * A simple handler for serving static files.
@@ -11,10 +32,32 @@ import java.io.InputStream;
  * If the file is not found, it returns a 404 response.
  * Supported file types include HTML, CSS, JS, JSON, PNG, JPG, GIF, SVG, and PDF.
  * For unsupported file types, it defaults to "text/plain".
+ * When given a {@link StaticFileCache}, files are read from the classpath once and then served from memory.
+ * Responses carry a strong ETag and Last-Modified date, and conditional requests (If-None-Match,
+ * If-Modified-Since) for an unchanged file are answered with a bodyless 304 Not Modified.
+ * With {@link Compression} enabled, text files are compressed once on load and the variant matching the
+ * client's Accept-Encoding is served; files that are not cached are compressed only in the negotiated
+ * encoding, and files over the cache's per-file limit are served uncompressed.
+ * Files under a filesystem root are never loaded onto the heap: they are streamed from disk as a {@link FileBody}.
+ * GET requests with a Range header (and a matching If-Range, if sent) get a 206 Partial Content with the
+ * requested ranges, as multipart/byteranges when there are several.
  */
 public class HttpStaticRequestHandler {
 
+    private final StaticFileCache cache;
+    private final Compression compression;
+
     public HttpStaticRequestHandler() {
+        this(null, null);
+    }
+
+    /**
+     * @param cache the cache to serve files from, or null to read every file from the classpath on each request
+     * @param compression the compression settings for precompressed variants, or null to serve files uncompressed
+     */
+    public HttpStaticRequestHandler(StaticFileCache cache, Compression compression) {
+        this.cache = cache;
+        this.compression = compression;
     }
 
     /**
@@ -23,22 +66,362 @@ public class HttpStaticRequestHandler {
      * @return an HttpResponse with the file content or a 404 if not found
      */
     public HttpResponse handleStaticFile(String filePath) {
+        return handleStaticFile(filePath, null, null);
+    }
+
+    /**
+     * Handles a request for a static file, honoring conditional request headers.
+     * @param filePath the path to the static file (e.g., "/static/index.html")
+     * @param request the request, for its If-None-Match and If-Modified-Since headers; may be null
+     * @param cacheControl the Cache-Control header to send with the file, or null for none
+     * @return an HttpResponse with the file content, a 304 if the client's copy is current, or a 404 if not found
+     */
+    public HttpResponse handleStaticFile(String filePath, HttpRequest request, String cacheControl) {
+        if (!isSafePath(filePath)) {
+            return notFound();
+        }
+        StaticFile file = cache != null ? cache.get(filePath) : null;
+        boolean varies = false;
+        if (file == null) {
+            file = loadFile(filePath);
+            if (file == null) {
+                return notFound();
+            }
+            int length = file.getContent().length;
+            boolean cacheable = cache != null && cache.admits(length);
+            if (compression != null && length <= maxCompressedBytes()) {
+                if (cacheable) {
+                    file.precompress(compression);
+                } else {
+                    // Served once and dropped: compress only the encoding this client will get
+                    varies = compression.isCompressible(file.getContentType(), length);
+                    if (request != null) {
+                        file.precompress(compression, Compression.negotiate(request.getHeader("Accept-Encoding")));
+                    }
+                }
+            }
+            if (cacheable) {
+                file = cache.put(filePath, file);
+            }
+        }
+        varies |= file.isCompressed();
+
+        String encoding = null;
+        if (request != null && file.isCompressed()) {
+            encoding = Compression.negotiate(request.getHeader("Accept-Encoding"));
+            if (encoding != null && file.getContent(encoding) == null) {
+                encoding = null;
+            }
+        }
+        String etag = file.getEtag(encoding);
+
+        HttpResponse response;
+        if (request != null && isNotModified(request, file.getLastModified(), etag)) {
+            response = new HttpResponse(304);
+        } else {
+            byte[] content = file.getContent(encoding);
+            List<ByteRange> ranges = request != null ? requestedRanges(request, content.length, etag, file.getLastModified()) : null;
+            response = ranges != null
+                    ? rangeResponse(content, ranges, file.getContentType())
+                    : new HttpResponse(200).withBodyBytes(content).withContentType(file.getContentType());
+            response.withHeader("Accept-Ranges", "bytes");
+        }
+        response.withHeader("ETag", etag)
+                .withHeader("Last-Modified", file.getLastModifiedHeader());
+        if (varies) {
+            Compression.addVary(response);
+        }
+        if (encoding != null) {
+            response.withHeader("Content-Encoding", encoding);
+        }
+        if (cacheControl != null) {
+            response.withHeader("Cache-Control", cacheControl);
+        }
+        return response;
+    }
+
+    /**
+     * Handles a request for a file under a filesystem directory. The file is opened per request and its
+     * bytes are sent with {@link java.nio.channels.FileChannel#transferTo}, never copied onto the heap;
+     * the ETag is derived from the file's size and modification time.
+     * @param root the absolute, real path of the mounted directory
+     * @param relativePath the request path below the mount (not yet percent-decoded)
+     * @param request the request, for its conditional and Range headers
+     * @param cacheControl the Cache-Control header to send with the file, or null for none
+     * @return an HttpResponse streaming the file, a 206 or 416 for Range requests, a 304, or a 404 if not found
+     */
+    public HttpResponse handleFileSystemFile(Path root, String relativePath, HttpRequest request, String cacheControl) {
+        Path path = resolve(root, relativePath);
+        if (path == null) {
+            return notFound();
+        }
+        BasicFileAttributes attributes;
         try {
-            String fileName = filePath.substring(filePath.lastIndexOf('/') + 1);
-            String contentType = getContentType(fileName);
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return notFound();
+        }
+        long length = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        lastModified -= lastModified % 1000; // HTTP-dates have one second resolution
+        String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+        String contentType = getContentType(path.getFileName().toString());
 
-            InputStream is = getClass().getResourceAsStream(filePath);
-            if (is == null) {
-                return new HttpResponse(404, "File Not Found")
-                        .withContentType("text/plain");
+        HttpResponse response;
+        if (isNotModified(request, lastModified, etag)) {
+            response = new HttpResponse(304);
+        } else {
+            List<ByteRange> ranges = requestedRanges(request, length, etag, lastModified);
+            if (ranges != null && ranges.isEmpty()) {
+                response = notSatisfiable(length);
+            } else {
+                FileChannel channel;
+                try {
+                    channel = FileChannel.open(path, StandardOpenOption.READ);
+                } catch (IOException e) {
+                    return notFound();
+                }
+                FileBody body = new FileBody(channel);
+                if (ranges == null) {
+                    response = new HttpResponse(200).withFileBody(body.region(0, length)).withContentType(contentType);
+                } else if (ranges.size() == 1) {
+                    ByteRange range = ranges.get(0);
+                    response = new HttpResponse(206)
+                            .withFileBody(body.region(range.start(), range.length()))
+                            .withContentType(contentType)
+                            .withHeader("Content-Range", range.contentRange(length));
+                } else {
+                    String boundary = newBoundary();
+                    for (ByteRange range : ranges) {
+                        body.bytes(partHeader(boundary, contentType, range, length)).region(range.start(), range.length());
+                    }
+                    body.bytes(closeDelimiter(boundary));
+                    response = new HttpResponse(206)
+                            .withFileBody(body)
+                            .withContentType("multipart/byteranges; boundary=" + boundary);
+                }
             }
+            response.withHeader("Accept-Ranges", "bytes");
+        }
+        response.withHeader("ETag", etag)
+                .withHeader("Last-Modified", HttpDates.format(lastModified));
+        if (cacheControl != null) {
+            response.withHeader("Cache-Control", cacheControl);
+        }
+        return response;
+    }
+
+    // Files above the cache's per-file limit are served uncompressed rather than compressed on every request
+    private long maxCompressedBytes() {
+        return cache != null ? cache.getMaxFileBytes() : StaticFileCache.DEFAULT_MAX_FILE_BYTES;
+    }
+
+    /**
+     * Evaluates the conditional headers of a GET per RFC 9110 section 13.2.2:
+     * If-None-Match takes precedence, and If-Modified-Since is only used when it is absent.
+     * @param request the request
+     * @param lastModified the modification time of the file, truncated to seconds
+     * @param etag the entity tag of the representation that would be sent
+     * @return true if the client's cached copy is still current
+     */
+    private boolean isNotModified(HttpRequest request, long lastModified, String etag) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return etagMatches(ifNoneMatch, etag);
+        }
+        String ifModifiedSince = request.getHeader("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            long since = HttpDates.parse(ifModifiedSince);
+            return since >= 0 && lastModified <= since;
+        }
+        return false;
+    }
 
-            byte[] bodyBytes = is.readAllBytes();
-            is.close();
+    /**
+     * Evaluates Range and If-Range per RFC 9110 sections 14.2 and 13.1.5.
+     * If-Range must match with a strong entity tag or the exact Last-Modified date, otherwise the whole
+     * representation is sent, since the client's partial copy is of an older version.
+     * @param request the request
+     * @param length the length of the representation
+     * @param etag the entity tag of the representation
+     * @param lastModified the modification time, truncated to seconds
+     * @return the ranges to send (empty if none are satisfiable), or null to send the whole representation
+     */
+    private List<ByteRange> requestedRanges(HttpRequest request, long length, String etag, long lastModified) {
+        String range = request.getHeader("Range");
+        if (range == null || !"GET".equals(request.getMethod())) {
+            return null;
+        }
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange != null) {
+            ifRange = ifRange.trim();
+            boolean current = ifRange.startsWith("\"")
+                    ? ifRange.equals(etag)
+                    : !ifRange.startsWith("W/") && HttpDates.parse(ifRange) == lastModified;
+            if (!current) {
+                return null;
+            }
+        }
+        return ByteRange.parse(range, length);
+    }
 
-            return new HttpResponse(200)
-                    .withBodyBytes(bodyBytes)
-                    .withContentType(contentType);
+    // 206 (or 416) for in-memory content
+    private HttpResponse rangeResponse(byte[] content, List<ByteRange> ranges, String contentType) {
+        if (ranges.isEmpty()) {
+            return notSatisfiable(content.length);
+        }
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            return new HttpResponse(206)
+                    .withBodyBytes(Arrays.copyOfRange(content, (int) range.start(), (int) range.end() + 1))
+                    .withContentType(contentType)
+                    .withHeader("Content-Range", range.contentRange(content.length));
+        }
+        String boundary = newBoundary();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (ByteRange range : ranges) {
+            body.writeBytes(partHeader(boundary, contentType, range, content.length));
+            body.write(content, (int) range.start(), (int) range.length());
+        }
+        body.writeBytes(closeDelimiter(boundary));
+        return new HttpResponse(206)
+                .withBodyBytes(body.toByteArray())
+                .withContentType("multipart/byteranges; boundary=" + boundary);
+    }
+
+    private static HttpResponse notSatisfiable(long length) {
+        return new HttpResponse(416).withHeader("Content-Range", "bytes */" + length);
+    }
+
+    private static HttpResponse notFound() {
+        return new HttpResponse(404, "File Not Found")
+                .withContentType("text/plain");
+    }
+
+    private static String newBoundary() {
+        byte[] random = new byte[12];
+        ThreadLocalRandom.current().nextBytes(random);
+        return HexFormat.of().formatHex(random);
+    }
+
+    // The delimiter and headers that open one part of a multipart/byteranges body (RFC 9110 section 14.6)
+    private static byte[] partHeader(String boundary, String contentType, ByteRange range, long length) {
+        return ("\r\n--" + boundary + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Range: " + range.contentRange(length) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] closeDelimiter(String boundary) {
+        return ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Maps a request path onto a regular file under a filesystem root. The path is percent-decoded and
+     * rejected if it has ".." segments, backslashes, or NUL bytes; the resolved file must stay under the
+     * root after symbolic links are followed.
+     * @param root the absolute, real path of the mounted directory
+     * @param relativePath the request path below the mount
+     * @return the real path of the file (or of the directory's index.html), or null if there is none
+     */
+    private static Path resolve(Path root, String relativePath) {
+        String decoded = decodePath(relativePath);
+        if (decoded == null || !isSafePath(decoded)) {
+            return null;
+        }
+        while (decoded.startsWith("/")) {
+            decoded = decoded.substring(1);
+        }
+        try {
+            Path path = root.resolve(decoded).normalize();
+            if (Files.isDirectory(path)) {
+                path = path.resolve("index.html");
+            }
+            path = path.toRealPath();
+            if (!path.startsWith(root) || !Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+                return null;
+            }
+            return path;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            return null; // Invalid path for this filesystem, or unreadable
+        }
+    }
+
+    // Rejects paths that could climb out of the mounted directory
+    private static boolean isSafePath(String path) {
+        if (path.indexOf('\\') >= 0 || path.indexOf('\0') >= 0) {
+            return false;
+        }
+        for (String segment : path.split("/")) {
+            if (segment.equals("..")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Percent-decodes a request path as UTF-8; request paths hold one char per raw byte
+    private static String decodePath(String path) {
+        if (path.indexOf('%') < 0) {
+            return new String(path.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+        }
+        byte[] raw = path.getBytes(StandardCharsets.ISO_8859_1);
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream(raw.length);
+        for (int i = 0; i < raw.length; i++) {
+            if (raw[i] != '%') {
+                decoded.write(raw[i]);
+                continue;
+            }
+            if (i + 2 >= raw.length) {
+                return null;
+            }
+            int high = Character.digit(raw[i + 1], 16);
+            int low = Character.digit(raw[i + 2], 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            decoded.write(high << 4 | low);
+            i += 2;
+        }
+        return decoded.toString(StandardCharsets.UTF_8);
+    }
+
+    // Weak comparison against a list of entity tags, as If-None-Match requires
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch.trim().equals("*")) {
+            return true;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads a file from the classpath.
+     * @param filePath the classpath-absolute path of the file
+     * @return the file, or null if it does not exist
+     */
+    private StaticFile loadFile(String filePath) {
+        URL url = getClass().getResource(filePath);
+        if (url == null) {
+            return null;
+        }
+        try {
+            URLConnection connection = url.openConnection();
+            try (InputStream is = connection.getInputStream()) {
+                String fileName = filePath.substring(filePath.lastIndexOf('/') + 1);
+                long lastModified = connection.getLastModified();
+                return new StaticFile(is.readAllBytes(), getContentType(fileName),
+                        lastModified > 0 ? lastModified : System.currentTimeMillis());
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -62,6 +445,9 @@ public class HttpStaticRequestHandler {
             case "gif" -> "image/gif";
             case "svg" -> "image/svg+xml";
             case "pdf" -> "application/pdf";
+            case "mp4" -> "video/mp4";
+            case "webm" -> "video/webm";
+            case "mp3" -> "audio/mpeg";
             default -> "text/plain";
         };
     }
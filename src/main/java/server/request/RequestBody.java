@@ -0,0 +1,88 @@
+package server.request;
+
+import server.exceptions.HttpParseException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The body of a request, either already in memory or still arriving on the connection.
+ * A handler can take it as a stream with {@link #getStream()} to process it as it arrives, or as bytes with
+ * {@link #getBytes()}, which reads the rest of it into memory; a streamed body can only be taken once.
+ * Reads fail with an {@link HttpParseException} (413) once the body passes the route's size limit, which may
+ * allow streamed bodies of any size; bodies read into memory are also limited to {@link #MAX_BUFFERED_BYTES}.
+ * Not thread-safe; only the handler's thread reads it.
+ */
+public class RequestBody {
+
+    /** The largest body that fits in one array. */
+    public static final int MAX_BUFFERED_BYTES = Integer.MAX_VALUE - 8;
+
+    private InputStream stream;
+    private long length = -1;
+    private byte[] bytes;
+    private boolean streamTaken;
+
+    /**
+     * @param bytes a body that has already been read
+     */
+    public RequestBody(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * @param stream a body that is read from the connection on demand
+     */
+    public RequestBody(InputStream stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * @param stream a body that is read from the connection on demand
+     * @param length its declared Content-Length, or -1 if unknown (chunked)
+     */
+    public RequestBody(InputStream stream, long length) {
+        this.stream = stream;
+        this.length = length;
+    }
+
+    /**
+     * @return the body as a stream
+     * @throws IllegalStateException if the body was streamed and has already been taken
+     */
+    public InputStream getStream() {
+        if (bytes != null) {
+            return new ByteArrayInputStream(bytes);
+        }
+        if (streamTaken) {
+            throw new IllegalStateException("The request body has already been taken as a stream");
+        }
+        streamTaken = true;
+        return stream;
+    }
+
+    /**
+     * @return the whole body, read into memory on first use
+     * @throws IOException if the connection fails while the body is read
+     * @throws HttpParseException if the body is larger than {@link #MAX_BUFFERED_BYTES} (413)
+     * @throws IllegalStateException if the body has already been taken as a stream
+     */
+    public byte[] getBytes() throws IOException {
+        if (bytes == null) {
+            if (streamTaken) {
+                throw new IllegalStateException("The request body has already been taken as a stream");
+            }
+            if (length > MAX_BUFFERED_BYTES) {
+                throw new HttpParseException(413, "Request body too large to read into memory");
+            }
+            byte[] read = stream.readNBytes(MAX_BUFFERED_BYTES);
+            if (read.length == MAX_BUFFERED_BYTES && stream.read() != -1) {
+                throw new HttpParseException(413, "Request body too large to read into memory");
+            }
+            bytes = read;
+            stream = null;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,31 @@
+package server.request;
+
+/**
+ * How long a client may take to send each part of a request, so that clients that connect and then send slowly
+ * or not at all (slowloris) cannot hold connections, and on the blocking transport workers, indefinitely.
+ * Timeouts other than the idle one count from the first byte of the request, not from each read, so trickling
+ * one byte at a time does not extend them. Over a timeout the request is answered with 408 and the connection
+ * is closed.
+ *
+ * @param idleMillis        how long a connection may wait for the first byte of a request
+ * @param requestLineMillis how long after its first byte the request line must be complete
+ * @param headersMillis     how long after its first byte the whole head must be complete
+ * @param bodyMillis        the longest the client may pause while sending the body
+ * @param minBodyRate       the slowest average rate a body may arrive at, in bytes per second, or 0 for none
+ * @param minBodyRateGraceMillis how long a body may arrive slower than the minimum rate, e.g. while TCP ramps up
+ */
+public record RequestTimeouts(long idleMillis, long requestLineMillis, long headersMillis, long bodyMillis,
+                              long minBodyRate, long minBodyRateGraceMillis) {
+
+    /**
+     * @param bodyStartNanos when the body started to arrive
+     * @param bodyBytes      body bytes received so far
+     * @return the {@link System#nanoTime()} by which more of the body must have arrived to keep to the minimum rate
+     */
+    public long bodyRateDeadline(long bodyStartNanos, long bodyBytes) {
+        if (minBodyRate <= 0) {
+            return bodyStartNanos + Long.MAX_VALUE / 2;
+        }
+        return bodyStartNanos + (minBodyRateGraceMillis + bodyBytes * 1000 / minBodyRate) * 1_000_000;
+    }
+}
@@ -0,0 +1,24 @@
+package server.request;
+
+/**
+ * The part of an exchange a connection timed out in. Exported as the phase label of the timeout metric.
+ */
+public enum TimeoutPhase {
+    /** The request line did not arrive in time. */
+    REQUEST_LINE,
+    /** The header fields did not arrive in time. */
+    HEADERS,
+    /** The client paused sending the body for too long. */
+    BODY,
+    /** The body arrived slower than the minimum data rate. */
+    BODY_RATE,
+    /** The client stopped reading the response. */
+    WRITE;
+
+    /**
+     * @return the label value, e.g. "request_line"
+     */
+    public String label() {
+        return name().toLowerCase();
+    }
+}
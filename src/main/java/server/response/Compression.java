@@ -0,0 +1,163 @@
+package server.response;
+
+import server.request.HttpRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Response compression settings and gzip/deflate content negotiation.
+ * Only bodies of at least {@code minSize} bytes with an allowlisted Content-Type are compressed,
+ * so small responses and already-compressed formats (PNG, JPEG, PDF, ...) are sent as they are.
+ */
+public class Compression {
+
+    public static final int DEFAULT_MIN_SIZE = 1024;
+    public static final Set<String> DEFAULT_CONTENT_TYPES = Set.of(
+            "text/html", "text/css", "text/plain", "text/javascript", "text/xml",
+            "application/javascript", "application/json", "application/xml", "image/svg+xml");
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private final int minSize;
+    private final Set<String> contentTypes;
+
+    public Compression() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_CONTENT_TYPES);
+    }
+
+    /**
+     * @param minSize the smallest body size, in bytes, worth compressing
+     * @param contentTypes the media types (without parameters) that may be compressed
+     */
+    public Compression(int minSize, Set<String> contentTypes) {
+        if (minSize < 0) {
+            throw new IllegalArgumentException("Minimum compression size must be non-negative.");
+        }
+        this.minSize = minSize;
+        this.contentTypes = Set.copyOf(contentTypes);
+    }
+
+    /**
+     * @param contentType the Content-Type header value, possibly with parameters
+     * @param length the body length in bytes
+     * @return true if a body of this type and size should be compressed
+     */
+    public boolean isCompressible(String contentType, int length) {
+        if (contentType == null || length < minSize) {
+            return false;
+        }
+        int semicolon = contentType.indexOf(';');
+        String mediaType = (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType).trim().toLowerCase();
+        return contentTypes.contains(mediaType);
+    }
+
+    /**
+     * Compress a finished response body in place if the client accepts a supported encoding.
+     * Responses that already have a Content-Encoding, partial (206) responses, file-backed and streaming
+     * bodies, and responses that are not 2xx are left alone.
+     * @param request the request, for its Accept-Encoding header
+     * @param response the response to compress
+     */
+    public void apply(HttpRequest request, HttpResponse response) {
+        int status = response.getStatusCode();
+        if (status < 200 || status >= 300 || status == 204 || status == 206
+                || response.getFileBody() != null || response.getStreamingBody() != null
+                || response.getHeaders().containsKey("Content-Encoding")) {
+            return;
+        }
+        byte[] body = response.getBodyBytes();
+        if (body == null || !isCompressible(response.getHeaders().get("Content-Type"), body.length)) {
+            return;
+        }
+        addVary(response);
+        String encoding = negotiate(request.getHeader("Accept-Encoding"));
+        if (encoding == null) {
+            return;
+        }
+        byte[] compressed = compress(body, encoding);
+        if (compressed.length < body.length) {
+            response.setBodyBytes(compressed);
+            response.withHeader("Content-Encoding", encoding);
+        }
+    }
+
+    /**
+     * Mark a response as varying by Accept-Encoding, so shared caches keep one copy per encoding.
+     * @param response the response
+     */
+    public static void addVary(HttpResponse response) {
+        String vary = response.getHeaders().get("Vary");
+        if (vary == null) {
+            response.withHeader("Vary", "Accept-Encoding");
+        } else if (!vary.toLowerCase().contains("accept-encoding")) {
+            response.withHeader("Vary", vary + ", Accept-Encoding");
+        }
+    }
+
+    /**
+     * Choose an encoding from an Accept-Encoding header, preferring gzip over deflate.
+     * Codings with q=0 are refused; "*" accepts any coding not listed explicitly.
+     * @param acceptEncoding the header value, or null
+     * @return {@link #GZIP}, {@link #DEFLATE}, or null to send the body uncompressed
+     */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return null;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase();
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            switch (coding) {
+                case GZIP, "x-gzip" -> gzip = q;
+                case DEFLATE -> deflate = q;
+                case "*" -> any = q;
+                default -> {
+                }
+            }
+        }
+        if (gzip < 0) {
+            gzip = any;
+        }
+        if (deflate < 0) {
+            deflate = any;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : null;
+    }
+
+    /**
+     * @param data the bytes to compress
+     * @param encoding {@link #GZIP} or {@link #DEFLATE} (zlib format, as HTTP's "deflate" coding specifies)
+     * @return the compressed bytes
+     */
+    public static byte[] compress(byte[] data, String encoding) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (DeflaterOutputStream out = GZIP.equals(encoding) ? new GZIPOutputStream(buffer) : new DeflaterOutputStream(buffer)) {
+            out.write(data);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // In-memory streams do not throw
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,118 @@
+package server.response;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A response body sent straight from an open file with {@link FileChannel#transferTo}, which lets the kernel
+ * copy the file's pages to the socket (sendfile) without bringing them onto the Java heap.
+ * The body is a sequence of file regions, optionally interleaved with small in-memory parts such as the
+ * boundaries of a multipart/byteranges response. It owns the channel and must be closed once written.
+ * Writes resume where they left off, so the same body can be written to a blocking or non-blocking socket.
+ */
+public class FileBody implements Closeable {
+
+    private final FileChannel channel;
+    private final List<Object> parts = new ArrayList<>(); // byte[] or long[] {position, count}
+    private long length;
+
+    // Write progress: the current part and how much of it has been written
+    private int partIndex;
+    private long partOffset;
+    private ByteBuffer pending;
+
+    /**
+     * @param channel the open file; closed together with the body
+     */
+    public FileBody(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Append a region of the file.
+     * @param position the offset of the region in the file
+     * @param count the number of bytes
+     * @return this body (for chaining)
+     */
+    public FileBody region(long position, long count) {
+        parts.add(new long[]{position, count});
+        length += count;
+        return this;
+    }
+
+    /**
+     * Append bytes that are sent from memory between file regions.
+     * @param bytes the bytes
+     * @return this body (for chaining)
+     */
+    public FileBody bytes(byte[] bytes) {
+        parts.add(bytes);
+        length += bytes.length;
+        return this;
+    }
+
+    /**
+     * @return the total number of bytes the body sends
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Write as much of the remaining body as the target accepts.
+     * On a blocking channel this writes everything; on a non-blocking one it stops when the socket buffer is full.
+     * @param target the socket channel
+     * @return true if the whole body has been written
+     * @throws IOException if writing fails or the file was truncated while being sent
+     */
+    public boolean writeTo(WritableByteChannel target) throws IOException {
+        while (partIndex < parts.size()) {
+            Object part = parts.get(partIndex);
+            if (part instanceof byte[] bytes) {
+                if (pending == null) {
+                    pending = ByteBuffer.wrap(bytes);
+                }
+                if (target.write(pending) == 0 && pending.hasRemaining()) {
+                    return false;
+                }
+                if (pending.hasRemaining()) {
+                    continue;
+                }
+                pending = null;
+            } else {
+                long[] region = (long[]) part;
+                long remaining = region[1] - partOffset;
+                if (remaining > 0) {
+                    long written = channel.transferTo(region[0] + partOffset, remaining, target);
+                    if (written == 0) {
+                        if (region[0] + partOffset >= channel.size()) {
+                            throw new EOFException("File was truncated while being sent");
+                        }
+                        return false;
+                    }
+                    partOffset += written;
+                    if (partOffset < region[1]) {
+                        continue;
+                    }
+                }
+            }
+            partIndex++;
+            partOffset = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -1,7 +1,8 @@
 package server.response;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import server.json.JsonCodec;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
@@ -9,13 +10,20 @@ import java.util.Map;
 /**
  * Represents an HTTP response with status code, headers, and body.
  * The body can be a String or any Object (which will be serialized to JSON).
- * Default headers include Content-Length, Connection, and Content-Type.
+ * Object bodies are encoded by the server's {@link JsonCodec} when the response is written.
+ * A {@link FileBody} can be sent instead of in-memory bytes, streaming straight from a file, and a
+ * {@link StreamingBody} can generate the body while it is being sent.
+ * Default headers include Content-Length and Content-Type; the server sets Connection per request.
  */
 public class HttpResponse {
     private int statusCode;
     private final Map<String, String> headers = new HashMap<>();
     private Object body;
-    private byte[] bodyBytes;
+    private byte[] bodyBytes; // null while an object body is waiting to be encoded as JSON
+    private FileBody fileBody; // Sent instead of bodyBytes when set
+    private StreamingBody streamingBody; // Sent instead of bodyBytes when set
+    private long streamingLength = -1;
+    private JsonCodec jsonCodec = JsonCodec.getDefault(); // The server's, once encodeBody has run; for streamed JSON
     private String httpVersion = "HTTP/1.1";
 
     public HttpResponse() {
@@ -23,7 +31,6 @@ public class HttpResponse {
         this.body = "";
         this.bodyBytes = new byte[0];
         this.headers.put("Content-Length", "0");
-        this.headers.put("Connection", "close");
         this.headers.put("Content-Type", "text/plain");
     }
     public HttpResponse(int statusCode) {
@@ -31,19 +38,13 @@ public class HttpResponse {
         this.body = "";
         this.bodyBytes = new byte[0];
         this.headers.put("Content-Length", "0");
-        this.headers.put("Connection", "close");
         this.headers.put("Content-Type", "text/plain");
     }
 
     public HttpResponse(int statusCode, Object body) {
         this.statusCode = statusCode;
-        this.body = body;
-        this.bodyBytes = body != null ? getBodyAsString().getBytes() : new byte[0];
-
-        // Set default headers if not provided
-        this.headers.putIfAbsent("Content-Length", body != null ? String.valueOf(getBodyBytes().length) : "0");
-        this.headers.putIfAbsent("Connection", "close");
-        this.headers.putIfAbsent("Content-Type", "text/plain");
+        this.headers.put("Content-Type", "text/plain");
+        setBodyObject(body);
     }
 
     public int getStatusCode() {
@@ -59,6 +60,9 @@ public class HttpResponse {
     }
 
     public byte[] getBodyBytes() {
+        if (bodyBytes == null) {
+            encodeBody(JsonCodec.getDefault());
+        }
         return bodyBytes;
     }
 
@@ -66,12 +70,46 @@ public class HttpResponse {
         if (body instanceof String) {
             return (String) body;
         }
-        ObjectMapper objectMapper = new ObjectMapper();
+        return body != null ? new String(getBodyBytes(), StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Encode an object body as JSON, if it has not been encoded yet.
+     * The server calls this with its configured codec before writing the response.
+     * @param codec the codec to encode with
+     */
+    public void encodeBody(JsonCodec codec) {
+        jsonCodec = codec;
+        if (bodyBytes != null) {
+            return;
+        }
         try {
-            return objectMapper.writeValueAsString(body);
-        } catch (Exception e) {
-            return body != null ? body.toString() : null;
+            bodyBytes = codec.write(body);
+        } catch (IOException e) {
+            bodyBytes = String.valueOf(body).getBytes(StandardCharsets.UTF_8);
         }
+        headers.put("Content-Length", String.valueOf(bodyBytes.length));
+    }
+
+    /**
+     * @return the file-backed body, or null if the body is in memory
+     */
+    public FileBody getFileBody() {
+        return fileBody;
+    }
+
+    /**
+     * @return the body writer, or null if the body is not streamed
+     */
+    public StreamingBody getStreamingBody() {
+        return streamingBody;
+    }
+
+    /**
+     * @return the declared length of the streaming body, or -1 if it is unknown
+     */
+    public long getStreamingLength() {
+        return streamingLength;
     }
 
     public String getHttpVersion() {
@@ -84,6 +122,7 @@ public class HttpResponse {
 
     public void setBodyBytes(byte[] bodyBytes) {
         this.bodyBytes = bodyBytes;
+        this.streamingBody = null;
     }
 
     public void putHeader(String key, String value) {
@@ -92,7 +131,7 @@ public class HttpResponse {
 
     public void setBody(String body) {
         this.body = body;
-        this.bodyBytes = body != null ? body.getBytes() : new byte[0];
+        this.bodyBytes = body != null ? body.getBytes(StandardCharsets.UTF_8) : new byte[0];
     }
 
     public void setHttpVersion(String httpVersion) {
@@ -105,9 +144,8 @@ public class HttpResponse {
     }
 
     public HttpResponse withBody(Object body) {
-        this.body = body;
-        this.bodyBytes = body != null ? getBodyAsString().getBytes() : new byte[0];
-        return this.withHeader("Content-Length", body != null ? String.valueOf(getBodyBytes().length) : "0");
+        setBodyObject(body);
+        return this;
     }
 
     public HttpResponse withStatus(int statusCode) {
@@ -126,11 +164,83 @@ public class HttpResponse {
         return this.withHeader("Content-Length", bodyBytes != null ? String.valueOf(bodyBytes.length) : "0");
     }
 
+    /**
+     * Send the body from a file instead of memory. The transport writes it after the headers and closes it.
+     * @param fileBody the file regions to send
+     * @return the response (for chaining)
+     */
+    public HttpResponse withFileBody(FileBody fileBody) {
+        this.fileBody = fileBody;
+        this.body = null;
+        this.bodyBytes = new byte[0];
+        return this.withHeader("Content-Length", String.valueOf(fileBody.length()));
+    }
+
+    /**
+     * Generate the body while it is sent, with Transfer-Encoding: chunked since its length is not known.
+     * @param streamingBody writes the body to the client
+     * @return the response (for chaining)
+     */
+    public HttpResponse withStreamingBody(StreamingBody streamingBody) {
+        return withStreamingBody(streamingBody, -1);
+    }
+
+    /**
+     * Generate the body while it is sent.
+     * @param streamingBody writes the body to the client; must write exactly {@code length} bytes if it is known
+     * @param length the body length, sent as Content-Length, or -1 if unknown
+     * @return the response (for chaining)
+     */
+    public HttpResponse withStreamingBody(StreamingBody streamingBody, long length) {
+        this.streamingBody = streamingBody;
+        this.streamingLength = length;
+        this.body = null;
+        this.bodyBytes = new byte[0];
+        if (length >= 0) {
+            return this.withHeader("Content-Length", String.valueOf(length));
+        }
+        this.headers.remove("Content-Length");
+        return this;
+    }
+
     public HttpResponse json(Object body) {
+        setBodyObject(body);
+        return this.withContentType("application/json");
+    }
+
+    /**
+     * Stream elements as a JSON array, encoded one at a time by the server's {@link JsonCodec} as they are sent,
+     * so neither the elements' JSON nor the whole body is ever held in memory.
+     * @param items the elements, iterated once on the worker thread sending the response
+     * @return the response (for chaining)
+     */
+    public HttpResponse jsonStream(Iterable<?> items) {
+        return withStreamingBody(out -> jsonCodec.writeArray(items, out)).withContentType("application/json");
+    }
+
+    /**
+     * Stream elements as newline-delimited JSON, one document per line, encoded as they are sent.
+     * @param items the elements, iterated once on the worker thread sending the response
+     * @return the response (for chaining)
+     * @see #jsonStream(Iterable)
+     */
+    public HttpResponse ndjsonStream(Iterable<?> items) {
+        return withStreamingBody(out -> jsonCodec.writeLines(items, out)).withContentType("application/x-ndjson");
+    }
+
+    // Strings are encoded right away; other objects wait for the server's JSON codec
+    private void setBodyObject(Object body) {
         this.body = body;
-        this.bodyBytes = body != null ? getBodyAsString().getBytes(StandardCharsets.UTF_8) : new byte[0];
-        this.headers.put("Content-Type", "application/json");
-        return this.withHeader("Content-Length", body != null ? String.valueOf(getBodyBytes().length) : "0");
+        if (body == null) {
+            this.bodyBytes = new byte[0];
+        } else if (body instanceof String text) {
+            this.bodyBytes = text.getBytes(StandardCharsets.UTF_8);
+        } else {
+            this.bodyBytes = null;
+            this.headers.remove("Content-Length");
+            return;
+        }
+        this.headers.put("Content-Length", String.valueOf(bodyBytes.length));
     }
 
     @Override
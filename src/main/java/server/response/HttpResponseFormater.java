@@ -45,6 +45,7 @@ public class HttpResponseFormater {
             case 201 -> "Created";
             case 202 -> "Accepted";
             case 204 -> "No Content";
+            case 206 -> "Partial Content";
 
             // 3xx Redirection
             case 301 -> "Moved Permanently";
@@ -59,9 +60,15 @@ public class HttpResponseFormater {
             case 403 -> "Forbidden";
             case 404 -> "Not Found";
             case 405 -> "Method Not Allowed";
+            case 408 -> "Request Timeout";
             case 409 -> "Conflict";
+            case 413 -> "Content Too Large";
+            case 414 -> "URI Too Long";
+            case 416 -> "Range Not Satisfiable";
+            case 417 -> "Expectation Failed";
             case 422 -> "Unprocessable Entity";
             case 429 -> "Too Many Requests";
+            case 431 -> "Request Header Fields Too Large";
 
             // 5xx Server Error
             case 500 -> "Internal Server Error";
@@ -69,6 +76,7 @@ public class HttpResponseFormater {
             case 502 -> "Bad Gateway";
             case 503 -> "Service Unavailable";
             case 504 -> "Gateway Timeout";
+            case 505 -> "HTTP Version Not Supported";
             default -> "Unknown Status";
         };
     }
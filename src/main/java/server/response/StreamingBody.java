@@ -0,0 +1,48 @@
+package server.response;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A response body that is generated while it is sent, instead of being built in memory first.
+ * The server writes the headers as soon as the handler returns, then calls {@link #writeTo} on a worker
+ * thread with a stream to the client. Each {@link OutputStream#flush()} pushes what has been written so far
+ * onto the wire. When the length is not known up front the body is sent with Transfer-Encoding: chunked
+ * (or, for HTTP/1.0 clients, delimited by closing the connection).
+ * The stream must not be kept after {@code writeTo} returns. Closing it only flushes it; the server ends
+ * the body once {@code writeTo} returns normally. If it throws, the connection is closed mid-body so the
+ * client sees a truncated response rather than a complete one.
+ */
+@FunctionalInterface
+public interface StreamingBody {
+
+    /**
+     * Write the body.
+     * @param out the stream to the client, buffered
+     * @throws IOException if writing fails, for example because the client went away
+     */
+    void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * @param in the stream to copy; closed once it has been sent
+     * @return a body that copies the stream to the client
+     */
+    static StreamingBody of(InputStream in) {
+        return out -> {
+            try (in) {
+                in.transferTo(out);
+            }
+        };
+    }
+
+    /**
+     * @param channel the channel to copy; closed once it has been sent
+     * @return a body that copies the channel to the client
+     */
+    static StreamingBody of(ReadableByteChannel channel) {
+        return of(Channels.newInputStream(channel));
+    }
+}
@@ -33,6 +33,6 @@ public class Route {
 
     @Override
     public int hashCode() {
-        return Objects.hash(path, method);
+        return 31 * Objects.hashCode(path) + Objects.hashCode(method);
     }
 }
\ No newline at end of file
@@ -0,0 +1,125 @@
+package server.route;
+
+import server.ratelimit.RateLimiter;
+import server.request.HttpRequestHandler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The result of looking up a request in a {@link Router}: the route pattern that matched, its handler,
+ * and the values of its path parameters.
+ * Matches of routes without parameters are shared between requests; parameter values are kept as offsets
+ * into the request path and only turned into Strings when asked for.
+ */
+public class RouteMatch {
+
+    private final Route route;
+    private final HttpRequestHandler handler; // null when the path matched but the method is not allowed
+    private final String allow;
+    private final String[] paramNames;
+    private final long maxBodySize;
+    private final RateLimiter rateLimiter;
+    private final long timeoutMillis;
+    private final String path;
+    private final int[] paramBounds; // [start, end) in path of each parameter value
+
+    RouteMatch(Route route, HttpRequestHandler handler, String allow, String[] paramNames, long maxBodySize,
+               RateLimiter rateLimiter, long timeoutMillis) {
+        this(route, handler, allow, paramNames, maxBodySize, rateLimiter, timeoutMillis, null, null);
+    }
+
+    private RouteMatch(Route route, HttpRequestHandler handler, String allow, String[] paramNames, long maxBodySize,
+                       RateLimiter rateLimiter, long timeoutMillis, String path, int[] paramBounds) {
+        this.route = route;
+        this.handler = handler;
+        this.allow = allow;
+        this.paramNames = paramNames;
+        this.maxBodySize = maxBodySize;
+        this.rateLimiter = rateLimiter;
+        this.timeoutMillis = timeoutMillis;
+        this.path = path;
+        this.paramBounds = paramBounds;
+    }
+
+    // A copy of this template that records parameter values for one request path
+    RouteMatch withPath(String path) {
+        return new RouteMatch(route, handler, allow, paramNames, maxBodySize, rateLimiter, timeoutMillis, path,
+                new int[paramNames.length * 2]);
+    }
+
+    int getPathParamCount() {
+        return paramNames.length;
+    }
+
+    void setParam(int index, int start, int end) {
+        paramBounds[index * 2] = start;
+        paramBounds[index * 2 + 1] = end;
+    }
+
+    /**
+     * @return the route as registered, with its pattern (e.g. "/books/{id}") as the path
+     */
+    public Route getRoute() {
+        return route;
+    }
+
+    /**
+     * @return the handler, or null if the path matched a route but not for the request's method
+     */
+    public HttpRequestHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * @return the methods the matched path accepts, as an Allow header value (e.g. "GET, POST")
+     */
+    public String getAllow() {
+        return allow;
+    }
+
+    /**
+     * @return the route's own request body limit in bytes, or -1 to use the server default
+     */
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * @return the route's own per-client rate limiter, or null if it has none
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @return the route's own timeout for asynchronous handlers in milliseconds, or -1 to use the server default
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @param name the parameter name, as in "{name}", or "*" for a trailing wildcard
+     * @return the parameter's value from the request path (not percent-decoded), or null if the route has no such parameter
+     */
+    public String getPathParam(String name) {
+        for (int i = 0; i < paramNames.length; i++) {
+            if (paramNames[i].equals(name)) {
+                return paramBounds != null ? path.substring(paramBounds[i * 2], paramBounds[i * 2 + 1]) : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return all path parameters in pattern order
+     */
+    public Map<String, String> getPathParams() {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (String name : paramNames) {
+            params.put(name, getPathParam(name));
+        }
+        return params;
+    }
+}
@@ -0,0 +1,286 @@
+package server.route;
+
+import server.ratelimit.RateLimiter;
+import server.request.HttpRequestHandler;
+import server.staticfiles.StaticMount;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * An immutable routing table compiled from the server's routes and static mounts, built once when the server starts.
+ * <p>
+ * Route paths are patterns made of "/"-separated segments. A segment is either literal text, a parameter
+ * {@code {name}} that matches one non-empty segment, or, as the last segment only, a wildcard {@code *}
+ * that matches the rest of the path (available as the parameter "*"). Literal segments take precedence
+ * over parameters, and parameters over wildcards, e.g. "/books/new" wins over "/books/{id}".
+ * <p>
+ * Patterns are stored in a radix tree whose edges are compared in place against the request path,
+ * so a lookup costs O(path length) whatever the number of routes, and allocates nothing unless the
+ * matched route has parameters. Static mounts are kept in a second tree and matched by longest prefix.
+ */
+public class Router {
+
+    private final Node routes = new Node("");
+    private final Node mounts = new Node("");
+
+    /**
+     * @param routes        the handlers by route, whose paths are patterns
+     * @param maxBodySizes  request body limits of individual routes
+     * @param rateLimiters  rate limiters of individual routes
+     * @param timeouts      asynchronous handler timeouts of individual routes, in milliseconds
+     * @param staticMounts  the static file mounts
+     * @throws IllegalArgumentException if a route pattern is malformed
+     */
+    public Router(Map<Route, HttpRequestHandler> routes, Map<Route, Long> maxBodySizes,
+                  Map<Route, RateLimiter> rateLimiters, Map<Route, Long> timeouts,
+                  Collection<StaticMount> staticMounts) {
+        Map<Node, Map<String, Route>> endpoints = new LinkedHashMap<>();
+        Map<Route, String[]> paramNames = new LinkedHashMap<>(); // Methods sharing a node may name them differently
+        for (Route route : routes.keySet()) {
+            List<String> names = new ArrayList<>();
+            Node node = insertPattern(route.getPath(), names);
+            endpoints.computeIfAbsent(node, n -> new LinkedHashMap<>()).put(route.getMethod(), route);
+            paramNames.put(route, names.toArray(new String[0]));
+        }
+        for (Map.Entry<Node, Map<String, Route>> entry : endpoints.entrySet()) {
+            Node node = entry.getKey();
+            String allow = String.join(", ", new TreeSet<>(entry.getValue().keySet()));
+            node.notAllowed = new RouteMatch(null, null, allow, new String[0], -1, null, -1);
+            node.methods = new LinkedHashMap<>();
+            for (Route route : entry.getValue().values()) {
+                Long maxBodySize = maxBodySizes.get(route);
+                Long timeout = timeouts.get(route);
+                node.methods.put(route.getMethod(), new RouteMatch(route, routes.get(route), allow,
+                        paramNames.get(route), maxBodySize != null ? maxBodySize : -1, rateLimiters.get(route),
+                        timeout != null ? timeout : -1));
+            }
+        }
+        for (StaticMount mount : staticMounts) {
+            String urlPath = mount.getUrlPath();
+            insertLiteral(mounts, urlPath.substring(0, urlPath.length() - 1)).mount = mount;
+        }
+    }
+
+    /**
+     * Find the route for a request.
+     * @param method the request method
+     * @param path   the request path, without the query string
+     * @return the match, one without a handler if the path matches a route but the method does not (405),
+     *         or null if no route matches the path
+     */
+    public RouteMatch find(String method, String path) {
+        RouteMatch match = find(routes, method, path, 0, 0);
+        if (match == null) {
+            match = find(routes, null, path, 0, 0);
+        }
+        return match;
+    }
+
+    /**
+     * Find the static mount with the longest URL prefix containing a path.
+     * A mount's prefix contains a path if the path starts with it or equals it without its trailing "/".
+     * @param path the request path
+     * @return the mount, or null if none contains the path
+     */
+    public StaticMount findMount(String path) {
+        StaticMount found = null;
+        Node node = mounts;
+        int pos = 0;
+        while (true) {
+            if (node.mount != null && (pos == path.length() || path.charAt(pos) == '/')) {
+                found = node.mount;
+            }
+            if (pos == path.length()) {
+                return found;
+            }
+            node = node.child(path, pos);
+            if (node == null) {
+                return found;
+            }
+            pos += node.label.length();
+        }
+    }
+
+    /**
+     * Match the rest of the path from pos against the subtree below node, backtracking from literal edges
+     * to parameters to wildcards. Parameter values are recorded while unwinding, once a route has matched.
+     * A null method matches any method and yields the 405 match of the first route whose path matches.
+     */
+    private static RouteMatch find(Node node, String method, String path, int pos, int paramIndex) {
+        if (pos == path.length()) {
+            RouteMatch match = node.endpoint(method, path);
+            if (match != null) {
+                return match;
+            }
+        } else {
+            Node child = node.child(path, pos);
+            if (child != null) {
+                RouteMatch match = find(child, method, path, pos + child.label.length(), paramIndex);
+                if (match != null) {
+                    return match;
+                }
+            }
+            if (node.param != null) {
+                int end = path.indexOf('/', pos);
+                if (end < 0) {
+                    end = path.length();
+                }
+                if (end > pos) {
+                    RouteMatch match = find(node.param, method, path, end, paramIndex + 1);
+                    if (match != null) {
+                        if (method != null) {
+                            match.setParam(paramIndex, pos, end);
+                        }
+                        return match;
+                    }
+                }
+            }
+        }
+        if (node.wildcard != null) {
+            RouteMatch match = node.wildcard.endpoint(method, path);
+            if (match != null) {
+                if (method != null) {
+                    match.setParam(paramIndex, pos, path.length());
+                }
+                return match;
+            }
+        }
+        return null;
+    }
+
+    private Node insertPattern(String pattern, List<String> paramNames) {
+        if (!pattern.startsWith("/")) {
+            throw new IllegalArgumentException("Route path must start with '/': " + pattern);
+        }
+        Node node = routes;
+        StringBuilder literal = new StringBuilder();
+        String[] segments = pattern.substring(1).split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            literal.append('/');
+            if (segment.equals("*")) {
+                if (i != segments.length - 1) {
+                    throw new IllegalArgumentException("Wildcard must be the last segment: " + pattern);
+                }
+                node = insertLiteral(node, literal.toString());
+                if (node.wildcard == null) {
+                    node.wildcard = new Node("");
+                }
+                paramNames.add("*");
+                return node.wildcard;
+            }
+            if (segment.startsWith("{") && segment.endsWith("}") && segment.length() > 2) {
+                String name = segment.substring(1, segment.length() - 1);
+                if (paramNames.contains(name) || name.equals("*")) {
+                    throw new IllegalArgumentException("Duplicate path parameter '" + name + "': " + pattern);
+                }
+                node = insertLiteral(node, literal.toString());
+                literal.setLength(0);
+                if (node.param == null) {
+                    node.param = new Node("");
+                }
+                node = node.param;
+                paramNames.add(name);
+                continue;
+            }
+            if (segment.indexOf('{') >= 0 || segment.indexOf('}') >= 0 || segment.indexOf('*') >= 0) {
+                throw new IllegalArgumentException("Invalid route segment '" + segment + "': " + pattern);
+            }
+            literal.append(segment);
+        }
+        return insertLiteral(node, literal.toString());
+    }
+
+    /**
+     * Walk down the literal edges spelling text, splitting an edge or adding one where the text leaves the tree.
+     * Splitting keeps existing nodes below the new one, so nodes returned earlier stay valid.
+     * @return the node at the end of the text
+     */
+    private static Node insertLiteral(Node node, String text) {
+        int pos = 0;
+        while (pos < text.length()) {
+            Node child = node.child(text.charAt(pos));
+            if (child == null) {
+                child = new Node(text.substring(pos));
+                node.addChild(child);
+                return child;
+            }
+            int common = 0;
+            int max = Math.min(child.label.length(), text.length() - pos);
+            while (common < max && child.label.charAt(common) == text.charAt(pos + common)) {
+                common++;
+            }
+            if (common < child.label.length()) {
+                child = node.split(child, common);
+            }
+            node = child;
+            pos += common;
+        }
+        return node;
+    }
+
+    private static final class Node {
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        String label; // The literal text on the edge into this node
+        Node[] children = NO_CHILDREN; // Literal edges, each starting with a different character
+        Node param;    // The node after a {name} segment
+        Node wildcard; // The node after a trailing * segment
+        Map<String, RouteMatch> methods; // Matches by method for a route ending here, or null
+        RouteMatch notAllowed;
+        StaticMount mount;
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        Node child(char first) {
+            for (Node child : children) {
+                if (child.label.charAt(0) == first) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        // The literal edge that matches path at pos, or null
+        Node child(String path, int pos) {
+            Node child = child(path.charAt(pos));
+            return child != null && path.startsWith(child.label, pos) ? child : null;
+        }
+
+        void addChild(Node child) {
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = child;
+        }
+
+        // Put a new node for the first `at` characters of child's label between this node and child
+        Node split(Node child, int at) {
+            Node head = new Node(child.label.substring(0, at));
+            child.label = child.label.substring(at);
+            head.children = new Node[]{child};
+            children[Arrays.asList(children).indexOf(child)] = head;
+            return head;
+        }
+
+        RouteMatch endpoint(String method, String path) {
+            if (methods == null) {
+                return null;
+            }
+            if (method == null) {
+                return notAllowed;
+            }
+            RouteMatch match = methods.get(method);
+            if (match == null || match.getPathParamCount() == 0) {
+                return match;
+            }
+            return match.withPath(path);
+        }
+    }
+}
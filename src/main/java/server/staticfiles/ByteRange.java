@@ -0,0 +1,96 @@
+package server.staticfiles;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A satisfiable byte range of a representation, from a Range request header (RFC 9110 section 14.1.2).
+ *
+ * @param start the first byte position
+ * @param end the last byte position, inclusive
+ */
+public record ByteRange(long start, long end) {
+
+    /**
+     * Requests with more ranges than this are answered with the whole representation,
+     * so a single request cannot make the server send thousands of tiny parts.
+     */
+    public static final int MAX_RANGES = 16;
+
+    public long length() {
+        return end - start + 1;
+    }
+
+    /**
+     * @param totalLength the length of the whole representation
+     * @return the Content-Range header value for this range
+     */
+    public String contentRange(long totalLength) {
+        return "bytes " + start + "-" + end + "/" + totalLength;
+    }
+
+    /**
+     * Parses a Range header against a representation of the given length.
+     * Ranges past the end are clipped; ranges that start past the end are dropped.
+     * @param header the Range header value
+     * @param length the length of the representation
+     * @return the satisfiable ranges in request order, an empty list if none are satisfiable (416),
+     *         or null if the header is malformed, uses another unit, or asks for too many ranges (serve 200)
+     */
+    public static List<ByteRange> parse(String header, long length) {
+        if (header.length() < 6 || !header.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+        String[] specs = header.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<ByteRange> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            long first;
+            long last;
+            try {
+                if (dash == 0) { // Suffix range: the last N bytes
+                    long suffix = parsePosition(spec.substring(1));
+                    if (suffix == 0 || length == 0) {
+                        continue;
+                    }
+                    first = Math.max(0, length - suffix);
+                    last = length - 1;
+                } else {
+                    first = parsePosition(spec.substring(0, dash));
+                    last = dash == spec.length() - 1 ? Long.MAX_VALUE : parsePosition(spec.substring(dash + 1));
+                    if (last < first) {
+                        return null;
+                    }
+                    if (first >= length) {
+                        continue;
+                    }
+                    last = Math.min(last, length - 1);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            ranges.add(new ByteRange(first, last));
+        }
+        return ranges;
+    }
+
+    private static long parsePosition(String digits) {
+        if (digits.isEmpty() || digits.length() > 18) {
+            throw new NumberFormatException(digits);
+        }
+        for (int i = 0; i < digits.length(); i++) {
+            char c = digits.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException(digits);
+            }
+        }
+        return Long.parseLong(digits);
+    }
+}
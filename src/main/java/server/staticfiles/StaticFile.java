@@ -0,0 +1,151 @@
+package server.staticfiles;
+
+import server.response.Compression;
+import server.response.HttpDates;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * A static file loaded into memory, with its Content-Type, strong ETag, and Last-Modified date computed once.
+ * Compressible files can also hold gzip and deflate variants, compressed once when the file is loaded
+ * (or only the negotiated one, for a file that is served without being cached).
+ */
+public class StaticFile {
+    private final byte[] content;
+    private final String contentType;
+    private final long lastModified;
+    private final String lastModifiedHeader;
+    private final String etag;
+    private byte[] gzipContent;
+    private byte[] deflateContent;
+    volatile long lastAccess; // Recency stamp used by StaticFileCache for LRU eviction
+
+    /**
+     * @param content the file bytes
+     * @param contentType the Content-Type to serve the file with
+     * @param lastModified the modification time in epoch milliseconds
+     */
+    public StaticFile(byte[] content, String contentType, long lastModified) {
+        this.content = content;
+        this.contentType = contentType;
+        this.lastModified = lastModified - lastModified % 1000; // HTTP-dates have one second resolution
+        this.lastModifiedHeader = HttpDates.format(this.lastModified);
+        this.etag = computeEtag(content);
+    }
+
+    /**
+     * @return the file bytes; shared between responses and must not be modified
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Compress the file once per supported encoding, if its type and size qualify.
+     * Must be called before the file is shared. Variants that are not smaller than the original are dropped.
+     * @param compression the compression settings
+     */
+    public void precompress(Compression compression) {
+        if (!compression.isCompressible(contentType, content.length)) {
+            return;
+        }
+        gzipContent = smallerOrNull(Compression.compress(content, Compression.GZIP));
+        deflateContent = smallerOrNull(Compression.compress(content, Compression.DEFLATE));
+    }
+
+    /**
+     * Compress the file for a single encoding, if its type and size qualify. Used for files that are not
+     * cached, where compressing the variants the client did not ask for would be wasted work.
+     * Must be called before the file is shared.
+     * @param compression the compression settings
+     * @param encoding {@link Compression#GZIP}, {@link Compression#DEFLATE}, or null to leave the file uncompressed
+     */
+    public void precompress(Compression compression, String encoding) {
+        if (encoding == null || !compression.isCompressible(contentType, content.length)) {
+            return;
+        }
+        byte[] compressed = smallerOrNull(Compression.compress(content, encoding));
+        if (Compression.GZIP.equals(encoding)) {
+            gzipContent = compressed;
+        } else {
+            deflateContent = compressed;
+        }
+    }
+
+    /**
+     * @return true if the file has precompressed variants, so responses vary by Accept-Encoding
+     */
+    public boolean isCompressed() {
+        return gzipContent != null || deflateContent != null;
+    }
+
+    /**
+     * @param encoding {@link Compression#GZIP}, {@link Compression#DEFLATE}, or null for the original bytes
+     * @return the bytes for that encoding, or null if the file has no such variant
+     */
+    public byte[] getContent(String encoding) {
+        if (encoding == null) {
+            return content;
+        }
+        return Compression.GZIP.equals(encoding) ? gzipContent : deflateContent;
+    }
+
+    /**
+     * @param encoding the content encoding of the variant, or null for the original bytes
+     * @return the strong entity tag of that variant, including its quotes
+     */
+    public String getEtag(String encoding) {
+        if (encoding == null) {
+            return etag;
+        }
+        // Each encoding is a different representation and needs its own strong validator
+        return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+    }
+
+    /**
+     * @return the modification time in epoch milliseconds, truncated to whole seconds
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getLastModifiedHeader() {
+        return lastModifiedHeader;
+    }
+
+    /**
+     * @return the strong entity tag, including its quotes
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * @return the memory held by the file and its compressed variants, in bytes
+     */
+    public int size() {
+        return content.length
+                + (gzipContent != null ? gzipContent.length : 0)
+                + (deflateContent != null ? deflateContent.length : 0);
+    }
+
+    private byte[] smallerOrNull(byte[] compressed) {
+        return compressed.length < content.length ? compressed : null;
+    }
+
+    // Strong ETag from a SHA-256 content hash (first 128 bits)
+    private static String computeEtag(byte[] content) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+            return "\"" + HexFormat.of().formatHex(hash, 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
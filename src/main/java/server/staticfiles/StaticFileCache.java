@@ -0,0 +1,152 @@
+package server.staticfiles;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded in-memory cache of static files, keyed by resource path.
+ * Lookups are lock-free; each hit stamps the file with the current time, and when an insert pushes the
+ * cache over its byte budget the least recently used files are evicted until it fits again.
+ * Files larger than the per-file limit are never cached.
+ */
+public class StaticFileCache {
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_MAX_FILE_BYTES = 4L * 1024 * 1024;
+
+    private final long maxBytes;
+    private final long maxFileBytes;
+    private final ConcurrentHashMap<String, StaticFile> files = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final Object evictionLock = new Object();
+
+    public StaticFileCache() {
+        this(DEFAULT_MAX_BYTES, DEFAULT_MAX_FILE_BYTES);
+    }
+
+    /**
+     * @param maxBytes the total size of cached file contents, in bytes
+     * @param maxFileBytes the size above which a file is served without being cached, in bytes
+     */
+    public StaticFileCache(long maxBytes, long maxFileBytes) {
+        if (maxBytes < 0 || maxFileBytes < 0) {
+            throw new IllegalArgumentException("Cache sizes must be non-negative.");
+        }
+        this.maxBytes = maxBytes;
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    /**
+     * Look up a cached file.
+     * @param path the resource path of the file
+     * @return the cached file, or null on a miss
+     */
+    public StaticFile get(String path) {
+        StaticFile file = files.get(path);
+        if (file == null) {
+            misses.increment();
+            return null;
+        }
+        file.lastAccess = System.nanoTime();
+        hits.increment();
+        return file;
+    }
+
+    /**
+     * @param length the uncompressed size of a file, in bytes
+     * @return true if a file of this size is within the cache's limits, so {@link #put} would store it
+     */
+    public boolean admits(long length) {
+        return length <= maxFileBytes && length <= maxBytes;
+    }
+
+    /**
+     * @return the size above which a file is served without being cached, in bytes
+     */
+    public long getMaxFileBytes() {
+        return maxFileBytes;
+    }
+
+    /**
+     * Cache a freshly loaded file if it is within the per-file limit.
+     * @param path the resource path of the file
+     * @param file the loaded file
+     * @return the file to serve: the cached copy if another thread cached the same path first, otherwise the given file
+     */
+    public StaticFile put(String path, StaticFile file) {
+        if (file.size() > maxFileBytes || file.size() > maxBytes) {
+            return file;
+        }
+        file.lastAccess = System.nanoTime();
+        StaticFile existing = files.putIfAbsent(path, file);
+        if (existing != null) {
+            return existing;
+        }
+        if (totalBytes.addAndGet(file.size()) > maxBytes) {
+            evict();
+        }
+        return file;
+    }
+
+    /**
+     * Remove every cached file.
+     */
+    public void clear() {
+        synchronized (evictionLock) {
+            for (Map.Entry<String, StaticFile> entry : files.entrySet()) {
+                if (files.remove(entry.getKey(), entry.getValue())) {
+                    totalBytes.addAndGet(-entry.getValue().size());
+                }
+            }
+        }
+    }
+
+    // Evict least recently used files until the cache is within its budget
+    private void evict() {
+        synchronized (evictionLock) {
+            while (totalBytes.get() > maxBytes) {
+                Map.Entry<String, StaticFile> oldest = null;
+                for (Map.Entry<String, StaticFile> entry : files.entrySet()) {
+                    if (oldest == null || entry.getValue().lastAccess < oldest.getValue().lastAccess) {
+                        oldest = entry;
+                    }
+                }
+                if (oldest == null) {
+                    return;
+                }
+                if (files.remove(oldest.getKey(), oldest.getValue())) {
+                    totalBytes.addAndGet(-oldest.getValue().size());
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the total size of cached file contents, in bytes
+     */
+    public long getSizeBytes() {
+        return totalBytes.get();
+    }
+
+    public int getFileCount() {
+        return files.size();
+    }
+}
@@ -0,0 +1,59 @@
+package server.staticfiles;
+
+import java.nio.file.Path;
+
+/**
+ * A URL path prefix mapped to a directory of static files, either on the classpath or on the filesystem.
+ */
+public class StaticMount {
+    private final String urlPath;
+    private final String directory;
+    private final Path root;
+    private final String cacheControl;
+
+    /**
+     * @param urlPath the normalized URL prefix, ending with "/"
+     * @param directory the normalized classpath directory, starting and ending with "/"
+     * @param cacheControl the Cache-Control header for files served from this mount, or null for none
+     */
+    public StaticMount(String urlPath, String directory, String cacheControl) {
+        this.urlPath = urlPath;
+        this.directory = directory;
+        this.root = null;
+        this.cacheControl = cacheControl;
+    }
+
+    /**
+     * @param urlPath the normalized URL prefix, ending with "/"
+     * @param root the absolute, real path of the filesystem directory
+     * @param cacheControl the Cache-Control header for files served from this mount, or null for none
+     */
+    public StaticMount(String urlPath, Path root, String cacheControl) {
+        this.urlPath = urlPath;
+        this.directory = null;
+        this.root = root;
+        this.cacheControl = cacheControl;
+    }
+
+    public String getUrlPath() {
+        return urlPath;
+    }
+
+    /**
+     * @return the classpath directory, or null for a filesystem mount
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the filesystem directory, or null for a classpath mount
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    public String getCacheControl() {
+        return cacheControl;
+    }
+}
@@ -0,0 +1,428 @@
+package server.transport;
+
+import server.HttpServer;
+import server.exceptions.HttpParseException;
+import server.exceptions.RequestTimeoutException;
+import server.request.HttpRequest;
+import server.request.HttpRequestReader;
+import server.request.TimeoutPhase;
+import server.response.FileBody;
+import server.response.HttpResponse;
+import server.response.HttpResponseFormater;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The default transport: a blocking {@link ServerSocketChannel} accept loop that hands each
+ * connection to the server's thread pool, which serves it until it is closed.
+ * Responses to pipelined requests are batched into one write, and a connection that keeps a worker busy
+ * with pipelined requests yields it after each batch. While an asynchronous handler is pending, the connection
+ * holds no worker; one picks it up again when the handler's stage completes.
+ * A connection over the server's connection cap, or one that no worker can take because the pool's queue is full,
+ * is answered with 503 on the accept thread before anything is read from it.
+ * Reads wait only for what is left of the request's timeouts (see {@link server.request.RequestTimeouts});
+ * since a socket has no write timeout, a watchdog closes connections whose write has passed its deadline.
+ * Connections are used through their stream adaptors; the underlying channel lets file bodies
+ * go out with {@link java.nio.channels.FileChannel#transferTo} (sendfile).
+ * With {@link HttpServer#virtualThreads()} each connection gets its own virtual thread;
+ * all blocking here is socket I/O through buffers, none of it while holding a monitor,
+ * so carrier threads are not pinned.
+ */
+public class BlockingTransport implements Transport {
+
+    static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    // Sent, before reading anything, to a connection the server cannot take on
+    static final byte[] SERVICE_UNAVAILABLE = ("HTTP/1.1 503 Service Unavailable\r\nContent-Type: text/plain\r\n"
+            + "Content-Length: 19\r\nRetry-After: 1\r\nConnection: close\r\n\r\nService Unavailable")
+            .getBytes(StandardCharsets.US_ASCII);
+
+    // Unread request body left after a handler that is skipped to keep the connection; beyond this it is closed
+    private static final long MAX_DISCARD_BYTES = 64 * 1024;
+    private static final long WRITE_CHECK_INTERVAL_MILLIS = 250;
+
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet(); // Open, for the write watchdog
+
+    @Override
+    public void start(HttpServer server) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(server.getPort()), server.getAcceptBacklog());
+        System.out.println("Server started on port " + server.getPort());
+        Thread watchdog = new Thread(() -> watchWrites(server), "write-timeout");
+        watchdog.setDaemon(true);
+        watchdog.start();
+
+        while (true) {
+            SocketChannel channel = serverChannel.accept();
+            if (!server.tryOpenConnection()) {
+                rejectConnection(server, channel);
+                continue;
+            }
+            try {
+                server.getThreadPool().execute(() -> handleClient(server, channel.socket()));
+            } catch (RejectedExecutionException e) {
+                server.connectionClosed();
+                rejectConnection(server, channel); // Every worker is busy and the queue is full
+            }
+        }
+    }
+
+    /**
+     * Turn away a connection the server cannot take on: send a 503 before reading the request, then close it.
+     * Cheap enough for the accept loop, so an overloaded server answers at once instead of letting the
+     * connection wait in a queue until its client gives up.
+     *
+     * @param server  the server, to count the rejection
+     * @param channel the accepted channel, still in blocking mode
+     */
+    static void rejectConnection(HttpServer server, SocketChannel channel) {
+        server.connectionRejected();
+        try (channel) {
+            channel.write(ByteBuffer.wrap(SERVICE_UNAVAILABLE)); // Fits in a new connection's send buffer
+            channel.shutdownOutput();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Handle a client connection, serving requests until the connection is closed,
+     * the keep-alive timeout expires, or the per-connection request limit is reached.
+     *
+     * @param server the server to dispatch requests to
+     * @param client the client socket
+     */
+    private void handleClient(HttpServer server, Socket client) {
+        Connection connection;
+        try {
+            connection = new Connection(server, client);
+        } catch (IOException e) {
+            e.printStackTrace();
+            close(server, client);
+            return;
+        }
+        connections.add(connection);
+        serve(connection);
+    }
+
+    /**
+     * Serve requests on a connection. Responses to pipelined requests that are already buffered are written
+     * without flushing, so a batch goes out in one write; after {@link HttpServer#getMaxPipelineDepth()} of them,
+     * the batch is flushed and the connection queues for a worker again instead of keeping this one.
+     *
+     * @param connection the connection
+     */
+    private void serve(Connection connection) {
+        HttpServer server = connection.server;
+        Socket client = connection.client;
+        HttpRequestReader reader = connection.reader;
+        OutputStream out = connection.out;
+        boolean handedOff = false;
+        try {
+            boolean keepAlive = true;
+            while (keepAlive) {
+                HttpRequest request;
+                try {
+                    request = reader.next();
+                    if (request != null) {
+                        // Rejects a declared Content-Length over the limit before the client sends the body
+                        reader.prepareBody(server.getMaxBodySize(request), () -> sendContinue(out));
+                    }
+                } catch (SocketTimeoutException e) {
+                    return; // Idle keep-alive connection timed out
+                } catch (HttpParseException e) {
+                    HttpResponse response = errorResponse(server, e);
+                    long writeStart = System.nanoTime();
+                    long written = writeResponse(connection, response, true);
+                    server.recordExchange(connection.clientIP, null, response, reader.getHeadStartNanos(), -1,
+                            System.nanoTime() - writeStart, reader.getBytesRead() - connection.bytesReported, written);
+                    return;
+                }
+                if (request == null) {
+                    return; // Client closed the connection
+                }
+                connection.requestCount++;
+                // The body is read by the handler, so on this transport it counts towards the handler phase
+                long parseNanos = System.nanoTime() - reader.getHeadStartNanos();
+
+                CompletableFuture<HttpResponse> pending = server.handleRequestAsync(request, connection.clientIP);
+                if (!pending.isDone()) {
+                    // An asynchronous handler: this worker is released until its stage completes
+                    out.flush(); // Batched responses must not wait behind it
+                    connection.batched = 0;
+                    pending.thenAcceptAsync(response -> resume(connection, request, response, parseNanos),
+                                    server.getThreadPool())
+                            .exceptionally(e -> {
+                                close(connection); // No worker could take the connection back
+                                return null;
+                            });
+                    handedOff = true;
+                    return;
+                }
+                keepAlive = respond(connection, request, pending.join(), parseNanos);
+                if (connection.batched >= server.getMaxPipelineDepth()) {
+                    connection.batched = 0; // The batch has been flushed
+                    try {
+                        server.getThreadPool().execute(() -> serve(connection)); // Let queued connections have a turn
+                        handedOff = true;
+                        return;
+                    } catch (RejectedExecutionException e) {
+                        // The queue is full; carry on with this worker rather than drop the connection
+                    }
+                }
+            }
+        } catch (Exception e) {
+            if (!connection.writeTimedOut) {
+                e.printStackTrace();
+            }
+        } finally {
+            if (!handedOff) {
+                close(connection);
+            }
+        }
+    }
+
+    /**
+     * Write the response to a request once its handler is done, holding it back if it is pipelined.
+     *
+     * @return true if the connection stays open for another request
+     * @throws IOException if the socket fails
+     */
+    private boolean respond(Connection connection, HttpRequest request, HttpResponse response, long parseNanos)
+            throws IOException {
+        HttpServer server = connection.server;
+        HttpRequestReader reader = connection.reader;
+        long writeStart = System.nanoTime();
+        if (!reader.finishBody(MAX_DISCARD_BYTES)) {
+            response.withHeader("Connection", "close"); // Unread body bytes would be parsed as the next request
+        }
+        boolean keepAlive = server.prepareResponse(request, response, connection.requestCount);
+        // Hold the response back while the next request is already here; the reader flushes before it blocks
+        boolean pipelined = keepAlive && reader.hasBufferedInput();
+        connection.batched = pipelined ? connection.batched + 1 : 0;
+        long written = writeResponse(connection, response,
+                !pipelined || connection.batched >= server.getMaxPipelineDepth());
+        server.recordExchange(connection.clientIP, request, response, reader.getHeadStartNanos(), parseNanos,
+                System.nanoTime() - writeStart, reader.getBytesRead() - connection.bytesReported, written);
+        connection.bytesReported = reader.getBytesRead();
+        return keepAlive;
+    }
+
+    // Run on a worker when an asynchronous handler completes: answer, then carry on serving the connection
+    private void resume(Connection connection, HttpRequest request, HttpResponse response, long parseNanos) {
+        boolean keepAlive = false;
+        try {
+            keepAlive = respond(connection, request, response, parseNanos);
+        } catch (Exception e) {
+            if (!connection.writeTimedOut) {
+                e.printStackTrace();
+            }
+        }
+        if (keepAlive) {
+            serve(connection);
+        } else {
+            close(connection);
+        }
+    }
+
+    private void close(Connection connection) {
+        connections.remove(connection);
+        close(connection.server, connection.client);
+    }
+
+    // Close a connection counted by HttpServer.tryOpenConnection
+    private static void close(HttpServer server, Socket client) {
+        try {
+            client.close();
+        } catch (IOException ignored) {
+        }
+        server.connectionClosed();
+    }
+
+    // Tell a client waiting on Expect: 100-continue to send the body; runs on the handler's first body read
+    private static void sendContinue(OutputStream out) {
+        try {
+            out.write(CONTINUE);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Build the response for a request that could not be parsed, or did not arrive in time.
+     * The connection is closed after it.
+     *
+     * @param server the server, to count timeouts
+     * @param e      the parse failure
+     * @return the error response
+     */
+    static HttpResponse errorResponse(HttpServer server, HttpParseException e) {
+        if (e instanceof RequestTimeoutException timeout) {
+            server.recordTimeout(timeout.getPhase());
+        }
+        return new HttpResponse(e.getStatusCode(), e.getMessage()).withHeader("Connection", "close");
+    }
+
+    // Close connections whose current write has passed its deadline; the blocked write then fails
+    private void watchWrites(HttpServer server) {
+        while (true) {
+            try {
+                Thread.sleep(WRITE_CHECK_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (Connection connection : connections) {
+                long deadline = connection.writeDeadline;
+                if (deadline != 0 && now - deadline > 0 && !connection.writeTimedOut) {
+                    connection.writeTimedOut = true;
+                    server.recordTimeout(TimeoutPhase.WRITE);
+                    try {
+                        connection.client.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Run a response's streaming body against a connection's output, framing it as chunks if the
+     * server chose Transfer-Encoding: chunked, and end it once the body has been written.
+     *
+     * @param response the response with a streaming body
+     * @param out      the connection's output
+     * @return the number of bytes written, including chunk framing
+     * @throws IOException if writing fails or the body throws; the connection must then be closed
+     */
+    static long writeStreamingBody(HttpResponse response, OutputStream out) throws IOException {
+        boolean chunked = "chunked".equals(response.getHeaders().get("Transfer-Encoding"));
+        BodyOutputStream body = new BodyOutputStream(out, chunked);
+        response.getStreamingBody().writeTo(body);
+        body.finish();
+        return body.getBytesWritten();
+    }
+
+    /**
+     * Write a response to the client. Headers and body are buffered and flushed together
+     * so that each response leaves in as few packets as possible. A file body follows the
+     * flushed headers straight from the file to the socket channel.
+     *
+     * @param connection the connection
+     * @param response   the response to write
+     * @param flush      false to leave an in-memory response buffered behind pipelined ones
+     * @return the number of bytes written
+     * @throws IOException if writing fails
+     */
+    private long writeResponse(Connection connection, HttpResponse response, boolean flush) throws IOException {
+        OutputStream out = connection.out;
+        byte[] head = HttpResponseFormater.formatHeaders(response).getBytes(StandardCharsets.US_ASCII);
+        FileBody fileBody = response.getFileBody();
+        if (fileBody != null) {
+            try (fileBody) {
+                out.write(head);
+                out.flush();
+                connection.beginWrite(fileBody.length());
+                try {
+                    fileBody.writeTo(connection.client.getChannel()); // A blocking channel takes the whole body
+                } finally {
+                    connection.endWrite();
+                }
+            }
+            return head.length + fileBody.length();
+        }
+        if (response.getStreamingBody() != null) {
+            out.write(head);
+            out.flush(); // Send the headers before the body is generated
+            return head.length + writeStreamingBody(response, out);
+        }
+        // Write headers then raw body bytes to avoid corrupting binary content
+        out.write(head);
+        byte[] body = response.getBodyBytes();
+        if (body != null && body.length > 0) {
+            out.write(body);
+        }
+        if (flush) {
+            out.flush();
+        }
+        return head.length + (body != null ? body.length : 0);
+    }
+
+    /**
+     * A client connection's state, carried over when the connection is handed to another worker.
+     */
+    private static final class Connection {
+        final HttpServer server;
+        final Socket client;
+        final String clientIP;
+        final HttpRequestReader reader;
+        final OutputStream out;
+        int requestCount;
+        int batched; // Responses written since the last flush
+        long bytesReported;
+        volatile long writeDeadline; // System.nanoTime() by which the write in progress must finish, or 0
+        volatile boolean writeTimedOut;
+
+        Connection(HttpServer server, Socket client) throws IOException {
+            this.server = server;
+            this.client = client;
+            this.clientIP = ((InetSocketAddress) client.getRemoteSocketAddress()).getAddress().toString().replace("/", "");
+            // The reader parses requests in place in its own buffer; output is buffered so each response is one write
+            this.out = new BufferedOutputStream(new TimedOutputStream(client.getOutputStream()));
+            // Each read waits only for what is left of the request's timeouts
+            this.reader = new HttpRequestReader(client.getInputStream(), server.newRequestParser(), out,
+                    server.getRequestTimeouts(), client::setSoTimeout);
+        }
+
+        // Start a write of length bytes: it may take the write timeout plus its length at the minimum data rate
+        void beginWrite(long length) {
+            long rate = server.getMinDataRate();
+            long deadline = System.nanoTime() + server.getWriteTimeoutMillis() * 1_000_000
+                    + (rate > 0 ? (long) (length * 1e9 / rate) : 0);
+            writeDeadline = deadline == 0 ? 1 : deadline;
+        }
+
+        void endWrite() {
+            writeDeadline = 0;
+        }
+
+        /**
+         * The socket's output, with a deadline on every write for the watchdog; sockets have no write timeout.
+         */
+        private final class TimedOutputStream extends FilterOutputStream {
+            TimedOutputStream(OutputStream out) {
+                super(out);
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                beginWrite(len);
+                try {
+                    out.write(b, off, len);
+                } finally {
+                    endWrite();
+                }
+            }
+        }
+    }
+}
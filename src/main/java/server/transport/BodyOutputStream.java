@@ -0,0 +1,111 @@
+package server.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * The stream a {@link server.response.StreamingBody} writes to. Buffers small writes and, for chunked
+ * responses, frames each buffer-full (or each flush) as one chunk. Closing it only flushes:
+ * the transport calls {@link #finish()} once the body has been written completely, so a handler that
+ * closes its stream while failing cannot make a truncated body look complete.
+ */
+class BodyOutputStream extends OutputStream {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final boolean chunked;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int count;
+    private long bytesWritten; // Including chunk framing
+
+    /**
+     * @param out the connection's output
+     * @param chunked true to frame the body with the chunked transfer coding
+     */
+    BodyOutputStream(OutputStream out, boolean chunked) {
+        this.out = out;
+        this.chunked = chunked;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            drain();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len >= buffer.length) {
+            drain();
+            emit(b, off, len); // Large writes go out as they are, without copying through the buffer
+            return;
+        }
+        if (len > buffer.length - count) {
+            drain();
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * End the body: send any buffered bytes and, for chunked responses, the last chunk.
+     * @throws IOException if writing fails
+     */
+    void finish() throws IOException {
+        drain();
+        if (chunked) {
+            out.write(LAST_CHUNK);
+            bytesWritten += LAST_CHUNK.length;
+        }
+        out.flush();
+    }
+
+    /**
+     * @return the number of bytes passed to the connection's output, including chunk framing
+     */
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private void drain() throws IOException {
+        if (count > 0) {
+            emit(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    // One write per chunk, so transports that queue each write as a buffer get one buffer per chunk
+    private void emit(byte[] b, int off, int len) throws IOException {
+        if (!chunked) {
+            out.write(b, off, len);
+            bytesWritten += len;
+            return;
+        }
+        byte[] size = (Integer.toHexString(len) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] frame = new byte[size.length + len + 2];
+        System.arraycopy(size, 0, frame, 0, size.length);
+        System.arraycopy(b, off, frame, size.length, len);
+        frame[frame.length - 2] = '\r';
+        frame[frame.length - 1] = '\n';
+        out.write(frame);
+        bytesWritten += frame.length;
+    }
+}
@@ -0,0 +1,118 @@
+package server.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Hands a streaming response body from the worker thread that generates it to the event loop that sends it.
+ * Each write is queued as one buffer and the loop is woken to send it. At most {@link #MAX_QUEUED_BUFFERS}
+ * buffers wait at a time; beyond that the worker blocks until the client has caught up, so a slow client
+ * holds a bounded amount of memory however large the body is.
+ */
+class NioBodyStream extends OutputStream {
+
+    private static final int MAX_QUEUED_BUFFERS = 8;
+
+    private final NioEventLoop loop;
+    private final Runnable wakeup;
+    private final ConcurrentLinkedQueue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+    private final Semaphore slots = new Semaphore(MAX_QUEUED_BUFFERS);
+    private volatile boolean finished;
+    private long bytesQueued; // Written by the worker; read by the loop only once finished
+    private volatile boolean aborted;
+
+    /**
+     * @param loop the loop that owns the connection
+     * @param wakeup run on the loop whenever there is something new to send
+     */
+    NioBodyStream(NioEventLoop loop, Runnable wakeup) {
+        this.loop = loop;
+        this.wakeup = wakeup;
+    }
+
+    // Worker side
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (aborted) {
+            slots.release();
+            throw new IOException("Connection closed");
+        }
+        bytesQueued += len;
+        queue.add(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+        loop.execute(wakeup);
+    }
+
+    /**
+     * Mark the body as complete; the loop finishes the response once the queue is sent.
+     */
+    @Override
+    public void close() {
+        finished = true;
+        loop.execute(wakeup);
+    }
+
+    // Loop side
+
+    /**
+     * Send queued buffers until the socket is full or the queue is empty.
+     * @param channel the connection's channel
+     * @return true if everything queued so far has been sent
+     * @throws IOException if writing fails
+     */
+    boolean drainTo(SocketChannel channel) throws IOException {
+        ByteBuffer buffer;
+        while ((buffer = queue.peek()) != null) {
+            channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                return false;
+            }
+            queue.poll();
+            slots.release();
+        }
+        return true;
+    }
+
+    /**
+     * @return true once the worker has written the whole body; check after {@link #drainTo} returned true
+     */
+    boolean isFinished() {
+        return finished && queue.isEmpty();
+    }
+
+    /**
+     * @return the number of body bytes the worker wrote; only valid once {@link #isFinished()}
+     */
+    long getBytesQueued() {
+        return bytesQueued;
+    }
+
+    /**
+     * Fail the worker's current and future writes because the connection has been closed.
+     */
+    void abort() {
+        aborted = true;
+        queue.clear();
+        slots.release(MAX_QUEUED_BUFFERS); // Unblock a worker waiting for room
+    }
+}
@@ -0,0 +1,584 @@
+package server.transport;
+
+import server.HttpServer;
+import server.exceptions.HttpParseException;
+import server.exceptions.RequestTimeoutException;
+import server.request.ChunkedDecoder;
+import server.request.HttpRequest;
+import server.request.HttpRequestParser;
+import server.request.RequestBody;
+import server.request.RequestTimeouts;
+import server.request.TimeoutPhase;
+import server.response.FileBody;
+import server.response.HttpResponse;
+import server.response.HttpResponseFormater;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * State of one client connection on an {@link NioEventLoop}. Only touched from the loop's thread.
+ * At most one request per connection is in flight; reading is paused while its handler runs
+ * and resumed once the response has been written. When the next request has already arrived (pipelining),
+ * an in-memory response is only queued before that request is dispatched, so up to the server's pipeline depth
+ * of responses leave in one gathering write, still in request order. A streaming body is generated on the worker
+ * thread and handed to the loop through a {@link NioBodyStream}.
+ * Request bodies are collected on the loop (decoding chunked bodies as they arrive) up to the route's size
+ * limit before the request is dispatched, so the loop never blocks on a handler that reads slowly; a client
+ * expecting 100 Continue is sent it as soon as its head has passed the limit check.
+ * Timeouts are checked on the loop's periodic tick, so they fire up to a tick late.
+ */
+class NioConnection {
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private final NioEventLoop loop;
+    private final HttpServer server;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final String clientIP;
+    private final HttpRequestParser parser;
+
+    private ByteBuffer in; // Unconsumed request bytes (write mode); null while the connection has none
+    private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+    private FileBody outFile; // Sent after the buffers in out, straight from the file
+    private NioBodyStream outStream; // Sent after the buffers in out, as the worker produces it
+
+    // The request whose head has been parsed and whose body is still arriving, or null
+    private HttpRequest pendingRequest;
+    private PendingBody pendingBody; // Filled in before pendingRequest is dispatched; null if it has no body
+    private long bodyRemaining;      // Content-Length bytes not received yet
+    private ChunkedDecoder chunks;   // Non-null for a chunked body
+    private ByteArrayOutputStream chunkedData;
+    private long bodyLimit;
+    private long bodyStartNanos;
+    private long bodyStartBytes;     // bytesRead before the first body byte
+    private long lastBodyReadNanos;
+
+    private HttpRequest inFlightRequest;
+    private HttpResponse inFlightResponse;
+    private boolean requestStarted;  // The first byte of the next request has arrived
+    private long requestStartNanos;
+    private long inFlightStartNanos; // When the in-flight request's first byte arrived
+    private long parseNanos = -1;    // Of the request in flight
+    private long writeStartNanos;    // When the in-flight request's handler returned
+    private long bytesOut;           // Of the response in flight, apart from a streaming body
+    private long bytesRead;
+    private long bytesReported;
+    private boolean busy;
+    private boolean keepAlive = true;
+    private boolean closed;
+    private int requestCount;
+    private int batched; // Responses queued in out behind the request in flight, not yet written
+    private long lastActiveNanos = System.nanoTime();
+    private long writeWaitingSince;  // When the socket filled up under the response being written, or 0
+
+    NioConnection(NioEventLoop loop, HttpServer server, SocketChannel channel, SelectionKey key) throws IOException {
+        this.loop = loop;
+        this.server = server;
+        this.channel = channel;
+        this.key = key;
+        this.clientIP = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().toString().replace("/", "");
+        this.parser = server.newRequestParser();
+    }
+
+    void onReadable() throws IOException {
+        ByteBuffer buffer = loop.getReadBuffer();
+        buffer.clear();
+        int read = channel.read(buffer);
+        if (read == -1) {
+            close();
+            return;
+        }
+        if (read == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        lastActiveNanos = now;
+        bytesRead += read;
+        if (!requestStarted) {
+            requestStarted = true;
+            requestStartNanos = now;
+        }
+        if (pendingRequest != null) {
+            lastBodyReadNanos = now;
+        }
+        buffer.flip();
+        append(buffer);
+        processInput();
+    }
+
+    void onWritable() throws IOException {
+        flush();
+    }
+
+    /**
+     * Answer a request that has not arrived within the server's timeouts with 408, and close a connection whose
+     * client has stopped reading its response or that has been idle too long.
+     *
+     * @param now the current {@link System#nanoTime()}
+     */
+    void checkTimeouts(long now) {
+        if (closed) {
+            return;
+        }
+        if (writeWaitingSince != 0) {
+            long rate = server.getMinDataRate();
+            long limit = server.getWriteTimeoutMillis() * 1_000_000 + (rate > 0 ? (long) (bytesOut * 1e9 / rate) : 0);
+            if (now - writeWaitingSince > limit) {
+                server.recordTimeout(TimeoutPhase.WRITE);
+                close();
+            }
+            return;
+        }
+        if (busy) {
+            return;
+        }
+        RequestTimeouts timeouts = server.getRequestTimeouts();
+        if (pendingRequest != null) {
+            if (now - lastBodyReadNanos > timeouts.bodyMillis() * 1_000_000) {
+                fail(new RequestTimeoutException(TimeoutPhase.BODY,
+                        "Request body paused for " + timeouts.bodyMillis() + " ms"));
+            } else if (now - timeouts.bodyRateDeadline(bodyStartNanos, bytesRead - bodyStartBytes) > 0) {
+                fail(new RequestTimeoutException(TimeoutPhase.BODY_RATE,
+                        "Request body arriving slower than " + timeouts.minBodyRate() + " bytes/s"));
+            }
+        } else if (requestStarted) {
+            if (!hasRequestLine()) {
+                if (now - requestStartNanos > timeouts.requestLineMillis() * 1_000_000) {
+                    fail(new RequestTimeoutException(TimeoutPhase.REQUEST_LINE,
+                            "Request line not received within " + timeouts.requestLineMillis() + " ms"));
+                }
+            } else if (now - requestStartNanos > timeouts.headersMillis() * 1_000_000) {
+                fail(new RequestTimeoutException(TimeoutPhase.HEADERS,
+                        "Request headers not received within " + timeouts.headersMillis() + " ms"));
+            }
+        } else if (now - lastActiveNanos > timeouts.idleMillis() * 1_000_000) {
+            close();
+        }
+    }
+
+    private boolean hasRequestLine() {
+        if (in == null) {
+            return false;
+        }
+        byte[] buf = in.array();
+        for (int i = 0; i < in.position(); i++) {
+            if (buf[i] == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (outFile != null) {
+            outFile.close();
+            outFile = null;
+        }
+        if (outStream != null) {
+            outStream.abort();
+            outStream = null;
+        }
+        loop.deregister(this);
+        server.connectionClosed();
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void append(ByteBuffer data) {
+        if (in == null) {
+            in = ByteBuffer.allocate(Math.max(INITIAL_BUFFER_SIZE, data.remaining()));
+        } else if (in.remaining() < data.remaining()) {
+            grow(in.position() + data.remaining());
+        }
+        in.put(data);
+    }
+
+    private void grow(int minCapacity) {
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(in.capacity() * 2, minCapacity));
+        in.flip();
+        bigger.put(in);
+        in = bigger;
+    }
+
+    // Parse and dispatch the next buffered request, if one is complete and none is in flight
+    private void processInput() {
+        while (!busy && !closed) {
+            try {
+                if (pendingRequest == null) {
+                    if (in == null) {
+                        return;
+                    }
+                    int headLength = parser.parseHead(in.array(), 0, in.position());
+                    if (headLength < 0) {
+                        return;
+                    }
+                    startRequest(headLength);
+                }
+                if (!readBody()) {
+                    return;
+                }
+            } catch (HttpParseException e) {
+                fail(e);
+                return;
+            }
+            HttpRequest request = pendingRequest;
+            pendingRequest = null;
+            pendingBody = null;
+            chunks = null;
+            chunkedData = null;
+            dispatch(request);
+        }
+    }
+
+    // Build the request from its head, apply the route's body limit, and send 100 Continue if the client waits for it
+    private void startRequest(int headLength) {
+        long contentLength = parser.getContentLength();
+        boolean chunked = parser.isChunked();
+        boolean expectContinue = parser.expectsContinue();
+        RequestBody body = null;
+        pendingBody = null;
+        if (contentLength > 0 || chunked) {
+            pendingBody = new PendingBody();
+            body = new RequestBody(pendingBody);
+        } else if (contentLength == 0) {
+            body = new RequestBody(new byte[0]);
+        }
+        pendingRequest = parser.toRequest(in.array(), 0, headLength, body);
+        consume(headLength);
+        if (pendingBody == null) {
+            return;
+        }
+
+        // Bodies are collected in memory before dispatch, so they are also limited to what fits in one array
+        bodyLimit = Math.min(server.getMaxBodySize(pendingRequest), RequestBody.MAX_BUFFERED_BYTES);
+        if (contentLength > bodyLimit) {
+            throw new HttpParseException(413, "Request body exceeds " + bodyLimit + " bytes");
+        }
+        bodyStartNanos = lastBodyReadNanos = System.nanoTime();
+        bodyStartBytes = bytesRead - (in == null ? 0 : in.position());
+        bodyRemaining = contentLength;
+        if (chunked) {
+            chunks = new ChunkedDecoder();
+            chunkedData = new ByteArrayOutputStream();
+        }
+        if (expectContinue && in == null) {
+            sendInterim(BlockingTransport.CONTINUE);
+        }
+    }
+
+    // Collect the pending request's body from the input buffer; true once it is complete
+    private boolean readBody() {
+        if (pendingBody == null) {
+            return true;
+        }
+        if (chunks == null) {
+            int length = (int) bodyRemaining;
+            if (in == null || in.position() < length) {
+                if (in != null && in.capacity() < length) {
+                    grow(length);
+                }
+                return false;
+            }
+            pendingBody.complete(Arrays.copyOfRange(in.array(), 0, length));
+            consume(length);
+            return true;
+        }
+
+        if (in == null) {
+            return false;
+        }
+        byte[] buf = in.array();
+        int end = in.position();
+        int pos = 0;
+        while (true) {
+            pos = chunks.skipFraming(buf, pos, end);
+            if (chunks.isDone()) {
+                consume(pos);
+                pendingBody.complete(chunkedData.toByteArray());
+                return true;
+            }
+            int n = (int) Math.min(chunks.dataRemaining(), end - pos);
+            if (n == 0) {
+                break;
+            }
+            if (chunkedData.size() + (long) n > bodyLimit) {
+                throw new HttpParseException(413, "Request body exceeds " + bodyLimit + " bytes");
+            }
+            chunkedData.write(buf, pos, n);
+            chunks.consumedData(n);
+            pos += n;
+        }
+        consume(pos);
+        return false;
+    }
+
+    // Write an interim (1xx) response while the request is still being read
+    private void sendInterim(byte[] response) {
+        out.add(ByteBuffer.wrap(response));
+        try {
+            flush();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private void dispatch(HttpRequest request) {
+        busy = true;
+        requestCount++;
+        inFlightStartNanos = requestStartNanos;
+        parseNanos = System.nanoTime() - requestStartNanos;
+        requestStarted = false;
+        key.interestOps(0); // Stop reading until this request has been answered
+        int count = requestCount;
+        try {
+            server.getThreadPool().execute(() -> {
+                CompletableFuture<HttpResponse> pending = server.handleRequestAsync(request, clientIP);
+                if (pending.isDone()) {
+                    try {
+                        respond(request, pending.join(), count);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        loop.execute(this::close); // Otherwise the connection stays busy and is never timed out
+                    }
+                } else {
+                    // An asynchronous handler: the worker is free until its stage completes, then a worker writes
+                    loop.execute(this::flushBatched); // Batched responses must not wait behind it
+                    pending.thenAcceptAsync(response -> respond(request, response, count), server.getThreadPool())
+                            .exceptionally(e -> {
+                                loop.execute(this::close); // No worker could write the response
+                                return null;
+                            });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            try {
+                respond(request, server.shedRequest(), count); // Every worker is busy and the queue is full
+            } catch (RuntimeException failure) {
+                failure.printStackTrace();
+                close();
+            }
+        }
+    }
+
+    // Run on a worker (on the loop for a shed request): format the response and hand it to the loop,
+    // generating a streaming body here
+    private void respond(HttpRequest request, HttpResponse response, int count) {
+        long writeStart = System.nanoTime();
+        boolean keep = server.prepareResponse(request, response, count);
+        byte[] head = HttpResponseFormater.formatHeaders(response).getBytes(StandardCharsets.US_ASCII);
+        if (response.getStreamingBody() == null) {
+            loop.execute(() -> send(request, response, keep, head, null, writeStart));
+            return;
+        }
+        // The headers go out right away; the body follows as the handler's writer produces it
+        NioBodyStream stream = new NioBodyStream(loop, this::onStreamData);
+        loop.execute(() -> send(request, response, keep, head, stream, writeStart));
+        try {
+            BlockingTransport.writeStreamingBody(response, stream);
+            stream.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+            loop.execute(this::close); // The body is incomplete; only closing tells the client
+        }
+    }
+
+    // Answer a request that could not be parsed and close
+    private void fail(HttpParseException e) {
+        busy = true;
+        key.interestOps(0);
+        inFlightStartNanos = requestStarted ? requestStartNanos : System.nanoTime();
+        parseNanos = -1;
+        HttpResponse response = BlockingTransport.errorResponse(server, e);
+        send(null, response, false, HttpResponseFormater.formatHeaders(response).getBytes(StandardCharsets.US_ASCII),
+                null, System.nanoTime());
+    }
+
+    private void send(HttpRequest request, HttpResponse response, boolean keep, byte[] head, NioBodyStream stream,
+                      long writeStart) {
+        if (closed) {
+            if (response.getFileBody() != null) {
+                response.getFileBody().close();
+            }
+            if (stream != null) {
+                stream.abort();
+            }
+            return;
+        }
+        inFlightRequest = request;
+        inFlightResponse = response;
+        keepAlive = keep;
+        writeStartNanos = writeStart;
+        out.add(ByteBuffer.wrap(head));
+        bytesOut = head.length;
+        outFile = response.getFileBody();
+        outStream = stream;
+        byte[] body = response.getBodyBytes();
+        if (outFile != null) {
+            bytesOut += outFile.length();
+        } else if (stream == null && body != null && body.length > 0) {
+            out.add(ByteBuffer.wrap(body));
+            bytesOut += body.length;
+        }
+        if (keep && outFile == null && stream == null && in != null && batched + 1 < server.getMaxPipelineDepth()) {
+            // A pipelined request may be buffered: leave this response queued and dispatch it, so the
+            // responses go out together once one is not followed by another request
+            batched++;
+            finishExchange();
+            if (busy || closed) {
+                return;
+            }
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private void flush() throws IOException {
+        channel.write(out.toArray(new ByteBuffer[0]));
+        while (!out.isEmpty() && !out.peek().hasRemaining()) {
+            out.poll();
+        }
+        if (out.isEmpty()) {
+            batched = 0;
+        }
+        if (!busy || inFlightResponse == null) {
+            // Only an interim response or responses to pipelined requests were queued; keep reading unless
+            // a request is being handled
+            int read = busy ? 0 : SelectionKey.OP_READ;
+            if (out.isEmpty()) {
+                writeWaitingSince = 0;
+                key.interestOps(read);
+            } else {
+                waitWritable(read | SelectionKey.OP_WRITE);
+            }
+            return;
+        }
+        if (!out.isEmpty() || (outFile != null && !outFile.writeTo(channel))) {
+            waitWritable(SelectionKey.OP_WRITE); // Socket buffer is full; finish when writable
+            return;
+        }
+        if (outFile != null) {
+            outFile.close();
+            outFile = null;
+        }
+        if (outStream != null) {
+            if (!outStream.drainTo(channel)) {
+                waitWritable(SelectionKey.OP_WRITE);
+                return;
+            }
+            if (!outStream.isFinished()) {
+                writeWaitingSince = 0;
+                key.interestOps(0); // Wait for the worker to produce more
+                return;
+            }
+            bytesOut += outStream.getBytesQueued();
+            outStream = null;
+        }
+
+        writeWaitingSince = 0;
+        finishExchange();
+    }
+
+    // Run on the loop: write the responses batched behind a request whose handler has gone asynchronous
+    private void flushBatched() {
+        if (closed || batched == 0) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    // Wait for the client to read enough of the response for the rest to fit; the write timeout runs from the
+    // first wait until the response has been written
+    private void waitWritable(int interestOps) {
+        if (writeWaitingSince == 0) {
+            writeWaitingSince = System.nanoTime();
+        }
+        key.interestOps(interestOps);
+    }
+
+    // Record the exchange in flight, once written or queued behind a pipelined one, and move on to the next request
+    private void finishExchange() {
+        server.recordExchange(clientIP, inFlightRequest, inFlightResponse, inFlightStartNanos, parseNanos,
+                System.nanoTime() - writeStartNanos, bytesRead - bytesReported, bytesOut);
+        bytesReported = bytesRead;
+        inFlightRequest = null;
+        inFlightResponse = null;
+        if (!keepAlive) {
+            close();
+            return;
+        }
+        busy = false;
+        lastActiveNanos = System.nanoTime();
+        if (in != null) { // A pipelined request is already waiting
+            requestStarted = true;
+            requestStartNanos = System.nanoTime();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        processInput();
+    }
+
+    // Run on the loop when a streaming body has new data or has finished
+    private void onStreamData() {
+        if (closed || outStream == null) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private void consume(int length) {
+        if (in == null) {
+            return;
+        }
+        in.flip();
+        in.position(length);
+        in.compact();
+        if (in.position() == 0) {
+            in = null; // Release the buffer while the connection is idle
+        }
+    }
+
+    /**
+     * The body stream of a request whose bytes are still arriving; filled in on the loop before the request
+     * is handed to a worker, which only reads it afterwards.
+     */
+    private static final class PendingBody extends ByteArrayInputStream {
+        PendingBody() {
+            super(new byte[0]);
+        }
+
+        void complete(byte[] body) {
+            this.buf = body;
+            this.pos = 0;
+            this.count = body.length;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package server.transport;
+
+import server.HttpServer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One selector thread of the {@link NioTransport}. Owns its connections: every read, write,
+ * and state change of an {@link NioConnection} happens on this loop's thread. Other threads
+ * hand work to the loop through {@link #execute(Runnable)}.
+ */
+class NioEventLoop implements Runnable {
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final long SELECT_TIMEOUT_MILLIS = 1000;
+
+    private final HttpServer server;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Set<NioConnection> connections = new HashSet<>();
+    // Shared by all connections of this loop so that idle connections hold no read buffer of their own
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    NioEventLoop(HttpServer server) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Run a task on this loop's thread.
+     *
+     * @param task the task to run
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Hand a newly accepted, non-blocking channel to this loop.
+     *
+     * @param channel the client channel
+     */
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioConnection connection = new NioConnection(this, server, channel, key);
+                key.attach(connection);
+                connections.add(connection);
+            } catch (IOException e) {
+                closeQuietly(channel);
+                server.connectionClosed();
+            }
+        });
+    }
+
+    void deregister(NioConnection connection) {
+        connections.remove(connection);
+    }
+
+    ByteBuffer getReadBuffer() {
+        return readBuffer;
+    }
+
+    @Override
+    public void run() {
+        long lastTimeoutCheck = System.currentTimeMillis();
+        while (true) {
+            try {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                runTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastTimeoutCheck >= SELECT_TIMEOUT_MILLIS) {
+                    checkTimeouts();
+                    lastTimeoutCheck = now;
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void checkTimeouts() {
+        long now = System.nanoTime();
+        // Copied, since a connection that times out deregisters itself
+        for (NioConnection connection : new ArrayList<>(connections)) {
+            connection.checkTimeouts(now);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
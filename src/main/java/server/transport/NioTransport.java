@@ -0,0 +1,67 @@
+package server.transport;
+
+import server.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A non-blocking transport built on {@link java.nio.channels.Selector}.
+ * A small number of I/O loops (one per core by default) do all accepting, reading, and writing;
+ * a request is only handed to the server's thread pool once it has been fully read, so idle
+ * keep-alive connections cost a buffer-less {@link NioConnection} rather than a thread each.
+ * Request bodies are therefore held in memory in full before their handler runs, even when it reads them with
+ * {@link server.request.HttpRequest#getBodyStream()}; use the blocking transport for uploads that should not be.
+ * Connections over the server's connection cap are answered with 503 and closed on accept; a request that no
+ * worker can take because the pool's queue is full is answered with 503 by its loop.
+ */
+public class NioTransport implements Transport {
+
+    private final int ioThreads;
+
+    public NioTransport() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param ioThreads the number of selector loops to run
+     */
+    public NioTransport(int ioThreads) {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("I/O thread count must be at least 1.");
+        }
+        this.ioThreads = ioThreads;
+    }
+
+    @Override
+    public void start(HttpServer server) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(server.getPort()), server.getAcceptBacklog());
+
+        NioEventLoop[] loops = new NioEventLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            loops[i] = new NioEventLoop(server);
+            Thread loopThread = new Thread(loops[i], "nio-io-" + i);
+            loopThread.setDaemon(true);
+            loopThread.start();
+        }
+        System.out.println("Server started on port " + server.getPort() + " (NIO, " + ioThreads + " I/O threads)");
+
+        // Accept on this thread and spread connections round-robin over the loops
+        int next = 0;
+        while (true) {
+            SocketChannel client = serverChannel.accept();
+            if (!server.tryOpenConnection()) {
+                BlockingTransport.rejectConnection(server, client); // Still blocking, so the 503 goes out in one write
+                continue;
+            }
+            client.configureBlocking(false);
+            client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            loops[next].register(client);
+            next = (next + 1) % ioThreads;
+        }
+    }
+}
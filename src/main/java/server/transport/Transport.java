@@ -0,0 +1,21 @@
+package server.transport;
+
+import server.HttpServer;
+
+import java.io.IOException;
+
+/**
+ * Accepts client connections and moves bytes between sockets and the server's request handlers.
+ * A transport owns the listening socket, request parsing, and response writing;
+ * routing and handling are delegated back to {@link HttpServer#handleRequest}.
+ */
+public interface Transport {
+
+    /**
+     * Bind to the server's port and serve connections. Blocks for as long as the server runs.
+     *
+     * @param server the server whose routes and settings to use
+     * @throws IOException if the transport fails to bind or accept
+     */
+    void start(HttpServer server) throws IOException;
+}
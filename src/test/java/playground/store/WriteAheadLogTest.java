@@ -0,0 +1,242 @@
+package playground.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Crash recovery of {@link WriteAheadLog}: each test leaves the directory as a crash could, then reopens it.
+ * Records are the strings "v1", "v2", ..., so a record of either log format is 16 header bytes plus 2.
+ */
+class WriteAheadLogTest {
+
+    private static final int RECORD_BYTES = 16 + 2;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reopensWithEveryInsert() throws IOException {
+        write(dir, Long.MAX_VALUE, 3);
+
+        assertRecords(reopen(dir), 3);
+    }
+
+    @Test
+    void cutsOffRecordTornByCrash() throws IOException {
+        write(dir, Long.MAX_VALUE, 3);
+        Path segment = onlySegment(dir);
+        truncate(segment, 2 * RECORD_BYTES + 5); // Inside the third record
+
+        InMemoryRepository<Item> repository = new InMemoryRepository<>(Item::setId);
+        try (WriteAheadLog<Item> log = open(dir, repository, Long.MAX_VALUE)) {
+            assertRecords(repository, 2);
+            assertEquals(2 * RECORD_BYTES, Files.size(segment));
+            assertEquals(3, log.insert(new Item("v3")).id); // Appended where the torn record was
+        }
+        assertRecords(reopen(dir), 3);
+    }
+
+    @Test
+    void cutsOffLastRecordWithBadChecksum() throws IOException {
+        write(dir, Long.MAX_VALUE, 3);
+        Path segment = onlySegment(dir);
+        flipByte(segment, 2 * RECORD_BYTES + 16); // The third record's payload
+
+        assertRecords(reopen(dir), 2);
+        assertEquals(2 * RECORD_BYTES, Files.size(segment));
+    }
+
+    @Test
+    void replaysEverySegment() throws IOException {
+        write(dir, Long.MAX_VALUE, 5);
+        splitSegment(dir, 3);
+
+        assertRecords(reopen(dir), 5);
+    }
+
+    @Test
+    void rejectsCorruptSegmentBeforeTheLast() throws IOException {
+        write(dir, Long.MAX_VALUE, 5);
+        splitSegment(dir, 3);
+        flipByte(dir.resolve(segmentName(1)), RECORD_BYTES + 16); // The second record's payload
+
+        IOException e = assertThrows(IOException.class, () -> reopen(dir));
+        assertTrue(e.getMessage().contains("corrupt after record 1"), e.getMessage());
+    }
+
+    @Test
+    void rejectsTornSegmentBeforeTheLast() throws IOException {
+        write(dir, Long.MAX_VALUE, 5);
+        splitSegment(dir, 3);
+        truncate(dir.resolve(segmentName(1)), RECORD_BYTES + 5);
+
+        assertThrows(IOException.class, () -> reopen(dir));
+    }
+
+    @Test
+    void recoversFromSnapshotAndRotatedSegments() throws IOException {
+        write(dir, 1, 5); // Every insert fills a segment, so each one starts a new segment and a snapshot
+        awaitSnapshotOfEverything(dir);
+
+        assertTrue(Files.exists(dir.resolve("snapshot.dat")));
+        assertEquals(List.of(dir.resolve(segmentName(6))), segments(dir));
+        assertRecords(reopen(dir), 5);
+    }
+
+    @Test
+    void recoversFromCrashBetweenSnapshotAndSegmentDeletion(@TempDir Path snapshotted) throws IOException {
+        // The snapshot is in place but the segments it covers are still there, as if the crash came before
+        // their deletion; their records must not be loaded twice
+        write(snapshotted, 1, 5);
+        awaitSnapshotOfEverything(snapshotted);
+        write(dir, Long.MAX_VALUE, 5);
+        splitSegment(dir, 3);
+        Files.copy(snapshotted.resolve("snapshot.dat"), dir.resolve("snapshot.dat"));
+
+        InMemoryRepository<Item> repository = new InMemoryRepository<>(Item::setId);
+        try (WriteAheadLog<Item> log = open(dir, repository, Long.MAX_VALUE)) {
+            assertRecords(repository, 5);
+            assertEquals(6, log.insert(new Item("v6")).id);
+        }
+        assertRecords(reopen(dir), 6);
+    }
+
+    @Test
+    void ignoresUnfinishedSnapshot() throws IOException {
+        write(dir, Long.MAX_VALUE, 3);
+        Files.write(dir.resolve("snapshot.dat.tmp"), new byte[]{1, 2, 3}); // A crash while writing a snapshot
+
+        assertRecords(reopen(dir), 3);
+        assertTrue(Files.notExists(dir.resolve("snapshot.dat.tmp")));
+    }
+
+    @Test
+    void rejectsCorruptSnapshot() throws IOException {
+        write(dir, 1, 5);
+        awaitSnapshotOfEverything(dir);
+        flipByte(dir.resolve("snapshot.dat"), 12 + 16); // The first record's payload
+
+        assertThrows(IOException.class, () -> reopen(dir));
+    }
+
+    // Insert "v1" to "v<count>" into a new log and close it
+    private static void write(Path dir, long segmentBytes, int count) throws IOException {
+        InMemoryRepository<Item> repository = new InMemoryRepository<>(Item::setId);
+        try (WriteAheadLog<Item> log = open(dir, repository, segmentBytes)) {
+            for (int i = 1; i <= count; i++) {
+                log.insert(new Item("v" + i));
+            }
+        }
+    }
+
+    private static InMemoryRepository<Item> reopen(Path dir) throws IOException {
+        InMemoryRepository<Item> repository = new InMemoryRepository<>(Item::setId);
+        open(dir, repository, Long.MAX_VALUE).close();
+        return repository;
+    }
+
+    private static WriteAheadLog<Item> open(Path dir, InMemoryRepository<Item> repository, long segmentBytes)
+            throws IOException {
+        return WriteAheadLog.open(dir, repository, new ItemCodec(), Durability.SYNC, segmentBytes);
+    }
+
+    private static void assertRecords(InMemoryRepository<Item> repository, int count) {
+        assertEquals(count, repository.size());
+        for (long id = 1; id <= count; id++) {
+            Item item = repository.get(id);
+            assertEquals(id, item.id);
+            assertEquals("v" + id, item.value);
+        }
+    }
+
+    // Snapshots run in the background, also after the log is closed; wait until one has covered every segment
+    private static void awaitSnapshotOfEverything(Path dir) throws IOException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (segments(dir).size() > 1 || Files.notExists(dir.resolve("snapshot.dat"))) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("No snapshot covering every segment: " + segments(dir));
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    // Split the only segment into two, the second starting at a record, as a segment rotation leaves them
+    private static void splitSegment(Path dir, long secondFirstId) throws IOException {
+        Path segment = onlySegment(dir);
+        byte[] bytes = Files.readAllBytes(segment);
+        int at = (int) (secondFirstId - 1) * RECORD_BYTES;
+        Files.write(dir.resolve(segmentName(secondFirstId)), Arrays.copyOfRange(bytes, at, bytes.length));
+        truncate(segment, at);
+    }
+
+    private static Path onlySegment(Path dir) throws IOException {
+        List<Path> segments = segments(dir);
+        assertEquals(1, segments.size(), "segments: " + segments);
+        return segments.getFirst();
+    }
+
+    private static List<Path> segments(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().startsWith("wal-")).sorted().toList();
+        }
+    }
+
+    private static String segmentName(long firstId) {
+        return String.format("wal-%020d.log", firstId);
+    }
+
+    private static void truncate(Path file, int length) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".cut");
+        Files.write(tmp, Arrays.copyOf(Files.readAllBytes(file), length));
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void flipByte(Path file, int offset) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[offset] ^= 0x01;
+        Files.write(file, bytes);
+    }
+
+    private static final class Item {
+        private long id;
+        private final String value;
+
+        private Item(String value) {
+            this.value = value;
+        }
+
+        private void setId(long id) {
+            this.id = id;
+        }
+    }
+
+    private static final class ItemCodec implements RecordCodec<Item> {
+        @Override
+        public byte[] encode(Item item) {
+            return item.value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public Item decode(ByteBuffer payload) {
+            return new Item(StandardCharsets.UTF_8.decode(payload).toString());
+        }
+    }
+}